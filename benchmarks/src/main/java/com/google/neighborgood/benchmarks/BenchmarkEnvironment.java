@@ -0,0 +1,109 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Map;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Helpers shared by the benchmarks. The App Engine services are the local stubs of the unit tests,
+ * with a logged in user. Their environment is bound to the thread that sets them up, so the states
+ * that use it must be scoped to the benchmark thread.
+ */
+final class BenchmarkEnvironment {
+  static final String USER_ID = "1234567890";
+
+  private BenchmarkEnvironment() {}
+
+  /** Returns a helper that sets up the datastore, memcache and user service stubs */
+  static LocalServiceTestHelper createHelper() {
+    return new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig(),
+            new LocalMemcacheServiceTestConfig(),
+            new LocalUserServiceTestConfig())
+        .setEnvIsLoggedIn(true)
+        .setEnvEmail("leonard@xxx.com")
+        .setEnvAuthDomain(USER_ID)
+        .setEnvAttributes(
+            Collections.singletonMap(
+                "com.google.appengine.api.users.UserService.user_id_key", USER_ID));
+  }
+
+  /** Returns a task entity of the given owner, like the ones TaskServlet stores */
+  static Entity createTask(Key parent, String ownerId, int index) {
+    Entity taskEntity = new Entity("Task", parent);
+    taskEntity.setProperty("detail", "Mow the lawn of the backyard, with my own mower " + index);
+    taskEntity.setProperty("overview", "Mow the lawn " + index);
+    taskEntity.setProperty("timestamp", 1593000000000L + index);
+    taskEntity.setProperty("reward", 50L);
+    taskEntity.setProperty("status", "OPEN");
+    taskEntity.setProperty("Owner", ownerId);
+    taskEntity.setProperty("Helper", "N/A");
+    taskEntity.setProperty("Address", "4000 Fifth Avenue");
+    taskEntity.setProperty("zipcode", "15213");
+    taskEntity.setProperty("country", "US");
+    taskEntity.setProperty("category", "Garden");
+    taskEntity.setProperty("lat", 40.4443);
+    taskEntity.setProperty("lng", -79.9532);
+    return taskEntity;
+  }
+
+  /** Returns a request that only answers getParameter, from the given parameters */
+  static HttpServletRequest createRequest(Map<String, String> parameters) {
+    return (HttpServletRequest)
+        Proxy.newProxyInstance(
+            HttpServletRequest.class.getClassLoader(),
+            new Class<?>[] {HttpServletRequest.class},
+            (proxy, method, args) ->
+                method.getName().equals("getParameter")
+                    ? parameters.get((String) args[0])
+                    : getDefault(method.getReturnType()));
+  }
+
+  /** Returns a response whose body is written to the given writer, and that ignores the rest */
+  static HttpServletResponse createResponse(StringWriter body) {
+    PrintWriter writer = new PrintWriter(body);
+    return (HttpServletResponse)
+        Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(),
+            new Class<?>[] {HttpServletResponse.class},
+            (proxy, method, args) ->
+                method.getName().equals("getWriter")
+                    ? writer
+                    : getDefault(method.getReturnType()));
+  }
+
+  private static Object getDefault(Class<?> type) {
+    if (type == boolean.class) {
+      return false;
+    } else if (type == int.class) {
+      return 0;
+    } else if (type == long.class) {
+      return 0L;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.benchmarks;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.neighborgood.repository.Repositories;
+import com.google.neighborgood.servlets.NotificationServlet;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the notifications of a user with unread messages on many tasks, which the
+ * NotificationServlet aggregates from the unread counts and the overviews of the tasks. It runs
+ * against the datastore stub and the in-memory repositories, to tell the cost of the storage from
+ * the cost of the servlet.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class NotificationBenchmark {
+  @Param({"datastore", "memory"})
+  public String backend;
+
+  @Param({"10", "100"})
+  public int taskCount;
+
+  private LocalServiceTestHelper helper;
+  private NotificationServlet servlet;
+  private HttpServletRequest request;
+  private StringWriter body;
+  private HttpServletResponse response;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = BenchmarkEnvironment.createHelper();
+    helper.setUp();
+    if (backend.equals("memory")) {
+      Repositories.useInMemory();
+    } else {
+      Repositories.useDatastore();
+    }
+
+    Key userKey = KeyFactory.createKey("UserInfo", BenchmarkEnvironment.USER_ID);
+    for (int i = 0; i < taskCount; i++) {
+      Key taskKey =
+          Repositories.tasks()
+              .put(BenchmarkEnvironment.createTask(userKey, BenchmarkEnvironment.USER_ID, i));
+      // Every task has a few unread messages
+      for (int j = 0; j <= i % 3; j++) {
+        Repositories.notifications()
+            .increment(BenchmarkEnvironment.USER_ID, KeyFactory.keyToString(taskKey));
+      }
+    }
+
+    servlet = new NotificationServlet();
+    request = BenchmarkEnvironment.createRequest(Collections.emptyMap());
+    body = new StringWriter();
+    response = BenchmarkEnvironment.createResponse(body);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    Repositories.useDatastore();
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public int aggregateNotifications() throws IOException {
+    body.getBuffer().setLength(0);
+    servlet.doGet(request, response);
+    return body.getBuffer().length();
+  }
+}
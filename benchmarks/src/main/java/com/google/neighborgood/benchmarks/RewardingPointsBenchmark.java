@@ -0,0 +1,57 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.benchmarks;
+
+import com.google.neighborgood.helper.RewardingPoints;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of parsing the rewarding points of a task form, when valid and when out of range */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RewardingPointsBenchmark {
+  private final HttpServletRequest validRequest =
+      BenchmarkEnvironment.createRequest(Collections.singletonMap("reward-input", "50"));
+  private final HttpServletRequest invalidRequest =
+      BenchmarkEnvironment.createRequest(Collections.singletonMap("reward-input", "201"));
+
+  @Benchmark
+  public int parseValidPoints() {
+    return RewardingPoints.get(validRequest, "reward-input");
+  }
+
+  @Benchmark
+  public Object parseInvalidPoints() {
+    try {
+      return RewardingPoints.get(invalidRequest, "reward-input");
+    } catch (IllegalArgumentException e) {
+      return e;
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.benchmarks;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.neighborgood.data.Task;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.TaskGroup;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of writing a page of the feed and a list of tasks as JSON with the shared Gson */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+  @Param({"10", "100"})
+  public int size;
+
+  private LocalServiceTestHelper helper;
+  private TaskGroup taskGroup;
+  private List<Task> tasks;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = BenchmarkEnvironment.createHelper();
+    helper.setUp();
+
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      Entity taskEntity =
+          BenchmarkEnvironment.createTask(
+              KeyFactory.createKey("UserInfo", BenchmarkEnvironment.USER_ID), "owner-" + i, i);
+      // The entities are never stored, so they get a key of their own
+      Entity keyedEntity = new Entity(KeyFactory.createKey(taskEntity.getParent(), "Task", i + 1));
+      keyedEntity.setPropertiesFrom(taskEntity);
+      keyedEntity.setProperty("ownerNickname", "Neighbor " + i);
+      entities.add(keyedEntity);
+    }
+
+    taskGroup = new TaskGroup();
+    taskGroup.addTasks(entities);
+    taskGroup.setNextPageToken("next-page-token");
+    tasks = new ArrayList<>();
+    for (Entity entity : entities) {
+      tasks.add(new Task(entity, (String) entity.getProperty("ownerNickname"), "N/A"));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public String serializeTaskGroup() {
+    return Json.GSON.toJson(taskGroup);
+  }
+
+  @Benchmark
+  public String serializeTaskList() {
+    return Json.GSON.toJson(tasks);
+  }
+}
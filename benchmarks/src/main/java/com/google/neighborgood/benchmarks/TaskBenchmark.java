@@ -0,0 +1,81 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.benchmarks;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.neighborgood.data.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmark of building Task objects from task entities whose nicknames are already resolved */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TaskBenchmark {
+  // A page of the feed holds 10 tasks
+  private static final int PAGE_SIZE = 10;
+
+  private LocalServiceTestHelper helper;
+  private List<Entity> entities;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    helper = BenchmarkEnvironment.createHelper();
+    helper.setUp();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+
+    entities = new ArrayList<>();
+    for (int i = 0; i < PAGE_SIZE; i++) {
+      Entity taskEntity =
+          BenchmarkEnvironment.createTask(
+              KeyFactory.createKey("UserInfo", "owner-" + i), "owner-" + i, i);
+      datastore.put(taskEntity);
+      entities.add(taskEntity);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Benchmark
+  public void constructTasks(Blackhole blackhole) {
+    for (Entity entity : entities) {
+      blackhole.consume(new Task(entity, "Neighbor", "N/A"));
+    }
+  }
+}
@@ -17,6 +17,8 @@ package com.google.neighborgood.data;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 
 public final class Message {
   private final String message;
@@ -41,4 +43,16 @@ public final class Message {
       this.className = "sentByOthers";
     }
   }
+
+  /** Writes messages as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<Message> {
+    @Override
+    public void write(JsonWriter out, Message message) throws IOException {
+      out.beginObject();
+      out.name("message").value(message.message);
+      out.name("className").value(message.className);
+      out.name("sentTime").value(message.sentTime);
+      out.endObject();
+    }
+  }
 }
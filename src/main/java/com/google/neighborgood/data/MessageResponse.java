@@ -14,14 +14,44 @@
 
 package com.google.neighborgood.data;
 
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.util.List;
 
 public final class MessageResponse {
   private final String cursorString;
+  // Positions of the newest and oldest messages, for the after and before parameters
+  private final String newest;
+  private final String oldest;
   private final List<Message> messages;
 
-  public MessageResponse(String cursorString, List<Message> messages) {
+  public MessageResponse(
+      String cursorString, String newest, String oldest, List<Message> messages) {
     this.messages = messages;
     this.cursorString = cursorString;
+    this.newest = newest;
+    this.oldest = oldest;
+  }
+
+  /**
+   * Writes message responses as JSON by hand, so that Gson doesn't need to reflect on their fields
+   */
+  public static final class JsonAdapter extends WriteOnlyAdapter<MessageResponse> {
+    private static final TypeAdapter<Message> MESSAGE_ADAPTER = new Message.JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, MessageResponse messageResponse) throws IOException {
+      out.beginObject();
+      out.name("cursorString").value(messageResponse.cursorString);
+      out.name("newest").value(messageResponse.newest);
+      out.name("oldest").value(messageResponse.oldest);
+      out.name("messages").beginArray();
+      for (Message message : messageResponse.messages) {
+        MESSAGE_ADAPTER.write(out, message);
+      }
+      out.endArray();
+      out.endObject();
+    }
   }
 }
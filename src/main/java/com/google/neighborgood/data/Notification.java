@@ -14,35 +14,29 @@
 
 package com.google.neighborgood.data;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 
 public final class Notification {
   private final String overview;
   private final String taskId;
-  private final int count;
+  private final long count;
 
-  public Notification(String taskId, int count) {
+  public Notification(String taskId, String overview, long count) {
     this.taskId = taskId;
+    this.overview = overview;
     this.count = count;
+  }
 
-    // Get the latest overview value
-    Key taskKey = KeyFactory.stringToKey(taskId);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    Entity taskEntity;
-    try {
-      taskEntity = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
-      System.err.println("Unable to find the entity based on the input key");
-      this.overview = "";
-      return;
+  /** Writes notifications as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<Notification> {
+    @Override
+    public void write(JsonWriter out, Notification notification) throws IOException {
+      out.beginObject();
+      out.name("overview").value(notification.overview);
+      out.name("taskId").value(notification.taskId);
+      out.name("count").value(notification.count);
+      out.endObject();
     }
-
-    this.overview = (String) taskEntity.getProperty("overview");
   }
 }
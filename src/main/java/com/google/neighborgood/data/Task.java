@@ -14,13 +14,12 @@
 
 package com.google.neighborgood.data;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 
@@ -42,56 +41,11 @@ public final class Task {
   private Double lat;
   private Double lng;
 
-  public Task(Entity entity) {
-    this.keyString = KeyFactory.keyToString(entity.getKey());
-    this.detail = (String) entity.getProperty("detail");
-    this.overview = (String) entity.getProperty("overview");
-    this.creationTime = (long) entity.getProperty("timestamp");
-    this.reward = (long) entity.getProperty("reward");
-    this.status = (String) entity.getProperty("status");
-    this.address = (String) entity.getProperty("Address");
-    this.zipcode = (String) entity.getProperty("zipcode");
-    this.country = (String) entity.getProperty("country");
-    this.category = (String) entity.getProperty("category");
-    this.lat = (Double) entity.getProperty("lat");
-    this.lng = (Double) entity.getProperty("lng");
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    String ownerId = (String) entity.getProperty("Owner");
-    String helperId = (String) entity.getProperty("Helper");
-    Entity ownerEntity = null;
-    try {
-      ownerEntity = datastore.get(KeyFactory.createKey("UserInfo", ownerId));
-    } catch (EntityNotFoundException e) {
-      System.err.println("Unable to find the owner of the task in the database");
-      this.owner = ownerId;
-      this.helper = helperId;
-      return;
-    }
-    this.owner = (String) ownerEntity.getProperty("nickname");
-
-    // If the task status is still "OPEN", the input helper should be "N/A".
-    // Otherwise, we will show the nickname of the helper.
-    if (!helperId.equals("N/A")) {
-      Entity helperEntity = null;
-      try {
-        helperEntity = datastore.get(KeyFactory.createKey("UserInfo", helperId));
-      } catch (EntityNotFoundException e) {
-        System.err.println("Unable to find the helper of the task in the database");
-        this.helper = helperId;
-        return;
-      }
-      this.helper = (String) helperEntity.getProperty("nickname");
-    } else {
-      this.helper = "N/A";
-    }
-
-    setIsOwnerCurrentUser(ownerId);
-    setDateTime();
-  }
-
-  // Constructor with provided ownerId, ownerNickn, ownerLat, and ownerLng
-  public Task(Entity entity, String ownerId, String ownerNickname) {
+  /**
+   * Builds a task from its entity along with the already resolved nicknames of its owner and
+   * helper. Use TaskAssembler to build many tasks with a single lookup of their users.
+   */
+  public Task(Entity entity, String ownerNickname, String helperNickname) {
     this.keyString = KeyFactory.keyToString(entity.getKey());
     this.detail = (String) entity.getProperty("detail");
     this.overview = (String) entity.getProperty("overview");
@@ -105,27 +59,9 @@ public final class Task {
     this.lat = (Double) entity.getProperty("lat");
     this.lng = (Double) entity.getProperty("lng");
     this.owner = ownerNickname;
+    this.helper = helperNickname;
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    String helperId = (String) entity.getProperty("Helper");
-
-    // If the task status is still "OPEN", the input helper should be "N/A".
-    // Otherwise, we will show the nickname of the helper.
-    if (!helperId.equals("N/A")) {
-      Entity helperEntity = null;
-      try {
-        helperEntity = datastore.get(KeyFactory.createKey("UserInfo", helperId));
-      } catch (EntityNotFoundException e) {
-        System.err.println("Unable to find the helper of the task in the database");
-        this.helper = helperId;
-        return;
-      }
-      this.helper = (String) helperEntity.getProperty("nickname");
-    } else {
-      this.helper = "N/A";
-    }
-
-    setIsOwnerCurrentUser(ownerId);
+    setIsOwnerCurrentUser((String) entity.getProperty("Owner"));
     setDateTime();
   }
 
@@ -142,4 +78,29 @@ public final class Task {
     if (userId.equals(ownerId)) this.isOwnerCurrentUser = true;
     else this.isOwnerCurrentUser = false;
   }
+
+  /** Writes tasks as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<Task> {
+    @Override
+    public void write(JsonWriter out, Task task) throws IOException {
+      out.beginObject();
+      out.name("detail").value(task.detail);
+      out.name("overview").value(task.overview);
+      out.name("keyString").value(task.keyString);
+      out.name("creationTime").value(task.creationTime);
+      out.name("status").value(task.status);
+      out.name("reward").value(task.reward);
+      out.name("owner").value(task.owner);
+      out.name("helper").value(task.helper);
+      out.name("address").value(task.address);
+      out.name("zipcode").value(task.zipcode);
+      out.name("country").value(task.country);
+      out.name("category").value(task.category);
+      out.name("isOwnerCurrentUser").value(task.isOwnerCurrentUser);
+      out.name("dateTime").value(task.dateTime);
+      out.name("lat").value(task.lat);
+      out.name("lng").value(task.lng);
+      out.endObject();
+    }
+  }
 }
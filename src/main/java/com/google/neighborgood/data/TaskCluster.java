@@ -0,0 +1,96 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregate of the open tasks located in one geohash cell, shown as a single marker on the map. A
+ * capped cluster was aggregated from only some of the tasks of its cell, so its count is a lower
+ * bound, to be shown as "1000+".
+ */
+public final class TaskCluster implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final String cell;
+  private final int count;
+  private final boolean capped;
+  private final Double lat;
+  private final Double lng;
+  private final HashMap<String, Integer> categories;
+
+  public TaskCluster(String cell, List<Entity> entities) {
+    this(cell, entities, false);
+  }
+
+  public TaskCluster(String cell, List<Entity> entities, boolean capped) {
+    this.cell = cell;
+    this.capped = capped;
+    this.categories = new HashMap<>();
+
+    int locatedCount = 0;
+    double latSum = 0;
+    double lngSum = 0;
+    for (Entity entity : entities) {
+      String category = (String) entity.getProperty("category");
+      categories.put(category, categories.getOrDefault(category, 0) + 1);
+
+      Double taskLat = (Double) entity.getProperty("lat");
+      Double taskLng = (Double) entity.getProperty("lng");
+      if (taskLat != null && taskLng != null) {
+        latSum += taskLat;
+        lngSum += taskLng;
+        locatedCount++;
+      }
+    }
+
+    this.count = entities.size();
+    this.lat = locatedCount > 0 ? latSum / locatedCount : null;
+    this.lng = locatedCount > 0 ? lngSum / locatedCount : null;
+  }
+
+  public int getCount() {
+    return this.count;
+  }
+
+  public boolean isCapped() {
+    return this.capped;
+  }
+
+  /** Writes task clusters as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<TaskCluster> {
+    @Override
+    public void write(JsonWriter out, TaskCluster taskCluster) throws IOException {
+      out.beginObject();
+      out.name("cell").value(taskCluster.cell);
+      out.name("count").value(taskCluster.count);
+      out.name("capped").value(taskCluster.capped);
+      out.name("lat").value(taskCluster.lat);
+      out.name("lng").value(taskCluster.lng);
+      out.name("categories").beginObject();
+      for (Map.Entry<String, Integer> entry : taskCluster.categories.entrySet()) {
+        out.name(entry.getKey()).value(entry.getValue());
+      }
+      out.endObject();
+      out.endObject();
+    }
+  }
+}
@@ -15,6 +15,8 @@
 package com.google.neighborgood.data;
 
 import com.google.appengine.api.datastore.Entity;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
 
 public final class User {
   private final String nickname;
@@ -61,4 +63,23 @@ public final class User {
   public Double getUserLng() {
     return this.lng;
   }
+
+  /** Writes users as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<User> {
+    @Override
+    public void write(JsonWriter out, User user) throws IOException {
+      out.beginObject();
+      out.name("nickname").value(user.nickname);
+      out.name("address").value(user.address);
+      out.name("zipcode").value(user.zipcode);
+      out.name("country").value(user.country);
+      out.name("email").value(user.email);
+      out.name("userId").value(user.userId);
+      out.name("points").value(user.points);
+      out.name("lat").value(user.lat);
+      out.name("lng").value(user.lng);
+      out.name("isCurrentUser").value(user.isCurrentUser);
+      out.endObject();
+    }
+  }
 }
@@ -0,0 +1,29 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Base class of the hand-written adapters of the response classes, which are only ever written as
+ * JSON and never read back from it
+ */
+public abstract class WriteOnlyAdapter<T> extends TypeAdapter<T> {
+  @Override
+  public final T read(JsonReader in) {
+    throw new UnsupportedOperationException(getClass().getName() + " can't read JSON");
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreAttributes;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Index;
+import com.google.appengine.api.datastore.Index.IndexState;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyRange;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DatastoreService that remembers every entity it gets by key, so that the same entity is read from
+ * the datastore at most once for as long as the service is used. Gets of several keys only fetch
+ * the ones that aren't known yet, in a single batch, and missing entities are remembered too.
+ *
+ * <p>Entities are copied in and out of the cache, so callers can modify the entities they get.
+ * Every key that is put or deleted, in a transaction or not, is dropped from the cache, and gets
+ * within a transaction always read the datastore. Queries aren't cached.
+ */
+public final class CachingDatastoreService implements DatastoreService {
+  private final DatastoreService datastore;
+  // Entities by key, with null for the keys that have no entity
+  private final Map<Key, Entity> entities = new HashMap<>();
+  private int hits;
+  private int misses;
+
+  public CachingDatastoreService(DatastoreService datastore) {
+    this.datastore = datastore;
+  }
+
+  /** Returns the number of entities that were found in the cache */
+  public int getHits() {
+    return hits;
+  }
+
+  /** Returns the number of entities that were read from the datastore */
+  public int getMisses() {
+    return misses;
+  }
+
+  @Override
+  public Entity get(Key key) throws EntityNotFoundException {
+    Entity entity = get(Arrays.asList(key)).get(key);
+    if (entity == null) {
+      throw new EntityNotFoundException(key);
+    }
+    return entity;
+  }
+
+  @Override
+  public Entity get(Transaction transaction, Key key) throws EntityNotFoundException {
+    return datastore.get(transaction, key);
+  }
+
+  @Override
+  public Map<Key, Entity> get(Iterable<Key> keys) {
+    if (datastore.getCurrentTransaction(null) != null) {
+      return datastore.get(keys);
+    }
+
+    Set<Key> missingKeys = new LinkedHashSet<>();
+    for (Key key : keys) {
+      if (!entities.containsKey(key)) {
+        missingKeys.add(key);
+      }
+    }
+    if (!missingKeys.isEmpty()) {
+      Map<Key, Entity> fetched = datastore.get(missingKeys);
+      for (Key key : missingKeys) {
+        Entity entity = fetched.get(key);
+        entities.put(key, entity == null ? null : entity.clone());
+      }
+    }
+
+    Map<Key, Entity> result = new LinkedHashMap<>();
+    for (Key key : keys) {
+      if (result.containsKey(key)) {
+        continue;
+      }
+      if (missingKeys.contains(key)) {
+        misses++;
+      } else {
+        hits++;
+      }
+      Entity entity = entities.get(key);
+      if (entity != null) {
+        result.put(key, entity.clone());
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Map<Key, Entity> get(Transaction transaction, Iterable<Key> keys) {
+    return datastore.get(transaction, keys);
+  }
+
+  @Override
+  public Key put(Entity entity) {
+    Key key = datastore.put(entity);
+    entities.remove(key);
+    return key;
+  }
+
+  @Override
+  public Key put(Transaction transaction, Entity entity) {
+    Key key = datastore.put(transaction, entity);
+    entities.remove(key);
+    return key;
+  }
+
+  @Override
+  public List<Key> put(Iterable<Entity> newEntities) {
+    return evict(datastore.put(newEntities));
+  }
+
+  @Override
+  public List<Key> put(Transaction transaction, Iterable<Entity> newEntities) {
+    return evict(datastore.put(transaction, newEntities));
+  }
+
+  @Override
+  public void delete(Key... keys) {
+    delete(Arrays.asList(keys));
+  }
+
+  @Override
+  public void delete(Transaction transaction, Key... keys) {
+    delete(transaction, Arrays.asList(keys));
+  }
+
+  @Override
+  public void delete(Iterable<Key> keys) {
+    datastore.delete(keys);
+    evict(keys);
+  }
+
+  @Override
+  public void delete(Transaction transaction, Iterable<Key> keys) {
+    datastore.delete(transaction, keys);
+    evict(keys);
+  }
+
+  /** Drops the given keys from the cache and returns them */
+  private <T extends Iterable<Key>> T evict(T keys) {
+    for (Key key : keys) {
+      entities.remove(key);
+    }
+    return keys;
+  }
+
+  @Override
+  public PreparedQuery prepare(Query query) {
+    return datastore.prepare(query);
+  }
+
+  @Override
+  public PreparedQuery prepare(Transaction transaction, Query query) {
+    return datastore.prepare(transaction, query);
+  }
+
+  @Override
+  public Transaction beginTransaction() {
+    return datastore.beginTransaction();
+  }
+
+  @Override
+  public Transaction beginTransaction(TransactionOptions options) {
+    return datastore.beginTransaction(options);
+  }
+
+  @Override
+  public Transaction getCurrentTransaction() {
+    return datastore.getCurrentTransaction();
+  }
+
+  @Override
+  public Transaction getCurrentTransaction(Transaction returnedIfNoTransaction) {
+    return datastore.getCurrentTransaction(returnedIfNoTransaction);
+  }
+
+  @Override
+  public Collection<Transaction> getActiveTransactions() {
+    return datastore.getActiveTransactions();
+  }
+
+  @Override
+  public KeyRange allocateIds(String kind, long num) {
+    return datastore.allocateIds(kind, num);
+  }
+
+  @Override
+  public KeyRange allocateIds(Key parent, String kind, long num) {
+    return datastore.allocateIds(parent, kind, num);
+  }
+
+  @Override
+  public KeyRangeState allocateIdRange(KeyRange range) {
+    return datastore.allocateIdRange(range);
+  }
+
+  @Override
+  public DatastoreAttributes getDatastoreAttributes() {
+    return datastore.getDatastoreAttributes();
+  }
+
+  @Override
+  public Map<Index, IndexState> getIndexes() {
+    return datastore.getIndexes();
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Helper class for conditional GETs. ETags are weak, since the same data can be sent gzipped or
+ * not, and are built from a version stamp of the data, so that they can be checked before the data
+ * itself is read.
+ */
+public final class ETags {
+  /** Returns the weak ETag of the given version stamp */
+  public static String weak(String stamp) {
+    return "W/\"" + stamp + "\"";
+  }
+
+  /**
+   * Sets the given ETag on the given response, and answers with 304 if the request's If-None-Match
+   * header holds it. Returns whether the response is complete, in which case the caller must not
+   * write a body.
+   */
+  public static boolean notModified(
+      HttpServletRequest request, HttpServletResponse response, String etag) {
+    response.setHeader("ETag", etag);
+    // Clients must check with the server before using their copy, which is theirs alone
+    response.setHeader("Cache-Control", "private, no-cache");
+    if (matches(request.getHeader("If-None-Match"), etag)) {
+      response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /** Returns whether the given If-None-Match header holds the given ETag, compared weakly */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      tag = tag.trim();
+      if (tag.equals("*") || opaque(tag).equals(opaque(etag))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String opaque(String etag) {
+    return etag.startsWith("W/") ? etag.substring(2) : etag;
+  }
+}
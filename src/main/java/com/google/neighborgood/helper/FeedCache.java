@@ -0,0 +1,160 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Helper class that caches the first page of the open task feed of each neighborhood and category
+ * in memcache. The cached pages of a neighborhood are keyed by a version, so changing the version
+ * with invalidate drops the pages of every category at once. Any write that changes the open tasks
+ * of a neighborhood must call invalidate.
+ *
+ * <p>The version is the time of the last change. The feed query is eventually consistent, so a page
+ * queried right after a change can miss it: pages must only be cached, and versions only used as
+ * ETags, once the version is settled, CONSISTENCY_WINDOW_MILLIS after the change.
+ */
+public final class FeedCache {
+  private static final String VERSION_PREFIX = "feed-version:";
+  private static final String PAGE_PREFIX = "feed-page:";
+  // Global queries usually see a write within a few seconds of it
+  public static final long CONSISTENCY_WINDOW_MILLIS = 5000;
+  // Bounds how long a page can stay cached, whatever happens to the version of its neighborhood
+  private static final int PAGE_EXPIRATION_SECONDS = 600;
+  private static volatile long consistencyWindowMillis = CONSISTENCY_WINDOW_MILLIS;
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+
+  /** First page of a feed query along with the cursor where the next page starts */
+  public static final class Page implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ArrayList<Entity> entities;
+    private final String endCursor;
+
+    public Page(List<Entity> entities, String endCursor) {
+      this.entities = new ArrayList<>(entities);
+      this.endCursor = endCursor;
+    }
+
+    public List<Entity> getEntities() {
+      return this.entities;
+    }
+
+    public String getEndCursor() {
+      return this.endCursor;
+    }
+  }
+
+  /**
+   * Returns the cache key of the first page of the given feed at the given version, so that a page
+   * read before an invalidation can't be cached under a newer version
+   */
+  public static String getKey(long version, String country, String zipcode, String category) {
+    return PAGE_PREFIX + version + "|" + country + "|" + zipcode + "|" + category;
+  }
+
+  /**
+   * Returns the current version of the feeds of the given neighborhood, which changes whenever
+   * their open tasks do. A neighborhood whose version isn't cached is taken as just changed.
+   */
+  public static long getVersion(String country, String zipcode) {
+    MemcacheService syncCache = getCache();
+    String versionKey = getVersionKey(country, zipcode);
+    Object version = syncCache.get(versionKey);
+    if (version == null) {
+      syncCache.put(
+          versionKey, System.currentTimeMillis(), null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = syncCache.get(versionKey);
+    }
+    // If memcache is unavailable, a new version is used so that nothing stale is ever served
+    return version == null ? System.currentTimeMillis() : (Long) version;
+  }
+
+  /**
+   * Returns whether the feed queries see every change up to the given version, so that the pages
+   * they return can be cached and the version used as an ETag
+   */
+  public static boolean isSettled(long version) {
+    return System.currentTimeMillis() - version >= consistencyWindowMillis;
+  }
+
+  /** Sets how long after a change the feeds are settled, so that tests don't need to wait */
+  public static void setConsistencyWindowMillis(long millis) {
+    consistencyWindowMillis = millis;
+  }
+
+  /** Returns the cached page of the given key, or null if it isn't cached */
+  public static Page get(String key) {
+    Page page = (Page) getCache().get(key);
+    if (page == null) {
+      misses.incrementAndGet();
+    } else {
+      hits.incrementAndGet();
+    }
+    return page;
+  }
+
+  /** Caches the given page under the given key, which must be of a settled version */
+  public static void put(String key, Page page) {
+    getCache().put(key, page, Expiration.byDeltaSeconds(PAGE_EXPIRATION_SECONDS));
+  }
+
+  /** Drops the cached pages of the feeds of the given task's neighborhood */
+  public static void invalidate(Entity taskEntity) {
+    invalidate(
+        (String) taskEntity.getProperty("country"), (String) taskEntity.getProperty("zipcode"));
+  }
+
+  /** Drops the cached pages of the feeds of the given neighborhood */
+  public static void invalidate(String country, String zipcode) {
+    // The new version is later than the current one even if the clocks of instances disagree
+    MemcacheService syncCache = getCache();
+    String versionKey = getVersionKey(country, zipcode);
+    Long version = (Long) syncCache.get(versionKey);
+    long now = System.currentTimeMillis();
+    syncCache.put(versionKey, version == null ? now : Math.max(now, version + 1));
+  }
+
+  /** Returns the number of cache hits and misses of this instance */
+  public static Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("hits", hits.get());
+    stats.put("misses", misses.get());
+    return stats;
+  }
+
+  private static String getVersionKey(String country, String zipcode) {
+    return VERSION_PREFIX + country + "|" + zipcode;
+  }
+
+  private static MemcacheService getCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    return syncCache;
+  }
+}
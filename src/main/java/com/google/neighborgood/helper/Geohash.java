@@ -0,0 +1,229 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Helper class that encodes locations as geohashes. Tasks store the geohash prefixes of their
+ * location so that all the tasks around a point can be found by querying a few cells.
+ */
+public final class Geohash {
+  /** Length of the longest geohash prefix stored on tasks, whose cells are about 1.2 x 0.6 km */
+  public static final int MAX_PRECISION = 6;
+
+  private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+  private static final double EARTH_RADIUS_KM = 6371.0;
+  private static final int MAX_COVERING_CELLS = 12;
+
+  /** Returns the geohash of the given location with the given number of characters */
+  public static String encode(double lat, double lng, int precision) {
+    double minLat = -90, maxLat = 90;
+    double minLng = -180, maxLng = 180;
+    StringBuilder geohash = new StringBuilder();
+    boolean isLngBit = true;
+    int bit = 0;
+    int character = 0;
+
+    while (geohash.length() < precision) {
+      if (isLngBit) {
+        double mid = (minLng + maxLng) / 2;
+        character <<= 1;
+        if (lng >= mid) {
+          character |= 1;
+          minLng = mid;
+        } else {
+          maxLng = mid;
+        }
+      } else {
+        double mid = (minLat + maxLat) / 2;
+        character <<= 1;
+        if (lat >= mid) {
+          character |= 1;
+          minLat = mid;
+        } else {
+          maxLat = mid;
+        }
+      }
+      isLngBit = !isLngBit;
+
+      if (++bit == 5) {
+        geohash.append(BASE32.charAt(character));
+        bit = 0;
+        character = 0;
+      }
+    }
+    return geohash.toString();
+  }
+
+  /** Returns every geohash prefix of the given location, from 1 to MAX_PRECISION characters */
+  public static List<String> getPrefixes(double lat, double lng) {
+    String geohash = encode(lat, lng, MAX_PRECISION);
+    List<String> prefixes = new ArrayList<>();
+    for (int i = 1; i <= MAX_PRECISION; i++) {
+      prefixes.add(geohash.substring(0, i));
+    }
+    return prefixes;
+  }
+
+  /**
+   * Returns the geohash cells that together cover the circle of the given radius around the given
+   * location. The cells are as small as possible while keeping their number low, and they all have
+   * the same precision.
+   */
+  public static Set<String> getCoveringCells(double lat, double lng, double radiusKm) {
+    double[] box = getBoundingBox(lat, lng, radiusKm);
+    int precision = MAX_PRECISION;
+    while (precision > 1
+        && countCells(box[2] - box[0], box[3] - box[1], precision) > MAX_COVERING_CELLS) {
+      precision--;
+    }
+    return getCellsInBox(box[0], box[1], box[2], box[3], precision);
+  }
+
+  /**
+   * Returns the cells one character longer that the given cell is made of and that overlap the
+   * bounding box of the circle of the given radius around the given location
+   */
+  public static List<String> getCoveringChildren(
+      String cell, double lat, double lng, double radiusKm) {
+    double[] box = getBoundingBox(lat, lng, radiusKm);
+    List<String> children = new ArrayList<>();
+    for (char character : BASE32.toCharArray()) {
+      String child = cell + character;
+      double[] bounds = getBounds(child);
+      boolean overlapsLat = bounds[0] <= box[2] && bounds[2] >= box[0];
+      // The box may extend past the antimeridian, so the cell is compared at every turn
+      boolean overlapsLng = false;
+      for (double shift = -360; shift <= 360; shift += 360) {
+        overlapsLng |= bounds[1] + shift <= box[3] && bounds[3] + shift >= box[1];
+      }
+      if (overlapsLat && overlapsLng) {
+        children.add(child);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Returns the geohash cells of the given precision that together cover the given bounding box.
+   * The box may cross the antimeridian, in which case maxLng is lower than minLng.
+   */
+  public static Set<String> getCellsInBox(
+      double minLat, double minLng, double maxLat, double maxLng, int precision) {
+    if (maxLng < minLng) {
+      maxLng += 360;
+    }
+    double cellHeight = getCellHeight(precision);
+    double cellWidth = getCellWidth(precision);
+    Set<String> cells = new LinkedHashSet<>();
+    for (double cellLat = minLat; ; cellLat += cellHeight) {
+      double pointLat = Math.min(cellLat, maxLat);
+      for (double cellLng = minLng; ; cellLng += cellWidth) {
+        double pointLng = Math.min(cellLng, maxLng);
+        cells.add(encode(pointLat, normalizeLng(pointLng), precision));
+        if (pointLng >= maxLng) break;
+      }
+      if (pointLat >= maxLat) break;
+    }
+    return cells;
+  }
+
+  /** Returns the number of geohash cells of the given precision needed to cover the given box */
+  public static int countCellsInBox(
+      double minLat, double minLng, double maxLat, double maxLng, int precision) {
+    if (maxLng < minLng) {
+      maxLng += 360;
+    }
+    return countCells(maxLat - minLat, maxLng - minLng, precision);
+  }
+
+  /** Returns the great-circle distance in kilometers between the two given locations */
+  public static double distanceKm(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2)
+                * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  /**
+   * Returns the bounding box of the circle of the given radius around the given location, as its
+   * min lat, min lng, max lat and max lng. The longitudes may go past the antimeridian.
+   */
+  private static double[] getBoundingBox(double lat, double lng, double radiusKm) {
+    double latDelta = Math.toDegrees(radiusKm / EARTH_RADIUS_KM);
+    double minLat = Math.max(-90, lat - latDelta);
+    double maxLat = Math.min(90, lat + latDelta);
+    double maxAbsLat = Math.max(Math.abs(minLat), Math.abs(maxLat));
+    double lngDelta =
+        maxAbsLat >= 90 ? 180 : latDelta / Math.max(Math.cos(Math.toRadians(maxAbsLat)), 1e-6);
+    lngDelta = Math.min(lngDelta, 180);
+    return new double[] {minLat, lng - lngDelta, maxLat, lng + lngDelta};
+  }
+
+  /** Returns the bounds of the given cell, as its min lat, min lng, max lat and max lng */
+  private static double[] getBounds(String cell) {
+    double minLat = -90, maxLat = 90;
+    double minLng = -180, maxLng = 180;
+    boolean isLngBit = true;
+    for (char character : cell.toCharArray()) {
+      int bits = BASE32.indexOf(character);
+      for (int mask = 16; mask > 0; mask >>= 1) {
+        boolean upper = (bits & mask) != 0;
+        if (isLngBit) {
+          double mid = (minLng + maxLng) / 2;
+          if (upper) minLng = mid;
+          else maxLng = mid;
+        } else {
+          double mid = (minLat + maxLat) / 2;
+          if (upper) minLat = mid;
+          else maxLat = mid;
+        }
+        isLngBit = !isLngBit;
+      }
+    }
+    return new double[] {minLat, minLng, maxLat, maxLng};
+  }
+
+  private static int countCells(double latSpan, double lngSpan, int precision) {
+    int rows = (int) Math.ceil(latSpan / getCellHeight(precision)) + 1;
+    int columns = (int) Math.ceil(lngSpan / getCellWidth(precision)) + 1;
+    return rows * columns;
+  }
+
+  private static double getCellHeight(int precision) {
+    int latBits = (5 * precision) / 2;
+    return 180 / Math.pow(2, latBits);
+  }
+
+  private static double getCellWidth(int precision) {
+    int lngBits = (5 * precision + 1) / 2;
+    return 360 / Math.pow(2, lngBits);
+  }
+
+  private static double normalizeLng(double lng) {
+    double normalized = (lng + 180) % 360;
+    if (normalized < 0) normalized += 360;
+    return normalized - 180;
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.google.neighborgood.data.Message;
+import com.google.neighborgood.data.MessageResponse;
+import com.google.neighborgood.data.Notification;
+import com.google.neighborgood.data.Task;
+import com.google.neighborgood.data.TaskCluster;
+import com.google.neighborgood.data.User;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Helper class that holds the Gson instance shared by every JSON endpoint. Gson instances are
+ * thread-safe and cache the adapters they build, and the data classes are written by their own
+ * hand-written adapters, so no reflection happens per response.
+ */
+public final class Json {
+  private static final TypeAdapter<Task> TASK_ADAPTER = new Task.JsonAdapter().nullSafe();
+
+  public static final Gson GSON =
+      new GsonBuilder()
+          .registerTypeAdapter(Message.class, new Message.JsonAdapter().nullSafe())
+          .registerTypeAdapter(MessageResponse.class, new MessageResponse.JsonAdapter().nullSafe())
+          .registerTypeAdapter(Notification.class, new Notification.JsonAdapter().nullSafe())
+          .registerTypeAdapter(Task.class, TASK_ADAPTER)
+          .registerTypeAdapter(TaskCluster.class, new TaskCluster.JsonAdapter().nullSafe())
+          .registerTypeAdapter(TaskGroup.class, new TaskGroup.JsonAdapter().nullSafe())
+          .registerTypeAdapter(User.class, new User.JsonAdapter().nullSafe())
+          .create();
+
+  /**
+   * Writes the given object to the given response as JSON, straight to the response's writer
+   * instead of building the whole JSON string first.
+   */
+  public static void write(HttpServletResponse response, Object src) throws IOException {
+    response.setContentType("application/json;");
+    PrintWriter writer = response.getWriter();
+    GSON.toJson(src, writer);
+    writer.println();
+  }
+
+  /**
+   * Streams the tasks of the given entities to the given response as a JSON array. The entities are
+   * assembled into tasks chunkSize at a time, with one nickname lookup per chunk, and each chunk is
+   * written out before the next one is assembled, so only one chunk of tasks is held in memory at a
+   * time. App Engine standard still buffers the whole response, so the client gets nothing earlier.
+   */
+  public static void writeTasks(
+      HttpServletResponse response, Iterable<Entity> entities, int chunkSize) throws IOException {
+    response.setContentType("application/json;");
+    JsonWriter jsonWriter = GSON.newJsonWriter(response.getWriter());
+    jsonWriter.beginArray();
+    List<Entity> chunk = new ArrayList<>();
+    for (Entity entity : entities) {
+      chunk.add(entity);
+      if (chunk.size() == chunkSize) {
+        writeChunk(jsonWriter, chunk);
+        chunk.clear();
+      }
+    }
+    writeChunk(jsonWriter, chunk);
+    jsonWriter.endArray();
+    jsonWriter.flush();
+  }
+
+  private static void writeChunk(JsonWriter jsonWriter, List<Entity> entities) throws IOException {
+    for (Task task : TaskAssembler.assemble(entities)) {
+      TASK_ADAPTER.write(jsonWriter, task);
+    }
+    jsonWriter.flush();
+  }
+}
@@ -0,0 +1,356 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+
+/**
+ * Helper class that maintains the top scorers boards, one global board and one per neighborhood.
+ *
+ * <p>Each board is a Leaderboard entity holding the ids and points of its BOARD_SIZE best users,
+ * which is updated in a transaction whenever one of them gains points or changes their profile.
+ * Boards hold more users than the TOP_USERS they show, so that a user moving to another
+ * neighborhood doesn't leave a gap. Boards are served from memcache along with the UserInfo
+ * entities of their users, and each update writes the new board through to the cache.
+ */
+public final class Leaderboard {
+  public static final int TOP_USERS = 10;
+  private static final int BOARD_SIZE = 20;
+  private static final String KIND = "Leaderboard";
+  private static final String GLOBAL_BOARD = "global";
+  private static final String CACHE_PREFIX = "leaderboard:";
+  private static final int MAX_RETRIES = 5;
+  // How long a dropped board can't be cached again, so that a request that loaded the board before
+  // the change can't cache its stale copy
+  private static final long NO_RE_ADD_MILLIS = 1000;
+
+  /** Cached board, made of the UserInfo entities of its users with their total points */
+  public static final class Board implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    // Identifies this load of the board, as profile changes reload it without changing its version
+    private final long loadId;
+    private final ArrayList<Entity> users;
+
+    private Board(long version, ArrayList<Entity> users) {
+      this.version = version;
+      this.loadId = ThreadLocalRandom.current().nextLong();
+      this.users = users;
+    }
+
+    /** Returns a stamp that changes whenever the points, ranks or profiles of the board change */
+    public String getStamp() {
+      return this.version + "." + Long.toHexString(this.loadId);
+    }
+
+    /**
+     * Returns the UserInfo entities of the top scorers of the board, with their "points" property
+     * set to their total points
+     */
+    public List<Entity> getTopUsers() {
+      return this.users.subList(0, Math.min(TOP_USERS, this.users.size()));
+    }
+  }
+
+  /**
+   * Returns the UserInfo entities of the top scorers of the given neighborhood, or of every user if
+   * country and zipcode are null, with their "points" property set to their total points.
+   */
+  public static List<Entity> getTopUsers(String country, String zipcode) {
+    return getBoard(country, zipcode).getTopUsers();
+  }
+
+  /** Returns the board of the given neighborhood, or the global board if it is null */
+  public static Board getBoard(String country, String zipcode) {
+    String boardName = getBoardName(country, zipcode);
+    Board board = (Board) getCache().get(CACHE_PREFIX + boardName);
+    if (board == null) {
+      DatastoreService datastore = RequestCache.getDatastoreService();
+      Entity boardEntity;
+      try {
+        boardEntity = datastore.get(KeyFactory.createKey(KIND, boardName));
+      } catch (EntityNotFoundException e) {
+        boardEntity = update(country, zipcode, null, null, true);
+      }
+      board = load(boardEntity);
+      cache(boardName, board);
+    }
+    return board;
+  }
+
+  /**
+   * Records the given total points of the given user on the global board and on the board of their
+   * neighborhood. Totals only grow, so an older total recorded late is ignored.
+   */
+  public static void recordPoints(Entity userEntity, long points) {
+    String userId = userEntity.getKey().getName();
+    update(null, null, userId, points, true);
+    update(
+        (String) userEntity.getProperty("country"),
+        (String) userEntity.getProperty("zipcode"),
+        userId,
+        points,
+        true);
+  }
+
+  /**
+   * Sets the given total points of the given user on their boards, even if it is lower than the
+   * points recorded so far. Used when the total was found to be wrong.
+   */
+  public static void correctPoints(Entity userEntity, long points) {
+    String userId = userEntity.getKey().getName();
+    update(null, null, userId, points, false);
+    update(
+        (String) userEntity.getProperty("country"),
+        (String) userEntity.getProperty("zipcode"),
+        userId,
+        points,
+        false);
+  }
+
+  /**
+   * Refreshes the boards of the given user after their profile was saved, moving them to the board
+   * of their new neighborhood if it changed. The previous country and zipcode are null for a new
+   * user. The board entities are only written if the user's points or rank changed, but the cached
+   * boards listing the user are dropped, as they hold the user's old profile.
+   */
+  public static void updateUser(Entity userEntity, String oldCountry, String oldZipcode) {
+    String userId = userEntity.getKey().getName();
+    String country = (String) userEntity.getProperty("country");
+    String zipcode = (String) userEntity.getProperty("zipcode");
+    if (oldCountry != null
+        && oldZipcode != null
+        && !getBoardName(oldCountry, oldZipcode).equals(getBoardName(country, zipcode))) {
+      remove(oldCountry, oldZipcode, userId);
+    }
+
+    long points = PointsCounter.getPoints(userId);
+    dropIfListed(null, null, update(null, null, userId, points, true), userId);
+    dropIfListed(country, zipcode, update(country, zipcode, userId, points, true), userId);
+  }
+
+  /** Drops the cached form of the given board if the given user is on it */
+  private static void dropIfListed(
+      String country, String zipcode, Entity boardEntity, String userId) {
+    if (getList(boardEntity, "userIds").contains(userId)) {
+      getCache().delete(CACHE_PREFIX + getBoardName(country, zipcode), NO_RE_ADD_MILLIS);
+    }
+  }
+
+  private static void remove(String country, String zipcode, String userId) {
+    update(country, zipcode, userId, null, true);
+  }
+
+  /**
+   * Sets the points of the given user on the given board, removing the user if points is null, and
+   * returns the board entity. Unless keepHigher is false, points lower than the user's current
+   * points on the board are ignored. A missing board is first seeded from the users with the most
+   * points.
+   */
+  private static Entity update(
+      String country, String zipcode, String userId, Long points, boolean keepHigher) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    String boardName = getBoardName(country, zipcode);
+    Key boardKey = KeyFactory.createKey(KIND, boardName);
+
+    // Seeding queries other entity groups, so it can't happen within the transaction
+    Entity seed = null;
+    try {
+      datastore.get(boardKey);
+    } catch (EntityNotFoundException e) {
+      seed = seed(boardKey, country, zipcode);
+    }
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        Entity boardEntity;
+        boolean changed;
+        try {
+          boardEntity = datastore.get(transaction, boardKey);
+          changed = false;
+        } catch (EntityNotFoundException e) {
+          if (seed == null) {
+            throw new IllegalStateException("Leaderboard was deleted while updating it", e);
+          }
+          boardEntity = seed.clone();
+          changed = true;
+        }
+
+        if (userId != null) {
+          changed |= setPoints(boardEntity, userId, points, keepHigher);
+        }
+        if (!changed) {
+          return boardEntity;
+        }
+
+        boardEntity.setUnindexedProperty("version", (Long) boardEntity.getProperty("version") + 1);
+        datastore.put(transaction, boardEntity);
+        transaction.commit();
+        cache(boardName, load(boardEntity));
+        return boardEntity;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the points of the given user on the given board entity, keeping the board sorted and at
+   * most BOARD_SIZE long. Returns whether the users of the board or their points changed.
+   */
+  private static boolean setPoints(
+      Entity boardEntity, String userId, Long points, boolean keepHigher) {
+    List<String> userIds = getList(boardEntity, "userIds");
+    List<Long> userPoints = getList(boardEntity, "points");
+    List<String> oldUserIds = new ArrayList<>(userIds);
+    List<Long> oldUserPoints = new ArrayList<>(userPoints);
+
+    int index = userIds.indexOf(userId);
+    if (index >= 0) {
+      if (points != null && keepHigher && userPoints.get(index) > points) {
+        points = userPoints.get(index);
+      }
+      userIds.remove(index);
+      userPoints.remove(index);
+    }
+
+    if (points != null) {
+      int position = 0;
+      while (position < userPoints.size() && userPoints.get(position) >= points) {
+        position++;
+      }
+      if (position < BOARD_SIZE) {
+        userIds.add(position, userId);
+        userPoints.add(position, points);
+      }
+      while (userIds.size() > BOARD_SIZE) {
+        userIds.remove(userIds.size() - 1);
+        userPoints.remove(userPoints.size() - 1);
+      }
+    }
+
+    boardEntity.setUnindexedProperty("userIds", userIds);
+    boardEntity.setUnindexedProperty("points", userPoints);
+    return !userIds.equals(oldUserIds) || !userPoints.equals(oldUserPoints);
+  }
+
+  /** Returns a new board filled with the users that have the most points stored on UserInfo */
+  private static Entity seed(Key boardKey, String country, String zipcode) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Query query = new Query("UserInfo").addSort("points", SortDirection.DESCENDING);
+    if (country != null && zipcode != null) {
+      List<Query.Filter> filters = new ArrayList<Query.Filter>();
+      filters.add(new Query.FilterPredicate("zipcode", Query.FilterOperator.EQUAL, zipcode));
+      filters.add(new Query.FilterPredicate("country", Query.FilterOperator.EQUAL, country));
+      query.setFilter(new Query.CompositeFilter(Query.CompositeFilterOperator.AND, filters));
+    }
+    query.setKeysOnly();
+
+    Entity boardEntity = new Entity(boardKey);
+    boardEntity.setUnindexedProperty("version", 0L);
+    for (Entity entity :
+        datastore.prepare(query).asList(FetchOptions.Builder.withLimit(BOARD_SIZE))) {
+      String userId = entity.getKey().getName();
+      setPoints(boardEntity, userId, PointsCounter.getPoints(userId), true);
+    }
+    return boardEntity;
+  }
+
+  /** Returns the cached form of the given board entity */
+  private static Board load(Entity boardEntity) {
+    List<String> userIds = getList(boardEntity, "userIds");
+    List<Long> userPoints = getList(boardEntity, "points");
+    List<Key> userKeys = new ArrayList<>();
+    for (String userId : userIds) {
+      userKeys.add(KeyFactory.createKey("UserInfo", userId));
+    }
+
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Map<Key, Entity> userEntities = datastore.get(userKeys);
+    ArrayList<Entity> users = new ArrayList<>();
+    for (int i = 0; i < userKeys.size(); i++) {
+      Entity userEntity = userEntities.get(userKeys.get(i));
+      if (userEntity != null) {
+        userEntity.setProperty("points", userPoints.get(i));
+        users.add(userEntity);
+      }
+    }
+    return new Board((Long) boardEntity.getProperty("version"), users);
+  }
+
+  /** Caches the given board unless the cache already holds the same or a newer version of it */
+  private static void cache(String boardName, Board board) {
+    MemcacheService syncCache = getCache();
+    String key = CACHE_PREFIX + boardName;
+    for (int retries = 0; retries < MAX_RETRIES; retries++) {
+      IdentifiableValue cached = syncCache.getIdentifiable(key);
+      if (cached == null) {
+        if (syncCache.put(key, board, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+          return;
+        }
+      } else if (((Board) cached.getValue()).version >= board.version
+          || syncCache.putIfUntouched(key, cached, board)) {
+        return;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> getList(Entity entity, String property) {
+    List<T> list = (List<T>) entity.getProperty(property);
+    return list == null ? new ArrayList<>() : new ArrayList<>(list);
+  }
+
+  private static String getBoardName(String country, String zipcode) {
+    if (country == null || zipcode == null) {
+      return GLOBAL_BOARD;
+    }
+    return country + "|" + zipcode;
+  }
+
+  private static MemcacheService getCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    return syncCache;
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Position of a message among the messages of its task, made of its sent time and its key as
+ * tiebreaker. Clients get positions as strings and pass them back to fetch the messages past the
+ * ones they have, without skipping the messages sent in the same millisecond.
+ */
+public final class MessagePosition {
+  private final long sentTime;
+  private final Key key;
+
+  private MessagePosition(long sentTime, Key key) {
+    this.sentTime = sentTime;
+    this.key = key;
+  }
+
+  /** Returns the position of the given message */
+  public static MessagePosition of(Entity messageEntity) {
+    return new MessagePosition(
+        (long) messageEntity.getProperty("sentTime"), messageEntity.getKey());
+  }
+
+  /**
+   * Returns the position of the given string. Throws an IllegalArgumentException if it is invalid
+   */
+  public static MessagePosition parse(String position) {
+    String[] parts = position.split("\\.", 2);
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Malformed message position: " + position);
+    }
+    return new MessagePosition(Long.parseLong(parts[0]), KeyFactory.stringToKey(parts[1]));
+  }
+
+  public long getSentTime() {
+    return this.sentTime;
+  }
+
+  public Key getKey() {
+    return this.key;
+  }
+
+  /**
+   * Returns whether the given message comes after this position, in the order of sent time with the
+   * key as tiebreaker
+   */
+  public boolean isBefore(Entity messageEntity) {
+    long otherSentTime = (long) messageEntity.getProperty("sentTime");
+    return otherSentTime > this.sentTime
+        || (otherSentTime == this.sentTime && messageEntity.getKey().compareTo(this.key) > 0);
+  }
+
+  /**
+   * Returns whether the given message comes before this position, in the order of sent time with
+   * the key as tiebreaker
+   */
+  public boolean isAfter(Entity messageEntity) {
+    long otherSentTime = (long) messageEntity.getProperty("sentTime");
+    return otherSentTime < this.sentTime
+        || (otherSentTime == this.sentTime && messageEntity.getKey().compareTo(this.key) < 0);
+  }
+
+  @Override
+  public String toString() {
+    return this.sentTime + "." + KeyFactory.keyToString(this.key);
+  }
+}
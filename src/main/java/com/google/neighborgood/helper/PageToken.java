@@ -0,0 +1,140 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.ShortBlob;
+import com.google.appengine.api.datastore.Transaction;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Helper class that turns the query cursors of a paginated feed into opaque page tokens signed with
+ * HMAC-SHA256, so that the client can hand them back without the server keeping any state.
+ *
+ * <p>A token holds the start cursors of every page the client went through, the last one being the
+ * start of the page the token points to. Removing the last cursor gives the token of the previous
+ * page. Only the latest MAX_PAGES cursors are kept, so going back further leads to the first page.
+ */
+public final class PageToken {
+  private static final int MAX_PAGES = 20;
+  private static final String ALGORITHM = "HmacSHA256";
+  private static final Key SECRET_KEY = KeyFactory.createKey("Secret", "page-token");
+  private static byte[] secret;
+
+  /** Returns the signed token for the page that starts at the last of the given cursors */
+  public static String encode(List<String> cursors) {
+    List<String> pageCursors = cursors;
+    if (pageCursors.size() > MAX_PAGES) {
+      pageCursors = pageCursors.subList(pageCursors.size() - MAX_PAGES, pageCursors.size());
+    }
+    byte[] payload = String.join(" ", pageCursors).getBytes(StandardCharsets.UTF_8);
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString(payload) + "." + encoder.encodeToString(sign(payload));
+  }
+
+  /**
+   * Returns the cursors held by the given token. An empty list means the token points to the first
+   * page. Throws an IllegalArgumentException if the token is malformed or its signature is invalid.
+   */
+  public static List<String> decode(String token) {
+    String[] parts = token.split("\\.", -1);
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Malformed page token: " + token);
+    }
+
+    byte[] payload;
+    byte[] signature;
+    try {
+      payload = Base64.getUrlDecoder().decode(parts[0]);
+      signature = Base64.getUrlDecoder().decode(parts[1]);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Malformed page token: " + token);
+    }
+
+    if (!MessageDigest.isEqual(sign(payload), signature)) {
+      throw new IllegalArgumentException("Invalid page token signature: " + token);
+    }
+
+    String cursors = new String(payload, StandardCharsets.UTF_8);
+    if (cursors.isEmpty()) {
+      return new ArrayList<>();
+    }
+    return new ArrayList<>(Arrays.asList(cursors.split(" ")));
+  }
+
+  private static byte[] sign(byte[] payload) {
+    try {
+      Mac mac = Mac.getInstance(ALGORITHM);
+      mac.init(new SecretKeySpec(getSecret(), ALGORITHM));
+      return mac.doFinal(payload);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Unable to sign the page token", e);
+    }
+  }
+
+  /**
+   * Returns the signing secret. It is generated once, stored in the datastore so that every
+   * instance shares it, and kept in memory afterwards.
+   */
+  private static synchronized byte[] getSecret() {
+    if (secret != null) {
+      return secret;
+    }
+
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Transaction transaction = datastore.beginTransaction();
+    Entity secretEntity;
+    try {
+      try {
+        secretEntity = datastore.get(transaction, SECRET_KEY);
+      } catch (EntityNotFoundException e) {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        secretEntity = new Entity(SECRET_KEY);
+        secretEntity.setUnindexedProperty("value", new ShortBlob(bytes));
+        datastore.put(transaction, secretEntity);
+      }
+      transaction.commit();
+    } catch (ConcurrentModificationException e) {
+      // Another instance created the secret at the same time, so we use theirs
+      try {
+        secretEntity = datastore.get(SECRET_KEY);
+      } catch (EntityNotFoundException notFound) {
+        throw new IllegalStateException("Unable to load the page token secret", notFound);
+      }
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+
+    secret = ((ShortBlob) secretEntity.getProperty("value")).getBytes();
+    return secret;
+  }
+}
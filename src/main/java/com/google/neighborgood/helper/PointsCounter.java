@@ -0,0 +1,175 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Helper class that keeps the rewarding points of each user in sharded counters, so that rewards
+ * granted to the same user at the same time don't contend on a single entity.
+ *
+ * <p>A user's total is the "points" property of their UserInfo entity, which new rewards no longer
+ * change, plus the sum of their PointsShard entities. Each shard records when it last changed, so
+ * that audits can leave alone the counters whose latest rewards their queries may not see yet.
+ */
+public final class PointsCounter {
+  private static final String SHARD_KIND = "PointsShard";
+  private static final int NUM_SHARDS = 10;
+  private static final int MAX_RETRIES = 5;
+  // Global queries usually see a write within a few seconds of it
+  public static final long SETTLE_MILLIS = 60 * 1000;
+  private static volatile long settleMillis = SETTLE_MILLIS;
+
+  /** Adds the given number of points to the given user's total */
+  public static void add(String userId, long points) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Key shardKey = getShardKey(userId, ThreadLocalRandom.current().nextInt(NUM_SHARDS));
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        add(datastore, transaction, shardKey, points);
+        transaction.commit();
+        UserProfileCache.invalidate(userId);
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the given number of points to one of the given user's shards within the given cross-group
+   * transaction, so that they are granted atomically with its other writes. The caller must
+   * invalidate the user's cached profile once the transaction is committed.
+   */
+  public static void add(
+      DatastoreService datastore, Transaction transaction, String userId, long points) {
+    add(
+        datastore,
+        transaction,
+        getShardKey(userId, ThreadLocalRandom.current().nextInt(NUM_SHARDS)),
+        points);
+  }
+
+  /** Returns the given user's total points, or 0 if the user doesn't exist */
+  public static long getPoints(String userId) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    List<Key> keys = getShardKeys(userId);
+    keys.add(KeyFactory.createKey("UserInfo", userId));
+    return sum(datastore.get(keys).values());
+  }
+
+  /** Returns the points held by the given user's shards, leaving out their UserInfo points */
+  public static long getShardedPoints(String userId) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    return sum(datastore.get(getShardKeys(userId)).values());
+  }
+
+  /**
+   * Replaces the points held by the given user's shards with the given number of points, unless a
+   * shard changed less than the settle window before the given time. Reading the shards in the same
+   * transaction as the reset makes a reward committed concurrently abort it rather than be erased.
+   * Returns whether the shards were reset.
+   */
+  public static boolean reset(String userId, long points, long auditTime) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    List<Key> shardKeys = getShardKeys(userId);
+    Entity shard = new Entity(shardKeys.get(0));
+    shard.setUnindexedProperty("points", points);
+    shard.setUnindexedProperty("timestamp", System.currentTimeMillis());
+
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+    try {
+      for (Entity entity : datastore.get(transaction, shardKeys).values()) {
+        Long timestamp = (Long) entity.getProperty("timestamp");
+        if (timestamp != null && timestamp > auditTime - settleMillis) {
+          return false;
+        }
+      }
+      datastore.delete(transaction, shardKeys.subList(1, shardKeys.size()));
+      datastore.put(transaction, shard);
+      transaction.commit();
+      UserProfileCache.invalidate(userId);
+      return true;
+    } catch (ConcurrentModificationException e) {
+      return false;
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Sets how long after a change a counter can be reset, so that tests don't need to wait */
+  public static void setSettleMillis(long millis) {
+    settleMillis = millis;
+  }
+
+  private static long sum(Collection<Entity> entities) {
+    long total = 0;
+    for (Entity entity : entities) {
+      Long points = (Long) entity.getProperty("points");
+      if (points != null) {
+        total += points;
+      }
+    }
+    return total;
+  }
+
+  private static List<Key> getShardKeys(String userId) {
+    List<Key> keys = new ArrayList<>();
+    for (int i = 0; i < NUM_SHARDS; i++) {
+      keys.add(getShardKey(userId, i));
+    }
+    return keys;
+  }
+
+  private static void add(
+      DatastoreService datastore, Transaction transaction, Key shardKey, long points) {
+    Entity shard;
+    try {
+      shard = datastore.get(transaction, shardKey);
+    } catch (EntityNotFoundException e) {
+      shard = new Entity(shardKey);
+      shard.setUnindexedProperty("points", 0L);
+    }
+    shard.setUnindexedProperty("points", (Long) shard.getProperty("points") + points);
+    shard.setUnindexedProperty("timestamp", System.currentTimeMillis());
+    datastore.put(transaction, shard);
+  }
+
+  // Shards are root entities so that they don't share the write limit of the user's entity group
+  private static Key getShardKey(String userId, int shard) {
+    return KeyFactory.createKey(SHARD_KIND, userId + "#" + shard);
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+/**
+ * Helper class that records every reward granted for a completed task in a PointsLedger entity
+ * keyed by the task's key, so that each task pays its helper exactly once. The ledger is the source
+ * of truth that the points counters can be audited against.
+ */
+public final class PointsLedger {
+  private static final String KIND = "PointsLedger";
+  private static final int MAX_RETRIES = 5;
+  private static final List<String> COMPLETABLE_STATUSES =
+      Arrays.asList("IN PROGRESS", "COMPLETE: AWAIT VERIFICATION");
+
+  /**
+   * Marks the given task as complete and grants its reward to its helper, unless the reward of the
+   * task was already granted. Both happen in one cross-group transaction, so a retried or
+   * concurrent completion can neither lose points nor pay twice. Returns the updated task entity.
+   * Throws an IllegalStateException, without writing anything, if the task has no helper or isn't
+   * in progress or awaiting verification.
+   */
+  public static Entity completeTask(Key taskKey) throws EntityNotFoundException {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Key ledgerKey = KeyFactory.createKey(KIND, KeyFactory.keyToString(taskKey));
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Entity taskEntity = datastore.get(transaction, taskKey);
+        String helperId = (String) taskEntity.getProperty("Helper");
+        String status = (String) taskEntity.getProperty("status");
+        // Paying an unclaimed task would also take up its ledger entry for good
+        if (helperId == null || helperId.equals("N/A")) {
+          throw new IllegalStateException("The task has no helper to pay");
+        }
+        if (!COMPLETABLE_STATUSES.contains(status)) {
+          throw new IllegalStateException("A task with status " + status + " can't be completed");
+        }
+        try {
+          datastore.get(transaction, ledgerKey);
+        } catch (EntityNotFoundException e) {
+          long reward = (long) taskEntity.getProperty("reward");
+
+          Entity ledgerEntity = new Entity(ledgerKey);
+          ledgerEntity.setProperty("userId", helperId);
+          ledgerEntity.setUnindexedProperty("points", reward);
+          ledgerEntity.setProperty("timestamp", System.currentTimeMillis());
+          datastore.put(transaction, ledgerEntity);
+          PointsCounter.add(datastore, transaction, helperId, reward);
+        }
+
+        taskEntity.setProperty("status", "COMPLETE");
+        datastore.put(transaction, taskEntity);
+        transaction.commit();
+        UserProfileCache.invalidate(helperId);
+        return taskEntity;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /** Returns the total points that the ledger granted to the given user */
+  public static long getPoints(String userId) {
+    return sum(getEntries(userId));
+  }
+
+  /**
+   * Returns the ledger entries of the given user. The query starts running right away, so getting
+   * the entries of several users before reading any of them runs their queries in parallel.
+   */
+  public static List<Entity> getEntries(String userId) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Query query =
+        new Query(KIND).setFilter(new FilterPredicate("userId", FilterOperator.EQUAL, userId));
+    return datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
+  }
+
+  /** Returns the total points of the given ledger entries */
+  public static long sum(List<Entity> entries) {
+    long total = 0;
+    for (Entity entity : entries) {
+      total += (long) entity.getProperty("points");
+    }
+    return total;
+  }
+}
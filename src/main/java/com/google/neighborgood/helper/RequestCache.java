@@ -0,0 +1,45 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+
+/**
+ * Helper class that scopes a CachingDatastoreService to the request being served, so that the
+ * servlets and helpers serving it share the entities they get by key. Outside of a request scope,
+ * the plain datastore service is used.
+ */
+public final class RequestCache {
+  private static final ThreadLocal<CachingDatastoreService> CURRENT = new ThreadLocal<>();
+
+  /** Starts a new request scope on the current thread */
+  public static void begin() {
+    CURRENT.set(new CachingDatastoreService(DatastoreServiceFactory.getDatastoreService()));
+  }
+
+  /** Ends the request scope of the current thread and returns its service, or null if none */
+  public static CachingDatastoreService end() {
+    CachingDatastoreService datastore = CURRENT.get();
+    CURRENT.remove();
+    return datastore;
+  }
+
+  /** Returns the datastore service of the current request scope, if any */
+  public static DatastoreService getDatastoreService() {
+    CachingDatastoreService datastore = CURRENT.get();
+    return datastore == null ? DatastoreServiceFactory.getDatastoreService() : datastore;
+  }
+}
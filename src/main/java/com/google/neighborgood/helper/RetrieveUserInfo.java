@@ -14,32 +14,21 @@
 
 package com.google.neighborgood.helper;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import java.util.ArrayList;
 import java.util.List;
 
 public final class RetrieveUserInfo {
   public static List<String> getInfoFromId(String userId) {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Key userEntityKey = KeyFactory.createKey("UserInfo", userId);
-    Entity entity;
-    try {
-      entity = datastore.get(userEntityKey);
-    } catch (EntityNotFoundException e) {
+    UserProfileCache.Profile profile = UserProfileCache.get(userId);
+    if (profile == null) {
       return null;
     }
 
-    long points = (long) entity.getProperty("points");
     List<String> result = new ArrayList<>();
-    result.add((String) entity.getProperty("nickname"));
-    result.add((String) entity.getProperty("address"));
-    result.add(Long.toString(points));
+    result.add(profile.getNickname());
+    result.add(profile.getAddress());
+    result.add(Long.toString(profile.getPoints()));
     return result;
   }
 
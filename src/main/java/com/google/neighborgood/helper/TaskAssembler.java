@@ -0,0 +1,125 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.neighborgood.data.Task;
+import com.google.neighborgood.repository.Repositories;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Helper class that builds Task objects from task entities, resolving the nicknames of all the
+ * owners and helpers involved with a single batch lookup instead of one lookup per task.
+ */
+public final class TaskAssembler {
+
+  /** Builds a single Task from the given task entity */
+  public static Task assemble(Entity entity) {
+    return assemble(Collections.singletonList(entity)).get(0);
+  }
+
+  /** Builds the Tasks for the given task entities, keeping their order */
+  public static List<Task> assemble(List<Entity> entities) {
+    Map<String, String> nicknames = getNicknames(getUsersWithoutStoredNickname(entities));
+
+    List<Task> tasks = new ArrayList<>();
+    for (Entity entity : entities) {
+      String ownerId = (String) entity.getProperty("Owner");
+      String helperId = (String) entity.getProperty("Helper");
+
+      // Nicknames stored on the task entity are used as is. Otherwise, if the owner or helper can't
+      // be found, their user id is shown instead
+      String owner = (String) entity.getProperty("ownerNickname");
+      if (owner == null) {
+        owner = nicknames.getOrDefault(ownerId, ownerId);
+      }
+      String helper = (String) entity.getProperty("helperNickname");
+      if (helper == null) {
+        helper = nicknames.getOrDefault(helperId, helperId);
+      }
+      tasks.add(new Task(entity, owner, helper));
+    }
+    return tasks;
+  }
+
+  /**
+   * Returns the ids of the owners and helpers whose nicknames are not stored on the given task
+   * entities yet, and still need to be looked up
+   */
+  public static Set<String> getUsersWithoutStoredNickname(List<Entity> entities) {
+    Set<String> userIds = new HashSet<>();
+    for (Entity entity : entities) {
+      if (entity.getProperty("ownerNickname") == null) {
+        userIds.add((String) entity.getProperty("Owner"));
+      }
+      String helperId = (String) entity.getProperty("Helper");
+      if (entity.getProperty("helperNickname") == null && !helperId.equals("N/A")) {
+        userIds.add(helperId);
+      }
+    }
+    return userIds;
+  }
+
+  /**
+   * Returns the nicknames of the given users keyed by user id. Nicknames are read from memcache
+   * first, and the ones missing from the cache are fetched from the datastore with a single batch
+   * get and put back in the cache. Users without a UserInfo entity are left out of the result.
+   */
+  public static Map<String, String> getNicknames(Collection<String> userIds) {
+    Map<String, String> nicknames = new HashMap<>();
+    if (userIds.isEmpty()) {
+      return nicknames;
+    }
+
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    for (Map.Entry<String, Object> entry : syncCache.getAll(userIds).entrySet()) {
+      if (entry.getValue() != null) {
+        nicknames.put(entry.getKey(), (String) entry.getValue());
+      }
+    }
+
+    List<String> missingUserIds = new ArrayList<>();
+    for (String userId : userIds) {
+      if (!nicknames.containsKey(userId)) {
+        missingUserIds.add(userId);
+      }
+    }
+    if (missingUserIds.isEmpty()) {
+      return nicknames;
+    }
+
+    Map<String, Object> newNicknames = new HashMap<>();
+    for (Entity userEntity : Repositories.users().getAll(missingUserIds).values()) {
+      String nickname = (String) userEntity.getProperty("nickname");
+      nicknames.put(userEntity.getKey().getName(), nickname);
+      newNicknames.put(userEntity.getKey().getName(), nickname);
+    }
+    syncCache.putAll(newNicknames);
+
+    return nicknames;
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.neighborgood.data.TaskCluster;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Helper class that computes the clusters of open tasks of geohash cells and caches them in
+ * memcache, one entry per cell. Writes that change where open tasks are, or which categories they
+ * have, must call invalidate so that the cells of the task get recomputed.
+ *
+ * <p>As with FeedCache, the cached clusters of a cell are keyed by a version of the cell, which is
+ * the time of its last change. Invalidating a cell changes its version, so a cluster computed
+ * before the change is cached under a key that is no longer read. The cell query is eventually
+ * consistent, so clusters are only cached once the version of their cell is settled,
+ * CONSISTENCY_WINDOW_MILLIS after the change.
+ */
+public final class TaskClusterCache {
+  private static final String KEY_PREFIX = "task-clusters:";
+  private static final String VERSION_PREFIX = "task-clusters-version:";
+  public static final long CONSISTENCY_WINDOW_MILLIS = FeedCache.CONSISTENCY_WINDOW_MILLIS;
+  private static volatile long consistencyWindowMillis = CONSISTENCY_WINDOW_MILLIS;
+  // Cells with more open tasks are aggregated from this many of them, and marked as capped
+  private static final int MAX_TASKS_PER_CELL = 1000;
+  // Bounds how long a cluster computed from a stale query result can stay in the cache
+  private static final int EXPIRATION_SECONDS = 600;
+
+  /** Returns the non-empty clusters of the given cells, computing the ones that are not cached */
+  public static List<TaskCluster> getClusters(Collection<String> cells) {
+    MemcacheService syncCache = getCache();
+    Map<String, Long> versions = getVersions(syncCache, cells);
+
+    Map<String, String> keys = new LinkedHashMap<>();
+    for (String cell : cells) {
+      keys.put(cell, KEY_PREFIX + versions.get(cell) + "|" + cell);
+    }
+    Map<String, Object> cachedClusters = syncCache.getAll(keys.values());
+
+    // Prepares the query of every missing cell first so that their fetches run concurrently
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Map<String, List<Entity>> missingCells = new LinkedHashMap<>();
+    for (String cell : cells) {
+      if (cachedClusters.get(keys.get(cell)) == null) {
+        Query query =
+            new Query("Task")
+                .setFilter(
+                    CompositeFilterOperator.and(
+                        new FilterPredicate("geocells", FilterOperator.EQUAL, cell),
+                        new FilterPredicate("status", FilterOperator.EQUAL, "OPEN")));
+        // One more task than aggregated is fetched, to tell whether the cell has more of them
+        missingCells.put(
+            cell,
+            datastore
+                .prepare(query)
+                .asList(FetchOptions.Builder.withLimit(MAX_TASKS_PER_CELL + 1)));
+      }
+    }
+
+    // Only the clusters of settled cells are cached, as the others may miss their latest change
+    Map<String, Object> newClusters = new HashMap<>();
+    Map<String, Object> settledClusters = new HashMap<>();
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, List<Entity>> entry : missingCells.entrySet()) {
+      String cell = entry.getKey();
+      List<Entity> entities = entry.getValue();
+      boolean capped = entities.size() > MAX_TASKS_PER_CELL;
+      if (capped) {
+        entities = entities.subList(0, MAX_TASKS_PER_CELL);
+      }
+      TaskCluster cluster = new TaskCluster(cell, entities, capped);
+      newClusters.put(keys.get(cell), cluster);
+      if (now - versions.get(cell) >= consistencyWindowMillis) {
+        settledClusters.put(keys.get(cell), cluster);
+      }
+    }
+    if (!settledClusters.isEmpty()) {
+      syncCache.putAll(settledClusters, Expiration.byDeltaSeconds(EXPIRATION_SECONDS));
+    }
+
+    List<TaskCluster> clusters = new ArrayList<>();
+    for (String key : keys.values()) {
+      Object cluster = cachedClusters.get(key);
+      if (cluster == null) {
+        cluster = newClusters.get(key);
+      }
+      if (((TaskCluster) cluster).getCount() > 0) {
+        clusters.add((TaskCluster) cluster);
+      }
+    }
+    return clusters;
+  }
+
+  /** Drops the cached clusters of every cell containing the given task */
+  @SuppressWarnings("unchecked")
+  public static void invalidate(Entity taskEntity) {
+    List<String> geocells = (List<String>) taskEntity.getProperty("geocells");
+    if (geocells == null) {
+      return;
+    }
+
+    // The new versions are later than the current ones even if the clocks of instances disagree
+    MemcacheService syncCache = getCache();
+    List<String> versionKeys = new ArrayList<>();
+    for (String cell : geocells) {
+      versionKeys.add(VERSION_PREFIX + cell);
+    }
+    Map<String, Object> versions = syncCache.getAll(versionKeys);
+    long now = System.currentTimeMillis();
+    Map<String, Object> newVersions = new HashMap<>();
+    for (String versionKey : versionKeys) {
+      Long version = (Long) versions.get(versionKey);
+      newVersions.put(versionKey, version == null ? now : Math.max(now, version + 1));
+    }
+    syncCache.putAll(newVersions);
+  }
+
+  /** Sets how long after a change the cells are settled, so that tests don't need to wait */
+  public static void setConsistencyWindowMillis(long millis) {
+    consistencyWindowMillis = millis;
+  }
+
+  /**
+   * Returns the current version of each of the given cells. A cell whose version isn't cached is
+   * taken as just changed.
+   */
+  private static Map<String, Long> getVersions(
+      MemcacheService syncCache, Collection<String> cells) {
+    List<String> versionKeys = new ArrayList<>();
+    for (String cell : cells) {
+      versionKeys.add(VERSION_PREFIX + cell);
+    }
+    Map<String, Object> cached = syncCache.getAll(versionKeys);
+    if (cached.size() < versionKeys.size()) {
+      Map<String, Object> missing = new HashMap<>();
+      long now = System.currentTimeMillis();
+      for (String versionKey : versionKeys) {
+        if (!cached.containsKey(versionKey)) {
+          missing.put(versionKey, now);
+        }
+      }
+      syncCache.putAll(missing, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      cached = syncCache.getAll(versionKeys);
+    }
+
+    // If memcache is unavailable, a new version is used so that nothing stale is ever cached
+    Map<String, Long> versions = new HashMap<>();
+    for (String cell : cells) {
+      Long version = (Long) cached.get(VERSION_PREFIX + cell);
+      versions.put(cell, version == null ? System.currentTimeMillis() : version);
+    }
+    return versions;
+  }
+
+  private static MemcacheService getCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    return syncCache;
+  }
+}
@@ -14,39 +14,34 @@
 
 package com.google.neighborgood.helper;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.memcache.ErrorHandlers;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
 import com.google.neighborgood.data.Task;
+import com.google.neighborgood.data.WriteOnlyAdapter;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.logging.Level;
+import java.util.Map;
 
 /**
  * Helper class that stores tasks in groups of 10 or less along with whether or not the end of the
  * query has been reached
  */
 public class TaskGroup {
-  private static MemcacheService syncCache;
-  private static DatastoreService datastore;
   private final boolean userLoggedIn;
   private int currentTaskCount;
   private boolean endOfQuery;
   private List<Task> tasks;
+  private String nextPageToken;
+  private String prevPageToken;
 
   public TaskGroup() {
-    this.syncCache = MemcacheServiceFactory.getMemcacheService();
-    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
     UserService userService = UserServiceFactory.getUserService();
     this.userLoggedIn = userService.isUserLoggedIn();
-    this.datastore = DatastoreServiceFactory.getDatastoreService();
     this.currentTaskCount = 0;
     this.endOfQuery = false;
     this.tasks = new ArrayList<>();
@@ -54,27 +49,36 @@ public class TaskGroup {
 
   /** addTask method adds a single task to the tasks list */
   public void addTask(Entity entity) {
+    addTasks(Collections.singletonList(entity));
+  }
 
-    String taskOwnerId = (String) entity.getProperty("Owner");
-    String taskOwnerNickname = (String) syncCache.get(taskOwnerId);
+  /**
+   * addTasks method adds all the given tasks to the tasks list. Nicknames that are not stored on
+   * the task entities are resolved with a single batch lookup
+   */
+  public void addTasks(List<Entity> entities) {
+    Map<String, String> nicknames =
+        TaskAssembler.getNicknames(TaskAssembler.getUsersWithoutStoredNickname(entities));
 
-    // if cache result returns null, then gets value from entity and puts it in cache
-    if (taskOwnerNickname == null) {
-      Key taskOwnerKey = entity.getParent();
-      try {
-        Entity userEntity = this.datastore.get(taskOwnerKey);
-        taskOwnerNickname = (String) userEntity.getProperty("nickname");
-        syncCache.put(taskOwnerId, (String) userEntity.getProperty("nickname"));
-      } catch (EntityNotFoundException e) {
+    for (Entity entity : entities) {
+      String taskOwnerId = (String) entity.getProperty("Owner");
+      String taskOwnerNickname = (String) entity.getProperty("ownerNickname");
+      if (taskOwnerNickname == null) {
+        taskOwnerNickname = nicknames.get(taskOwnerId);
+      }
+      if (taskOwnerNickname == null) {
         System.err.println(
             "Unable to find the task's owner info to retrieve the owner's nickname. Setting a default nickname.");
         taskOwnerNickname = "Your Friendly Neighbor";
       }
+      String helperId = (String) entity.getProperty("Helper");
+      String helperNickname = (String) entity.getProperty("helperNickname");
+      if (helperNickname == null) {
+        helperNickname = nicknames.getOrDefault(helperId, helperId);
+      }
+      tasks.add(new Task(entity, taskOwnerNickname, helperNickname));
+      this.currentTaskCount++;
     }
-    Task task = new Task(entity, taskOwnerId, taskOwnerNickname);
-    tasks.add(task);
-
-    this.currentTaskCount++;
   }
 
   /** Checks if its the end of the query */
@@ -83,4 +87,44 @@ public class TaskGroup {
       this.endOfQuery = true;
     }
   }
+
+  /** Marks this group of tasks as the last one of the query */
+  public void setEndOfQuery() {
+    this.endOfQuery = true;
+  }
+
+  public boolean isEndOfQuery() {
+    return this.endOfQuery;
+  }
+
+  /** Sets the token of the page following this group of tasks */
+  public void setNextPageToken(String nextPageToken) {
+    this.nextPageToken = nextPageToken;
+  }
+
+  /** Sets the token of the page preceding this group of tasks */
+  public void setPrevPageToken(String prevPageToken) {
+    this.prevPageToken = prevPageToken;
+  }
+
+  /** Writes task groups as JSON by hand, so that Gson doesn't need to reflect on their fields */
+  public static final class JsonAdapter extends WriteOnlyAdapter<TaskGroup> {
+    private static final TypeAdapter<Task> TASK_ADAPTER = new Task.JsonAdapter();
+
+    @Override
+    public void write(JsonWriter out, TaskGroup taskGroup) throws IOException {
+      out.beginObject();
+      out.name("userLoggedIn").value(taskGroup.userLoggedIn);
+      out.name("currentTaskCount").value(taskGroup.currentTaskCount);
+      out.name("endOfQuery").value(taskGroup.endOfQuery);
+      out.name("tasks").beginArray();
+      for (Task task : taskGroup.tasks) {
+        TASK_ADAPTER.write(out, task);
+      }
+      out.endArray();
+      out.name("nextPageToken").value(taskGroup.nextPageToken);
+      out.name("prevPageToken").value(taskGroup.prevPageToken);
+      out.endObject();
+    }
+  }
 }
@@ -0,0 +1,96 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.neighborgood.repository.Repositories;
+import java.io.Serializable;
+import java.util.logging.Level;
+
+/**
+ * The owner and helper ids of a task, cached in memcache so that sending a chat message doesn't
+ * need to read the task. Any write that changes the helper of a task must call invalidate.
+ */
+public final class TaskParticipants implements Serializable {
+  private static final long serialVersionUID = 1L;
+  private static final String PREFIX = "task-participants:";
+  // How long the participants of an invalidated task can't be cached again, so that a request that
+  // read the task before the change can't cache its stale participants
+  private static final long NO_RE_ADD_MILLIS = 5000;
+
+  private final String owner;
+  private final String helper;
+
+  private TaskParticipants(String owner, String helper) {
+    this.owner = owner;
+    this.helper = helper;
+  }
+
+  public String getOwner() {
+    return this.owner;
+  }
+
+  public String getHelper() {
+    return this.helper;
+  }
+
+  /**
+   * Returns the user that the messages of the given user are sent to, which is the owner for the
+   * helper and the helper for the owner, or null if the user takes no part in the task.
+   */
+  public String getReceiver(String userId) {
+    if (userId.equals(this.helper)) {
+      return this.owner;
+    } else if (userId.equals(this.owner)) {
+      return this.helper;
+    }
+    return null;
+  }
+
+  /** Returns the participants of the given task, or null if the task doesn't exist */
+  public static TaskParticipants get(Key taskKey) {
+    MemcacheService syncCache = getCache();
+    String key = PREFIX + KeyFactory.keyToString(taskKey);
+    TaskParticipants participants = (TaskParticipants) syncCache.get(key);
+    if (participants == null) {
+      Entity taskEntity = Repositories.tasks().get(taskKey);
+      if (taskEntity == null) {
+        return null;
+      }
+      participants =
+          new TaskParticipants(
+              (String) taskEntity.getProperty("Owner"), (String) taskEntity.getProperty("Helper"));
+      syncCache.put(key, participants, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+    return participants;
+  }
+
+  /** Drops the cached participants of the given task */
+  public static void invalidate(Key taskKey) {
+    getCache().delete(PREFIX + KeyFactory.keyToString(taskKey), NO_RE_ADD_MILLIS);
+  }
+
+  private static MemcacheService getCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    return syncCache;
+  }
+}
@@ -0,0 +1,265 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helper class that counts the unread messages of each user per task. Each count is an UnreadCount
+ * entity keyed by its receiver and task, so that different chats never contend on the same entity,
+ * and the counts of a user are found with a query on its receiver.
+ *
+ * <p>The messages sent while a task has no helper are counted on a pending UnreadCount entity in
+ * the task's entity group, which is handed over to the helper who claims the task.
+ */
+public final class UnreadCounter {
+  private static final String KIND = "UnreadCount";
+  private static final int MAX_RETRIES = 5;
+
+  /** Counts one more unread message of the given task for the given user */
+  public static void increment(String receiver, String taskId) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        add(datastore, transaction, getKey(receiver, taskId), receiver, taskId, 1);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts one more unread message of the given task for its helper, or for its future helper if
+   * the task has none yet. The helper is read in the same transaction, so that a message counted
+   * while the task is being claimed goes to whoever ends up helping.
+   */
+  public static void incrementPending(Key taskKey) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    String taskId = KeyFactory.keyToString(taskKey);
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        Entity taskEntity;
+        try {
+          taskEntity = datastore.get(transaction, taskKey);
+        } catch (EntityNotFoundException e) {
+          // The task was deleted, so its messages can no longer be read
+          return;
+        }
+
+        String helper = (String) taskEntity.getProperty("Helper");
+        if (helper == null || helper.equals("N/A")) {
+          add(datastore, transaction, getPendingKey(taskKey), null, taskId, 1);
+        } else {
+          add(datastore, transaction, getKey(helper, taskId), helper, taskId, 1);
+        }
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts the legacy Notification entities of the given keys that still exist as unread messages
+   * of the given task for the given user, and deletes them in the same cross-group transaction so
+   * that each of them is counted exactly once. At most 24 keys can be migrated at a time.
+   */
+  public static void migrate(String receiver, String taskId, List<Key> notificationKeys) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        List<Key> found = new ArrayList<>(datastore.get(transaction, notificationKeys).keySet());
+        if (found.isEmpty()) {
+          return;
+        }
+        add(datastore, transaction, getKey(receiver, taskId), receiver, taskId, found.size());
+        datastore.delete(transaction, found);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Counts the legacy Notification entities of the given keys that still exist, which were written
+   * for the messages of the given task before it had a helper, as unread messages of its helper, or
+   * of its future helper if it has none yet. They are deleted in the same cross-group transaction,
+   * or just deleted if the task no longer exists. At most 23 keys can be migrated at a time.
+   */
+  public static void migratePending(Key taskKey, List<Key> notificationKeys) {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    String taskId = KeyFactory.keyToString(taskKey);
+
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
+      try {
+        List<Key> found = new ArrayList<>(datastore.get(transaction, notificationKeys).keySet());
+        if (found.isEmpty()) {
+          return;
+        }
+
+        Entity taskEntity = null;
+        try {
+          taskEntity = datastore.get(transaction, taskKey);
+        } catch (EntityNotFoundException e) {
+          // The task was deleted, so its messages can no longer be read
+        }
+        if (taskEntity != null) {
+          String helper = (String) taskEntity.getProperty("Helper");
+          if (helper == null || helper.equals("N/A")) {
+            add(datastore, transaction, getPendingKey(taskKey), null, taskId, found.size());
+          } else {
+            add(datastore, transaction, getKey(helper, taskId), helper, taskId, found.size());
+          }
+        }
+        datastore.delete(transaction, found);
+        transaction.commit();
+        return;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /**
+   * Hands the messages counted for the future helper of the given task over to the given helper,
+   * within the given cross-group transaction that claims the task.
+   */
+  public static void claimPending(
+      DatastoreService datastore, Transaction transaction, Key taskKey, String helper) {
+    Entity pendingEntity;
+    try {
+      pendingEntity = datastore.get(transaction, getPendingKey(taskKey));
+    } catch (EntityNotFoundException e) {
+      return;
+    }
+
+    String taskId = KeyFactory.keyToString(taskKey);
+    long pending = (Long) pendingEntity.getProperty("count");
+    add(datastore, transaction, getKey(helper, taskId), helper, taskId, pending);
+    datastore.delete(transaction, pendingEntity.getKey());
+  }
+
+  /**
+   * Marks every message of the given task as read for the given user. The delete conflicts with any
+   * transaction counting a message of the same chat, which then retries on the deleted count.
+   */
+  public static void reset(String receiver, String taskId) {
+    if (receiver == null) {
+      return;
+    }
+    RequestCache.getDatastoreService().delete(getKey(receiver, taskId));
+  }
+
+  /** Drops the messages counted for the future helper of the given task */
+  public static void resetPending(Key taskKey) {
+    RequestCache.getDatastoreService().delete(getPendingKey(taskKey));
+  }
+
+  /** Returns the number of unread messages of the given user, keyed by task id */
+  public static Map<String, Long> getCounts(String receiver) {
+    Query query =
+        new Query(KIND).setFilter(new FilterPredicate("receiver", FilterOperator.EQUAL, receiver));
+    Map<String, Long> counts = new LinkedHashMap<>();
+    for (Entity entity : RequestCache.getDatastoreService().prepare(query).asIterable()) {
+      counts.put((String) entity.getProperty("taskId"), (Long) entity.getProperty("count"));
+    }
+    return counts;
+  }
+
+  /**
+   * Adds the given number of messages to the count of the given key within the given transaction.
+   * Only the counts of a receiver are indexed, so pending counts are never returned by getCounts.
+   */
+  private static void add(
+      DatastoreService datastore,
+      Transaction transaction,
+      Key countKey,
+      String receiver,
+      String taskId,
+      long count) {
+    Entity countEntity;
+    try {
+      countEntity = datastore.get(transaction, countKey);
+    } catch (EntityNotFoundException e) {
+      countEntity = new Entity(countKey);
+      if (receiver != null) {
+        countEntity.setProperty("receiver", receiver);
+      }
+      countEntity.setUnindexedProperty("taskId", taskId);
+      countEntity.setUnindexedProperty("count", 0L);
+    }
+    countEntity.setUnindexedProperty("count", (Long) countEntity.getProperty("count") + count);
+    datastore.put(transaction, countEntity);
+  }
+
+  // Counts are root entities, so that the chats of a user don't share the write limit of a group
+  private static Key getKey(String receiver, String taskId) {
+    return KeyFactory.createKey(KIND, receiver + "#" + taskId);
+  }
+
+  private static Key getPendingKey(Key taskKey) {
+    return KeyFactory.createKey(taskKey, KIND, "pending");
+  }
+}
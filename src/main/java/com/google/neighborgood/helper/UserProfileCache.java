@@ -0,0 +1,196 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.helper;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.neighborgood.repository.Repositories;
+import java.io.Serializable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Helper class that caches the profile of each user, made of their UserInfo entity and their total
+ * points, in two tiers: a small LRU map in the memory of the instance, in front of memcache, in
+ * front of the datastore. Any write that changes the UserInfo entity or the points of a user must
+ * call invalidate.
+ *
+ * <p>Invalidating only clears the memory of the instance that does it, so the profiles held by the
+ * other instances expire after LOCAL_TTL_MILLIS, which bounds how stale they can be.
+ */
+public final class UserProfileCache {
+  private static final String PREFIX = "user-profile:";
+  private static final int MAX_LOCAL_PROFILES = 1000;
+  private static final long LOCAL_TTL_MILLIS = 10000;
+  // How long the profile of an invalidated user can't be cached again, so that a request that read
+  // the profile before the change can't cache its stale copy
+  private static final long NO_RE_ADD_MILLIS = 5000;
+  private static final AtomicLong localHits = new AtomicLong();
+  private static final AtomicLong memcacheHits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong evictions = new AtomicLong();
+
+  private static final Map<String, LocalEntry> local =
+      new LinkedHashMap<String, LocalEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LocalEntry> eldest) {
+          if (size() > MAX_LOCAL_PROFILES) {
+            evictions.incrementAndGet();
+            return true;
+          }
+          return false;
+        }
+      };
+
+  /** Profile of a user, as shown on their account page and on the tasks they post */
+  public static final class Profile implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String nickname;
+    private final String address;
+    private final String zipcode;
+    private final String country;
+    private final Double lat;
+    private final Double lng;
+    private final long points;
+
+    private Profile(Entity userEntity, long points) {
+      this.nickname = (String) userEntity.getProperty("nickname");
+      this.address = (String) userEntity.getProperty("address");
+      this.zipcode = (String) userEntity.getProperty("zipcode");
+      this.country = (String) userEntity.getProperty("country");
+      this.lat = (Double) userEntity.getProperty("lat");
+      this.lng = (Double) userEntity.getProperty("lng");
+      this.points = points;
+    }
+
+    public String getNickname() {
+      return this.nickname;
+    }
+
+    public String getAddress() {
+      return this.address;
+    }
+
+    public String getZipcode() {
+      return this.zipcode;
+    }
+
+    public String getCountry() {
+      return this.country;
+    }
+
+    public Double getLat() {
+      return this.lat;
+    }
+
+    public Double getLng() {
+      return this.lng;
+    }
+
+    public long getPoints() {
+      return this.points;
+    }
+  }
+
+  private static final class LocalEntry {
+    private final Profile profile;
+    private final long expiration;
+
+    private LocalEntry(Profile profile, long expiration) {
+      this.profile = profile;
+      this.expiration = expiration;
+    }
+  }
+
+  /** Returns the profile of the given user, or null if the user doesn't exist */
+  public static Profile get(String userId) {
+    long now = System.currentTimeMillis();
+    synchronized (local) {
+      LocalEntry entry = local.get(userId);
+      if (entry != null && entry.expiration > now) {
+        localHits.incrementAndGet();
+        return entry.profile;
+      } else if (entry != null) {
+        local.remove(userId);
+        evictions.incrementAndGet();
+      }
+    }
+
+    MemcacheService syncCache = getCache();
+    Profile profile = (Profile) syncCache.get(PREFIX + userId);
+    if (profile != null) {
+      memcacheHits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      // The points are read first, with the user's entity in the same batch get, so that the
+      // entity is then found in the request cache
+      long points = PointsCounter.getPoints(userId);
+      Entity userEntity = Repositories.users().get(userId);
+      if (userEntity == null) {
+        return null;
+      }
+      profile = new Profile(userEntity, points);
+      syncCache.put(PREFIX + userId, profile, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    }
+
+    synchronized (local) {
+      local.put(userId, new LocalEntry(profile, now + LOCAL_TTL_MILLIS));
+    }
+    return profile;
+  }
+
+  /** Drops the cached profile of the given user */
+  public static void invalidate(String userId) {
+    synchronized (local) {
+      local.remove(userId);
+    }
+    getCache().delete(PREFIX + userId, NO_RE_ADD_MILLIS);
+  }
+
+  /** Drops every profile held in the memory of this instance */
+  public static void clearLocal() {
+    synchronized (local) {
+      local.clear();
+    }
+  }
+
+  /** Returns the hit, miss and eviction counters of this instance, and its hit ratio */
+  public static Map<String, Object> getStats() {
+    long hits = localHits.get() + memcacheHits.get();
+    long total = hits + misses.get();
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("localHits", localHits.get());
+    stats.put("memcacheHits", memcacheHits.get());
+    stats.put("misses", misses.get());
+    stats.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+    stats.put("evictions", evictions.get());
+    synchronized (local) {
+      stats.put("localSize", local.size());
+    }
+    return stats;
+  }
+
+  private static MemcacheService getCache() {
+    MemcacheService syncCache = MemcacheServiceFactory.getMemcacheService();
+    syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    return syncCache;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.neighborgood.helper.MessagePosition;
+import com.google.neighborgood.helper.RequestCache;
+import java.util.ArrayList;
+import java.util.List;
+
+/** MessageRepository backed by the datastore, with ancestor queries on the task of the messages */
+public final class DatastoreMessageRepository implements MessageRepository {
+  @Override
+  public List<Entity> getAfter(Key taskKey, MessagePosition position, int limit) {
+    return getFrom(taskKey, position, SortDirection.ASCENDING, limit);
+  }
+
+  @Override
+  public List<Entity> getBefore(Key taskKey, MessagePosition position, int limit) {
+    return getFrom(taskKey, position, SortDirection.DESCENDING, limit);
+  }
+
+  @Override
+  public List<Entity> getLatest(Key taskKey, int limit) {
+    return RequestCache.getDatastoreService()
+        .prepare(getQuery(taskKey, null, SortDirection.DESCENDING))
+        .asList(FetchOptions.Builder.withLimit(limit));
+  }
+
+  @Override
+  public EntityPage getPage(Key taskKey, String startCursor, int limit) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+    if (startCursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
+    }
+    QueryResultList<Entity> results =
+        RequestCache.getDatastoreService()
+            .prepare(getQuery(taskKey, null, SortDirection.DESCENDING))
+            .asQueryResultList(fetchOptions);
+    return new EntityPage(results, results.getCursor().toWebSafeString());
+  }
+
+  @Override
+  public Key put(Entity messageEntity) {
+    return RequestCache.getDatastoreService().put(messageEntity);
+  }
+
+  /**
+   * Returns at most limit messages of the given task past the given position in the given
+   * direction, or from the first one in it if the position is null. The datastore can't filter on
+   * the sent time and the key at once, so the query starts at the sent time of the position and
+   * skips the messages sent at the same time that aren't past its key.
+   */
+  private static List<Entity> getFrom(
+      Key taskKey, MessagePosition position, SortDirection direction, int limit) {
+    Query query = getQuery(taskKey, position == null ? null : position.getSentTime(), direction);
+    List<Entity> messages = new ArrayList<>();
+    for (Entity entity :
+        RequestCache.getDatastoreService()
+            .prepare(query)
+            .asIterable(FetchOptions.Builder.withChunkSize(limit))) {
+      if (position == null
+          || (direction == SortDirection.ASCENDING
+              ? position.isBefore(entity)
+              : position.isAfter(entity))) {
+        messages.add(entity);
+        if (messages.size() == limit) {
+          break;
+        }
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Returns the ancestor query of the messages of the given task in the given order of sent time,
+   * with the key as tiebreaker. If sentTime isn't null, only the messages sent at that time or past
+   * it in that order are queried.
+   */
+  private static Query getQuery(Key taskKey, Long sentTime, SortDirection direction) {
+    Query query = new Query("Message").setAncestor(taskKey);
+    if (sentTime != null) {
+      FilterOperator operator =
+          direction == SortDirection.ASCENDING
+              ? FilterOperator.GREATER_THAN_OR_EQUAL
+              : FilterOperator.LESS_THAN_OR_EQUAL;
+      query.setFilter(new FilterPredicate("sentTime", operator, sentTime));
+    }
+    return query.addSort("sentTime", direction).addSort(Entity.KEY_RESERVED_PROPERTY, direction);
+  }
+}
@@ -0,0 +1,36 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.neighborgood.helper.UnreadCounter;
+import java.util.Map;
+
+/** NotificationRepository backed by the UnreadCount entities of UnreadCounter */
+public final class DatastoreNotificationRepository implements NotificationRepository {
+  @Override
+  public Map<String, Long> getCounts(String userId) {
+    return UnreadCounter.getCounts(userId);
+  }
+
+  @Override
+  public void increment(String userId, String taskId) {
+    UnreadCounter.increment(userId, taskId);
+  }
+
+  @Override
+  public void reset(String userId, String taskId) {
+    UnreadCounter.reset(userId, taskId);
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.Filter;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.neighborgood.helper.RequestCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** TaskRepository backed by the datastore, through the cache of the current request */
+public final class DatastoreTaskRepository implements TaskRepository {
+  @Override
+  public Entity get(Key taskKey) {
+    return getAll(Collections.singletonList(taskKey)).get(taskKey);
+  }
+
+  @Override
+  public Map<Key, Entity> getAll(Collection<Key> taskKeys) {
+    return RequestCache.getDatastoreService().get(taskKeys);
+  }
+
+  @Override
+  public Iterable<Entity> getByParticipant(
+      String participant, String userId, List<String> statuses, int chunkSize) {
+    Query query =
+        new Query("Task")
+            .setFilter(
+                CompositeFilterOperator.and(
+                    new FilterPredicate(participant, FilterOperator.EQUAL, userId),
+                    new FilterPredicate("status", FilterOperator.IN, statuses)))
+            .addSort("timestamp", SortDirection.DESCENDING);
+    return RequestCache.getDatastoreService()
+        .prepare(query)
+        .asIterable(FetchOptions.Builder.withChunkSize(chunkSize));
+  }
+
+  @Override
+  public List<Entity> getNewest(TaskFilter filter, int limit) {
+    return RequestCache.getDatastoreService()
+        .prepare(getQuery(filter))
+        .asList(FetchOptions.Builder.withLimit(limit));
+  }
+
+  @Override
+  public EntityPage getPage(TaskFilter filter, String startCursor, int limit) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit);
+    if (startCursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
+    }
+    QueryResultList<Entity> results =
+        RequestCache.getDatastoreService()
+            .prepare(getQuery(filter))
+            .asQueryResultList(fetchOptions);
+    return new EntityPage(results, results.getCursor().toWebSafeString());
+  }
+
+  @Override
+  public Iterable<Entity> getMatching(TaskFilter filter, int chunkSize) {
+    return RequestCache.getDatastoreService()
+        .prepare(getQuery(filter))
+        .asIterable(FetchOptions.Builder.withChunkSize(chunkSize));
+  }
+
+  @Override
+  public Key put(Entity taskEntity) {
+    return RequestCache.getDatastoreService().put(taskEntity);
+  }
+
+  @Override
+  public void delete(Key taskKey) {
+    RequestCache.getDatastoreService().delete(taskKey);
+  }
+
+  /** Returns the query of the tasks matching the given filter, newest first */
+  private static Query getQuery(TaskFilter filter) {
+    List<Filter> filters = new ArrayList<>();
+    for (Map.Entry<String, Object> equality : filter.getEqualities().entrySet()) {
+      filters.add(
+          new FilterPredicate(equality.getKey(), FilterOperator.EQUAL, equality.getValue()));
+    }
+    if (filter.getFrom() != null) {
+      filters.add(
+          new FilterPredicate("timestamp", FilterOperator.GREATER_THAN_OR_EQUAL, filter.getFrom()));
+    }
+    if (filter.getTo() != null) {
+      filters.add(
+          new FilterPredicate("timestamp", FilterOperator.LESS_THAN_OR_EQUAL, filter.getTo()));
+    }
+
+    Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
+    if (filters.size() == 1) {
+      query.setFilter(filters.get(0));
+    } else if (filters.size() > 1) {
+      query.setFilter(CompositeFilterOperator.and(filters));
+    }
+    return query;
+  }
+}
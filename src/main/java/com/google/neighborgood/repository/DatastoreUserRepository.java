@@ -0,0 +1,52 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.neighborgood.helper.RequestCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** UserRepository backed by the datastore, through the cache of the current request */
+public final class DatastoreUserRepository implements UserRepository {
+  @Override
+  public Entity get(String userId) {
+    return getAll(Collections.singletonList(userId)).get(userId);
+  }
+
+  @Override
+  public Map<String, Entity> getAll(Collection<String> userIds) {
+    List<Key> userKeys = new ArrayList<>();
+    for (String userId : userIds) {
+      userKeys.add(KeyFactory.createKey("UserInfo", userId));
+    }
+    Map<String, Entity> users = new HashMap<>();
+    for (Entity userEntity : RequestCache.getDatastoreService().get(userKeys).values()) {
+      users.put(userEntity.getKey().getName(), userEntity);
+    }
+    return users;
+  }
+
+  @Override
+  public void put(Entity userEntity) {
+    RequestCache.getDatastoreService().put(userEntity);
+  }
+}
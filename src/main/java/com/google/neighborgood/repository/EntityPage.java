@@ -0,0 +1,41 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of the results of a query, with the cursor the next page starts at. The cursor is opaque
+ * and only valid for the same query on the same backend.
+ */
+public final class EntityPage {
+  private final List<Entity> entities;
+  private final String endCursor;
+
+  public EntityPage(List<Entity> entities, String endCursor) {
+    this.entities = new ArrayList<>(entities);
+    this.endCursor = endCursor;
+  }
+
+  public List<Entity> getEntities() {
+    return this.entities;
+  }
+
+  public String getEndCursor() {
+    return this.endCursor;
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helpers that give the in-memory repositories the semantics of the datastore indexes: only indexed
+ * properties can be filtered or sorted on, an entity matches an equality filter on a list property
+ * if any of its values does, and the results of a sort are ordered by key when they tie.
+ */
+final class InMemoryIndex {
+  private static final AtomicLong nextId = new AtomicLong(1);
+
+  private InMemoryIndex() {}
+
+  /** Returns whether the given property of the given entity is set and indexed */
+  static boolean isIndexed(Entity entity, String property) {
+    return entity.hasProperty(property) && !entity.isUnindexedProperty(property);
+  }
+
+  /** Returns whether the given indexed property of the given entity has one of the given values */
+  static boolean matchesAny(Entity entity, String property, Collection<?> values) {
+    if (!isIndexed(entity, property)) {
+      return false;
+    }
+    Object value = entity.getProperty(property);
+    if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        if (values.contains(element)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    return values.contains(value);
+  }
+
+  /** Returns whether the given ancestor is the given key or one of its ancestors */
+  static boolean hasAncestor(Key key, Key ancestor) {
+    for (Key current = key; current != null; current = current.getParent()) {
+      if (current.equals(ancestor)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the order of the given indexed long property, ascending or not, with the key ascending
+   * as tiebreaker, as the datastore sorts by key last
+   */
+  static Comparator<Entity> byLong(String property, boolean ascending) {
+    Comparator<Entity> order = Comparator.comparing(entity -> (Long) entity.getProperty(property));
+    return (ascending ? order : order.reversed()).thenComparing(Entity::getKey);
+  }
+
+  /**
+   * Returns a copy of the given entity to store. Entities with an incomplete key get a new id, and
+   * integer and floating point values are widened to Long and Double, as the datastore would store
+   * them.
+   */
+  static Entity copyForPut(Entity entity) {
+    Key key = entity.getKey();
+    if (!key.isComplete()) {
+      key = KeyFactory.createKey(key.getParent(), entity.getKind(), nextId.getAndIncrement());
+    }
+    Entity copy = new Entity(key);
+    for (Map.Entry<String, Object> property : entity.getProperties().entrySet()) {
+      Object value = normalize(property.getValue());
+      if (entity.isUnindexedProperty(property.getKey())) {
+        copy.setUnindexedProperty(property.getKey(), value);
+      } else {
+        copy.setProperty(property.getKey(), value);
+      }
+    }
+    return copy;
+  }
+
+  private static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Float) {
+      return ((Float) value).doubleValue();
+    }
+    if (value instanceof Collection) {
+      List<Object> values = new ArrayList<>();
+      for (Object element : (Collection<?>) value) {
+        values.add(normalize(element));
+      }
+      return values;
+    }
+    return value;
+  }
+}
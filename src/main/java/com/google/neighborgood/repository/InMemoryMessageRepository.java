@@ -0,0 +1,99 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.neighborgood.helper.MessagePosition;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * MessageRepository that keeps the messages in memory, for tests and benchmarks. Messages are
+ * copied in and out, and queried as the datastore indexes would.
+ */
+public final class InMemoryMessageRepository implements MessageRepository {
+  private final Map<Key, Entity> messages = new ConcurrentHashMap<>();
+
+  @Override
+  public List<Entity> getAfter(Key taskKey, MessagePosition position, int limit) {
+    return query(
+        taskKey,
+        entity -> position == null || position.isBefore(entity),
+        InMemoryIndex.byLong("sentTime", true),
+        limit);
+  }
+
+  @Override
+  public List<Entity> getBefore(Key taskKey, MessagePosition position, int limit) {
+    return query(taskKey, position::isAfter, getNewestFirst(), limit);
+  }
+
+  @Override
+  public List<Entity> getLatest(Key taskKey, int limit) {
+    return query(taskKey, entity -> true, getNewestFirst(), limit);
+  }
+
+  /** The cursors are the positions of the last message of the page */
+  @Override
+  public EntityPage getPage(Key taskKey, String startCursor, int limit) {
+    List<Entity> page =
+        startCursor == null
+            ? getLatest(taskKey, limit)
+            : getBefore(taskKey, MessagePosition.parse(startCursor), limit);
+    return new EntityPage(
+        page,
+        page.isEmpty() ? startCursor : MessagePosition.of(page.get(page.size() - 1)).toString());
+  }
+
+  @Override
+  public Key put(Entity messageEntity) {
+    Entity stored = InMemoryIndex.copyForPut(messageEntity);
+    messages.put(stored.getKey(), stored);
+    return stored.getKey();
+  }
+
+  /** Returns the order of the messages newest first, with the key descending as well */
+  private static Comparator<Entity> getNewestFirst() {
+    return InMemoryIndex.byLong("sentTime", true).reversed();
+  }
+
+  /**
+   * Returns at most limit copies of the messages of the given task with an indexed sent time that
+   * pass the given filter, in the given order
+   */
+  private List<Entity> query(
+      Key taskKey, Predicate<Entity> filter, Comparator<Entity> order, int limit) {
+    List<Entity> result = new ArrayList<>();
+    for (Entity entity : messages.values()) {
+      if (InMemoryIndex.hasAncestor(entity.getKey(), taskKey)
+          && InMemoryIndex.isIndexed(entity, "sentTime")
+          && filter.test(entity)) {
+        result.add(entity);
+      }
+    }
+    result.sort(order);
+
+    List<Entity> page = new ArrayList<>();
+    for (Entity entity : result.subList(0, Math.min(limit, result.size()))) {
+      page.add(entity.clone());
+    }
+    return page;
+  }
+}
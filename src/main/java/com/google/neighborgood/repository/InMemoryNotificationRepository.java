@@ -0,0 +1,49 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * NotificationRepository that keeps the unread message counts in memory, for tests and benchmarks
+ */
+public final class InMemoryNotificationRepository implements NotificationRepository {
+  private final Map<String, Map<String, Long>> counts = new ConcurrentHashMap<>();
+
+  @Override
+  public Map<String, Long> getCounts(String userId) {
+    return new LinkedHashMap<>(counts.getOrDefault(userId, Collections.emptyMap()));
+  }
+
+  @Override
+  public void increment(String userId, String taskId) {
+    Map<String, Long> userCounts = counts.computeIfAbsent(userId, id -> new ConcurrentHashMap<>());
+    userCounts.merge(taskId, 1L, Long::sum);
+  }
+
+  @Override
+  public void reset(String userId, String taskId) {
+    if (userId == null) {
+      return;
+    }
+    Map<String, Long> userCounts = counts.get(userId);
+    if (userCounts != null) {
+      userCounts.remove(taskId);
+    }
+  }
+}
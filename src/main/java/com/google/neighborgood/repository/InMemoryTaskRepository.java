@@ -0,0 +1,146 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TaskRepository that keeps the tasks in memory, for tests and benchmarks. Tasks are copied in and
+ * out, and queried as the datastore indexes would.
+ */
+public final class InMemoryTaskRepository implements TaskRepository {
+  private final Map<Key, Entity> tasks = new ConcurrentHashMap<>();
+
+  @Override
+  public Entity get(Key taskKey) {
+    Entity taskEntity = tasks.get(taskKey);
+    return taskEntity == null ? null : taskEntity.clone();
+  }
+
+  @Override
+  public Map<Key, Entity> getAll(Collection<Key> taskKeys) {
+    Map<Key, Entity> result = new HashMap<>();
+    for (Key taskKey : taskKeys) {
+      Entity taskEntity = get(taskKey);
+      if (taskEntity != null) {
+        result.put(taskKey, taskEntity);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Iterable<Entity> getByParticipant(
+      String participant, String userId, List<String> statuses, int chunkSize) {
+    List<Entity> result = new ArrayList<>();
+    for (Entity taskEntity : tasks.values()) {
+      if (InMemoryIndex.matchesAny(taskEntity, participant, Collections.singleton(userId))
+          && InMemoryIndex.matchesAny(taskEntity, "status", statuses)
+          && InMemoryIndex.isIndexed(taskEntity, "timestamp")) {
+        result.add(taskEntity.clone());
+      }
+    }
+    result.sort(InMemoryIndex.byLong("timestamp", false));
+    return result;
+  }
+
+  @Override
+  public List<Entity> getNewest(TaskFilter filter, int limit) {
+    List<Entity> result = query(filter, null);
+    return result.subList(0, Math.min(limit, result.size()));
+  }
+
+  /** The cursors are the timestamp and key of the last task of the page */
+  @Override
+  public EntityPage getPage(TaskFilter filter, String startCursor, int limit) {
+    Entity start = null;
+    if (startCursor != null) {
+      String[] parts = startCursor.split("\\.", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Malformed cursor: " + startCursor);
+      }
+      start = new Entity(KeyFactory.stringToKey(parts[1]));
+      start.setProperty("timestamp", Long.parseLong(parts[0]));
+    }
+
+    List<Entity> result = query(filter, start);
+    result = result.subList(0, Math.min(limit, result.size()));
+    if (result.isEmpty()) {
+      return new EntityPage(result, startCursor);
+    }
+    Entity last = result.get(result.size() - 1);
+    return new EntityPage(
+        result, last.getProperty("timestamp") + "." + KeyFactory.keyToString(last.getKey()));
+  }
+
+  @Override
+  public Iterable<Entity> getMatching(TaskFilter filter, int chunkSize) {
+    return query(filter, null);
+  }
+
+  @Override
+  public Key put(Entity taskEntity) {
+    Entity stored = InMemoryIndex.copyForPut(taskEntity);
+    tasks.put(stored.getKey(), stored);
+    return stored.getKey();
+  }
+
+  @Override
+  public void delete(Key taskKey) {
+    tasks.remove(taskKey);
+  }
+
+  /**
+   * Returns copies of the tasks matching the given filter, newest first. If start isn't null, only
+   * the tasks that come after it are returned.
+   */
+  private List<Entity> query(TaskFilter filter, Entity start) {
+    Comparator<Entity> order = InMemoryIndex.byLong("timestamp", false);
+    List<Entity> result = new ArrayList<>();
+    for (Entity taskEntity : tasks.values()) {
+      if (matches(taskEntity, filter) && (start == null || order.compare(taskEntity, start) > 0)) {
+        result.add(taskEntity.clone());
+      }
+    }
+    result.sort(order);
+    return result;
+  }
+
+  /** Returns whether the given task matches the given filter and has an indexed timestamp */
+  private static boolean matches(Entity taskEntity, TaskFilter filter) {
+    if (!InMemoryIndex.isIndexed(taskEntity, "timestamp")) {
+      return false;
+    }
+    for (Map.Entry<String, Object> equality : filter.getEqualities().entrySet()) {
+      if (!InMemoryIndex.matchesAny(
+          taskEntity, equality.getKey(), Collections.singleton(equality.getValue()))) {
+        return false;
+      }
+    }
+    long timestamp = (Long) taskEntity.getProperty("timestamp");
+    return (filter.getFrom() == null || timestamp >= filter.getFrom())
+        && (filter.getTo() == null || timestamp <= filter.getTo());
+  }
+}
@@ -0,0 +1,49 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** UserRepository that keeps the UserInfo entities in memory, for tests and benchmarks */
+public final class InMemoryUserRepository implements UserRepository {
+  private final Map<String, Entity> users = new ConcurrentHashMap<>();
+
+  @Override
+  public Entity get(String userId) {
+    Entity userEntity = users.get(userId);
+    return userEntity == null ? null : userEntity.clone();
+  }
+
+  @Override
+  public Map<String, Entity> getAll(Collection<String> userIds) {
+    Map<String, Entity> result = new HashMap<>();
+    for (String userId : userIds) {
+      Entity userEntity = get(userId);
+      if (userEntity != null) {
+        result.put(userId, userEntity);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void put(Entity userEntity) {
+    users.put(userEntity.getKey().getName(), userEntity.clone());
+  }
+}
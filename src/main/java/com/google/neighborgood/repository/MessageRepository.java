@@ -0,0 +1,48 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.neighborgood.helper.MessagePosition;
+import java.util.List;
+
+/** Storage of the Message entities, which are children of their task */
+public interface MessageRepository {
+  /**
+   * Returns at most limit messages of the given task past the given position, or from the first one
+   * if it is null, oldest first with the key as tiebreaker.
+   */
+  List<Entity> getAfter(Key taskKey, MessagePosition position, int limit);
+
+  /**
+   * Returns at most limit messages of the given task before the given position, newest first with
+   * the key as tiebreaker.
+   */
+  List<Entity> getBefore(Key taskKey, MessagePosition position, int limit);
+
+  /** Returns at most limit messages of the given task, newest first, with the key as tiebreaker */
+  List<Entity> getLatest(Key taskKey, int limit);
+
+  /**
+   * Returns the page of at most limit messages of the given task, newest first, that starts at the
+   * given end cursor of the previous page, or at the latest message if it is null. Throws an
+   * IllegalArgumentException if the cursor is invalid.
+   */
+  EntityPage getPage(Key taskKey, String startCursor, int limit);
+
+  /** Stores the given message and returns its key */
+  Key put(Entity messageEntity);
+}
@@ -0,0 +1,29 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import java.util.Map;
+
+/** Storage of the unread message counts of each user per task */
+public interface NotificationRepository {
+  /** Returns the number of unread messages of the given user, keyed by task id */
+  Map<String, Long> getCounts(String userId);
+
+  /** Counts one more unread message of the given task for the given user */
+  void increment(String userId, String taskId);
+
+  /** Marks every message of the given task as read for the given user */
+  void reset(String userId, String taskId);
+}
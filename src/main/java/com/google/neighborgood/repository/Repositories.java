@@ -0,0 +1,69 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+/**
+ * Holder of the repositories the servlets and helpers read and write through. They are backed by
+ * the datastore, unless useInMemory was called, as tests and benchmarks do to run without it.
+ *
+ * <p>The paths that need transactions don't go through the repositories: claiming and editing a
+ * task, the points ledger and counter, the unread counters, the leaderboard, page tokens and
+ * nickname updates still use the datastore directly. The in-memory backend therefore can't run the
+ * app end to end, only the reads and writes made through these repositories.
+ */
+public final class Repositories {
+  private static volatile TaskRepository tasks;
+  private static volatile UserRepository users;
+  private static volatile MessageRepository messages;
+  private static volatile NotificationRepository notifications;
+
+  static {
+    useDatastore();
+  }
+
+  private Repositories() {}
+
+  /** Backs every repository with the datastore */
+  public static void useDatastore() {
+    tasks = new DatastoreTaskRepository();
+    users = new DatastoreUserRepository();
+    messages = new DatastoreMessageRepository();
+    notifications = new DatastoreNotificationRepository();
+  }
+
+  /** Backs every repository with new, empty in-memory storage */
+  public static void useInMemory() {
+    tasks = new InMemoryTaskRepository();
+    users = new InMemoryUserRepository();
+    messages = new InMemoryMessageRepository();
+    notifications = new InMemoryNotificationRepository();
+  }
+
+  public static TaskRepository tasks() {
+    return tasks;
+  }
+
+  public static UserRepository users() {
+    return users;
+  }
+
+  public static MessageRepository messages() {
+    return messages;
+  }
+
+  public static NotificationRepository notifications() {
+    return notifications;
+  }
+}
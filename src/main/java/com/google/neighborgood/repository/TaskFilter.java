@@ -0,0 +1,59 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Filter of the tasks to query: equality on indexed properties, where a list property matches if
+ * any of its values does, and an optional range of creation time, both ends included.
+ */
+public final class TaskFilter {
+  private final Map<String, Object> equalities = new LinkedHashMap<>();
+  private Long from;
+  private Long to;
+
+  /** Only keeps the tasks whose given property is the given value */
+  public TaskFilter equal(String property, Object value) {
+    this.equalities.put(property, value);
+    return this;
+  }
+
+  /** Only keeps the tasks created at or after the given time */
+  public TaskFilter from(long timestamp) {
+    this.from = timestamp;
+    return this;
+  }
+
+  /** Only keeps the tasks created at or before the given time */
+  public TaskFilter to(long timestamp) {
+    this.to = timestamp;
+    return this;
+  }
+
+  Map<String, Object> getEqualities() {
+    return Collections.unmodifiableMap(this.equalities);
+  }
+
+  Long getFrom() {
+    return this.from;
+  }
+
+  Long getTo() {
+    return this.to;
+  }
+}
@@ -0,0 +1,60 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/** Storage of the Task entities */
+public interface TaskRepository {
+  /** Returns the task of the given key, or null if it doesn't exist */
+  Entity get(Key taskKey);
+
+  /** Returns the tasks of the given keys that exist, keyed by their key */
+  Map<Key, Entity> getAll(Collection<Key> taskKeys);
+
+  /**
+   * Returns the tasks whose given participant property, Owner or Helper, is the given user and
+   * whose status is one of the given ones, newest first. The tasks are fetched chunkSize at a time
+   * as they are iterated.
+   */
+  Iterable<Entity> getByParticipant(
+      String participant, String userId, List<String> statuses, int chunkSize);
+
+  /**
+   * Returns at most limit tasks matching the given filter, newest first. The tasks are fetched in
+   * the background, so that the queries of several filters can run at once.
+   */
+  List<Entity> getNewest(TaskFilter filter, int limit);
+
+  /**
+   * Returns the page of at most limit tasks matching the given filter, newest first, that starts at
+   * the given end cursor of the previous page, or at the first task if it is null. Throws an
+   * IllegalArgumentException if the cursor is invalid or belongs to another filter.
+   */
+  EntityPage getPage(TaskFilter filter, String startCursor, int limit);
+
+  /** Returns every task matching the given filter, newest first, fetched chunkSize at a time */
+  Iterable<Entity> getMatching(TaskFilter filter, int chunkSize);
+
+  /** Stores the given task and returns its key */
+  Key put(Entity taskEntity);
+
+  /** Deletes the task of the given key, if it exists */
+  void delete(Key taskKey);
+}
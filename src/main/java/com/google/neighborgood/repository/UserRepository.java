@@ -0,0 +1,31 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.repository;
+
+import com.google.appengine.api.datastore.Entity;
+import java.util.Collection;
+import java.util.Map;
+
+/** Storage of the UserInfo entities, which are keyed by user id */
+public interface UserRepository {
+  /** Returns the UserInfo entity of the given user, or null if it doesn't exist */
+  Entity get(String userId);
+
+  /** Returns the UserInfo entities of the given users that exist, keyed by user id */
+  Map<String, Entity> getAll(Collection<String> userIds);
+
+  /** Stores the given UserInfo entity */
+  void put(Entity userEntity);
+}
@@ -14,18 +14,18 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.gson.Gson;
-import com.google.neighborgood.data.Task;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.PageToken;
 import com.google.neighborgood.helper.RewardingPoints;
+import com.google.neighborgood.helper.TaskClusterCache;
+import com.google.neighborgood.helper.TaskGroup;
+import com.google.neighborgood.repository.EntityPage;
+import com.google.neighborgood.repository.Repositories;
+import com.google.neighborgood.repository.TaskFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -34,39 +34,123 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that returns some example content. TODO: modify this file to handle comments data */
+/**
+ * Servlet that lists the tasks for the admin dashboard, newest first, and lets admins edit them.
+ *
+ * <p>GET returns one page of tasks at a time. The page-size parameter sets its length and the
+ * pageToken parameter, taken from the nextPageToken of the previous page, where it starts. Page
+ * tokens are signed like the ones of the task feed, and are only valid with the same filters. The
+ * tasks can be filtered by status, country, zipcode, category and by a creation time range given in
+ * milliseconds with the from and to parameters. With export=true every matching task is instead
+ * streamed to the response as a single JSON array.
+ */
 @WebServlet("/admin-user-tasks")
 public class AdminPage extends HttpServlet {
+  private static final int DEFAULT_PAGE_SIZE = 10;
+  private static final int MAX_PAGE_SIZE = 100;
+  private static final int EXPORT_CHUNK_SIZE = 200;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    TaskFilter filter;
+    try {
+      filter = getFilter(request);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid task filter: " + e.getMessage());
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid task filter");
+      return;
+    }
+
+    // Exports are streamed to the response in chunks, so memory use doesn't grow with the number
+    // of tasks
+    if (Boolean.parseBoolean(request.getParameter("export"))) {
+      response.setHeader("Content-Disposition", "attachment; filename=\"tasks.json\"");
+      Json.writeTasks(
+          response, Repositories.tasks().getMatching(filter, EXPORT_CHUNK_SIZE), EXPORT_CHUNK_SIZE);
+      return;
+    }
+
+    int pageSize;
+    List<String> pageCursors = new ArrayList<>();
+    EntityPage results;
+    try {
+      pageSize = getPageSize(request);
+      String pageToken = request.getParameter("pageToken");
+      if (pageToken != null && !pageToken.isEmpty()) {
+        pageCursors = PageToken.decode(pageToken);
+      }
+      String startCursor = pageCursors.isEmpty() ? null : pageCursors.get(pageCursors.size() - 1);
+      // A cursor of a query with other filters is rejected by the datastore
+      results = Repositories.tasks().getPage(filter, startCursor, pageSize);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid page size or page token: " + e.getMessage());
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid page size or page token");
+      return;
+    }
+
+    TaskGroup taskGroup = new TaskGroup();
+    taskGroup.addTasks(results.getEntities());
+    if (!pageCursors.isEmpty()) {
+      taskGroup.setPrevPageToken(PageToken.encode(pageCursors.subList(0, pageCursors.size() - 1)));
+    }
+    if (results.getEntities().size() < pageSize) {
+      taskGroup.setEndOfQuery();
+    } else {
+      List<String> nextPageCursors = new ArrayList<>(pageCursors);
+      nextPageCursors.add(results.getEndCursor());
+      taskGroup.setNextPageToken(PageToken.encode(nextPageCursors));
+    }
 
-    Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
+    Json.write(response, taskGroup);
+  }
 
-    PreparedQuery results = datastore.prepare(query);
+  /**
+   * Returns the filter of the tasks matching the request's filters. Throws an
+   * IllegalArgumentException if the time range isn't made of numbers.
+   */
+  private TaskFilter getFilter(HttpServletRequest request) {
+    TaskFilter filter = new TaskFilter();
+    for (String property : new String[] {"status", "country", "zipcode", "category"}) {
+      String value = request.getParameter(property);
+      if (value != null && !value.isEmpty()) {
+        filter.equal(property, value);
+      }
+    }
 
-    List<Task> myTasks = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      myTasks.add(new Task(entity));
+    String from = request.getParameter("from");
+    if (from != null && !from.isEmpty()) {
+      filter.from(Long.parseLong(from));
     }
+    String to = request.getParameter("to");
+    if (to != null && !to.isEmpty()) {
+      filter.to(Long.parseLong(to));
+    }
+    return filter;
+  }
 
-    Gson gson = new Gson();
-    response.setContentType("application/json;");
-    response.getWriter().println(gson.toJson(myTasks));
+  /** Returns the requested page size, which must be between 1 and MAX_PAGE_SIZE */
+  private int getPageSize(HttpServletRequest request) {
+    String pageSize = request.getParameter("page-size");
+    if (pageSize == null || pageSize.isEmpty()) {
+      return DEFAULT_PAGE_SIZE;
+    }
+    int size = Integer.parseInt(pageSize);
+    if (size < 1 || size > MAX_PAGE_SIZE) {
+      throw new IllegalArgumentException("Page size out of range: " + size);
+    }
+    return size;
   }
 
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
 
     String keyString = request.getParameter("task-id");
     Key taskKey = KeyFactory.stringToKey(keyString);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     Entity task;
 
     // Edits tasks that have been claimed by setting the "helper" property to the userId
     // of the helper and changing the task's status to "IN PROGRESS"
-    try {
-      task = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    task = Repositories.tasks().get(taskKey);
+    if (task == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
       return;
@@ -106,9 +190,8 @@ public class AdminPage extends HttpServlet {
       return;
     }
 
-    try {
-      task = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    task = Repositories.tasks().get(taskKey);
+    if (task == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
       return;
@@ -118,7 +201,9 @@ public class AdminPage extends HttpServlet {
     task.setProperty("detail", taskDetail);
     task.setProperty("reward", rewardPts);
     task.setProperty("category", taskCategory);
-    datastore.put(task);
+    Repositories.tasks().put(task);
+    FeedCache.invalidate(task);
+    TaskClusterCache.invalidate(task);
 
     response.sendRedirect(request.getHeader("Referer"));
   }
@@ -15,23 +15,24 @@
 package com.google.neighborgood.servlets;
 
 import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.RequestCache;
 import com.google.neighborgood.helper.RewardingPoints;
+import com.google.neighborgood.helper.TaskAssembler;
+import com.google.neighborgood.helper.TaskClusterCache;
+import com.google.neighborgood.helper.TaskParticipants;
+import com.google.neighborgood.helper.UnreadCounter;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
+import java.util.Collections;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -45,7 +46,6 @@ public class EditTaskServlet extends HttpServlet {
 
     String keyString = request.getParameter("task-id");
     Key taskKey = KeyFactory.stringToKey(keyString);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     Entity task;
 
     UserService userService = UserServiceFactory.getUserService();
@@ -65,21 +65,15 @@ public class EditTaskServlet extends HttpServlet {
 
       // claims task for the current user
       try {
-        claimTaskForUser(datastore, taskKey, userService, response);
+        claimTaskForUser(taskKey, userService, response);
       } catch (Exception e) {
         System.err.println(e);
-        return;
       }
-
-      // When a user takes a new task, send the user notifications for the messages that the owner
-      // writes before they takes the task
-      getPastNotificationsForClaimedTasks(keyString, response);
       return;
     }
 
-    try {
-      task = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    task = Repositories.tasks().get(taskKey);
+    if (task == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.setStatus(HttpServletResponse.SC_NOT_FOUND);
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
@@ -136,9 +130,8 @@ public class EditTaskServlet extends HttpServlet {
       return;
     }
 
-    try {
-      task = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    task = Repositories.tasks().get(taskKey);
+    if (task == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.setStatus(HttpServletResponse.SC_NOT_FOUND);
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
@@ -150,47 +143,27 @@ public class EditTaskServlet extends HttpServlet {
     task.setProperty("overview", taskOverview);
     task.setProperty("reward", rewardPts);
     task.setProperty("category", taskCategory);
-    datastore.put(task);
+    Repositories.tasks().put(task);
+    FeedCache.invalidate(task);
+    TaskClusterCache.invalidate(task);
 
     response.sendRedirect(request.getHeader("Referer"));
   }
 
-  private void getPastNotificationsForClaimedTasks(String keyString, HttpServletResponse response)
-      throws IOException {
-    UserService userService = UserServiceFactory.getUserService();
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    Filter idFilter = new FilterPredicate("taskId", FilterOperator.EQUAL, keyString);
-    Filter receiverFilter = new FilterPredicate("receiver", FilterOperator.EQUAL, "N/A");
-    CompositeFilter filter = CompositeFilterOperator.and(idFilter, receiverFilter);
-    Query query = new Query("Notification").setFilter(filter);
-
-    PreparedQuery results = datastore.prepare(query);
-
-    if (!userService.isUserLoggedIn()) {
-      response.sendRedirect(userService.createLoginURL("/account.jsp"));
-      return;
-    }
-
-    for (Entity notificationEntity : results.asIterable()) {
-      notificationEntity.setProperty("receiver", userService.getCurrentUser().getUserId());
-      datastore.put(notificationEntity);
-    }
-  }
-
-  private void claimTaskForUser(
-      DatastoreService datastore,
-      Key taskKey,
-      UserService userService,
-      HttpServletResponse response)
+  private void claimTaskForUser(Key taskKey, UserService userService, HttpServletResponse response)
       throws IOException, Exception {
-    // Makes use of Transactions to prevent race condition
-    Transaction transaction = datastore.beginTransaction();
+    // Makes use of Transactions to prevent race condition. The transaction also spans the helper's
+    // unread counts, which receive the messages the owner wrote before the task was claimed. The
+    // repositories have no transactions, so the claim talks to the datastore directly.
+    DatastoreService datastore = RequestCache.getDatastoreService();
     String userId = userService.getCurrentUser().getUserId();
+    // The helper's nickname is stored on the task so that reading it needs no extra lookup
+    String helperNickname = TaskAssembler.getNicknames(Collections.singleton(userId)).get(userId);
+    Transaction transaction = datastore.beginTransaction(TransactionOptions.Builder.withXG(true));
 
     Entity task;
     try {
-      task = datastore.get(taskKey);
+      task = datastore.get(transaction, taskKey);
 
       if (!task.getProperty("status").equals("OPEN")) {
         transaction.rollback();
@@ -200,9 +173,14 @@ public class EditTaskServlet extends HttpServlet {
       }
 
       task.setProperty("Helper", userId);
+      task.setProperty("helperNickname", helperNickname);
       task.setProperty("status", "IN PROGRESS");
       datastore.put(transaction, task);
+      UnreadCounter.claimPending(datastore, transaction, taskKey, userId);
       transaction.commit();
+      FeedCache.invalidate(task);
+      TaskClusterCache.invalidate(task);
+      TaskParticipants.invalidate(taskKey);
 
     } catch (EntityNotFoundException e) {
       transaction.rollback();
@@ -0,0 +1,235 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Filter that gzips the responses of the JSON endpoints for the clients that accept it. The first
+ * MIN_GZIP_SIZE bytes of a response are held back: smaller responses are sent as they are, and
+ * larger ones are compressed from there on, so streamed responses keep being flushed as they go.
+ */
+@WebFilter({"/tasks", "/mytasks", "/messages", "/notifications", "/account", "/admin-user-tasks"})
+public class GzipFilter implements Filter {
+  // Smaller responses aren't worth the time it takes to compress them
+  static final int MIN_GZIP_SIZE = 1024;
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+    // Caches must keep the compressed and uncompressed responses apart
+    httpResponse.addHeader("Vary", "Accept-Encoding");
+    if (!acceptsGzip(((HttpServletRequest) request).getHeader("Accept-Encoding"))) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    GzipResponse gzipResponse = new GzipResponse(httpResponse);
+    chain.doFilter(request, gzipResponse);
+    gzipResponse.finish();
+  }
+
+  @Override
+  public void destroy() {}
+
+  /** Returns whether the given Accept-Encoding header accepts gzip */
+  private static boolean acceptsGzip(String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return false;
+    }
+    for (String coding : acceptEncoding.split(",")) {
+      String[] parts = coding.trim().split(";");
+      if (parts[0].trim().equalsIgnoreCase("gzip")) {
+        return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+      }
+    }
+    return false;
+  }
+
+  /** Response that compresses its body once it reaches MIN_GZIP_SIZE bytes */
+  private static final class GzipResponse extends HttpServletResponseWrapper {
+    private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private OutputStream out;
+    private ServletOutputStream stream;
+    private PrintWriter writer;
+
+    private GzipResponse(HttpServletResponse response) {
+      super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+      if (writer != null) {
+        throw new IllegalStateException("getWriter was already called");
+      }
+      return getStream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if (writer == null) {
+        if (stream != null) {
+          throw new IllegalStateException("getOutputStream was already called");
+        }
+        writer = new PrintWriter(new OutputStreamWriter(getStream(), getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    // The length of the body isn't known until it is compressed
+    @Override
+    public void setContentLength(int length) {}
+
+    @Override
+    public void setContentLengthLong(long length) {}
+
+    @Override
+    public void sendError(int status, String message) throws IOException {
+      resetBuffer();
+      super.sendError(status, message);
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+      resetBuffer();
+      super.sendRedirect(location);
+    }
+
+    @Override
+    public void resetBuffer() {
+      if (out == null) {
+        buffer.reset();
+      }
+      super.resetBuffer();
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (out != null) {
+        out.flush();
+        super.flushBuffer();
+      }
+    }
+
+    /** Sends the rest of the body, uncompressed if it never reached MIN_GZIP_SIZE bytes */
+    private void finish() throws IOException {
+      if (writer != null) {
+        writer.flush();
+      }
+      if (out == null) {
+        if (buffer.size() > 0) {
+          getResponse().setContentLength(buffer.size());
+          buffer.writeTo(getResponse().getOutputStream());
+        }
+      } else if (out instanceof GZIPOutputStream) {
+        ((GZIPOutputStream) out).finish();
+      }
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+      if (out == null) {
+        buffer.write(bytes, offset, length);
+        if (buffer.size() >= MIN_GZIP_SIZE) {
+          start();
+        }
+      } else {
+        out.write(bytes, offset, length);
+      }
+    }
+
+    /** Starts sending the body, compressed unless the response was already committed */
+    private void start() throws IOException {
+      HttpServletResponse response = (HttpServletResponse) getResponse();
+      if (response.isCommitted() || response.containsHeader("Content-Encoding")) {
+        out = response.getOutputStream();
+      } else {
+        response.setHeader("Content-Encoding", "gzip");
+        // Flushing the compressor sends what was compressed so far
+        out = new GZIPOutputStream(response.getOutputStream(), true);
+      }
+      buffer.writeTo(out);
+      buffer = null;
+    }
+
+    private ServletOutputStream getStream() {
+      if (stream == null) {
+        stream =
+            new ServletOutputStream() {
+              @Override
+              public void write(int b) throws IOException {
+                GzipResponse.this.write(new byte[] {(byte) b}, 0, 1);
+              }
+
+              @Override
+              public void write(byte[] bytes, int offset, int length) throws IOException {
+                GzipResponse.this.write(bytes, offset, length);
+              }
+
+              @Override
+              public void flush() throws IOException {
+                // Nothing is sent until the size of the body decides whether to compress it
+                if (out != null) {
+                  out.flush();
+                }
+              }
+
+              // Writes are buffered until the body is started, and then go to the wrapped stream
+              @Override
+              public boolean isReady() {
+                try {
+                  return out == null || getResponse().getOutputStream().isReady();
+                } catch (IOException e) {
+                  return false;
+                }
+              }
+
+              @Override
+              public void setWriteListener(WriteListener writeListener) {
+                try {
+                  getResponse().getOutputStream().setWriteListener(writeListener);
+                } catch (IOException e) {
+                  throw new IllegalStateException("The wrapped response has no output stream", e);
+                }
+              }
+            };
+      }
+      return stream;
+    }
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.RequestCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * One-time background job that moves the Message entities stored as root entities into the entity
+ * group of their task. Only the old messages have an indexed taskId property, so sorting on it
+ * returns none of the messages already moved.
+ *
+ * <p>Each moved message keeps its properties under a key named after its old id, so a batch that is
+ * retried overwrites the copies it already made instead of duplicating them. Messages whose task no
+ * longer exists are deleted. GET starts the job, and each batch enqueues the next one until every
+ * message has been moved.
+ */
+@WebServlet("/jobs/migrate-messages")
+public class MessageMigrationServlet extends HttpServlet {
+  private static final String URL = "/jobs/migrate-messages";
+  private static final int BATCH_SIZE = 100;
+
+  private static void enqueue(String cursor) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    enqueue(null);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursor = request.getParameter("cursor");
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> messages =
+        datastore.prepare(new Query("Message").addSort("taskId")).asQueryResultList(fetchOptions);
+
+    // Maps each old message to the key of its task, leaving out the invalid task ids
+    Map<Key, Key> taskKeys = new HashMap<>();
+    for (Entity message : messages) {
+      try {
+        taskKeys.put(
+            message.getKey(), KeyFactory.stringToKey((String) message.getProperty("taskId")));
+      } catch (IllegalArgumentException e) {
+        // The message is deleted along with the other orphaned messages
+      }
+    }
+    Set<Key> existingTasks = datastore.get(taskKeys.values()).keySet();
+
+    List<Entity> movedMessages = new ArrayList<>();
+    List<Key> oldKeys = new ArrayList<>();
+    for (Entity message : messages) {
+      Key taskKey = taskKeys.get(message.getKey());
+      if (taskKey != null && existingTasks.contains(taskKey)) {
+        Entity movedMessage = new Entity("Message", "legacy-" + message.getKey().getId(), taskKey);
+        movedMessage.setUnindexedProperty("message", message.getProperty("message"));
+        movedMessage.setUnindexedProperty("taskId", message.getProperty("taskId"));
+        movedMessage.setUnindexedProperty("sender", message.getProperty("sender"));
+        movedMessage.setProperty("sentTime", message.getProperty("sentTime"));
+        movedMessages.add(movedMessage);
+      }
+      oldKeys.add(message.getKey());
+    }
+
+    // The copies are written before the old messages are deleted, so no message can be lost
+    datastore.put(movedMessages);
+    datastore.delete(oldKeys);
+    System.out.println(
+        String.format(
+            "Moved %d messages and deleted %d orphaned messages",
+            movedMessages.size(), oldKeys.size() - movedMessages.size()));
+
+    // If the batch was full, there may be more messages left to move
+    if (messages.size() == BATCH_SIZE) {
+      enqueue(messages.getCursor().toWebSafeString());
+    }
+  }
+}
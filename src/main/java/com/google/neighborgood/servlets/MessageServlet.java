@@ -14,29 +14,27 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.Cursor;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.TaskHandle;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.neighborgood.data.Message;
 import com.google.neighborgood.data.MessageResponse;
+import com.google.neighborgood.helper.ETags;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.MessagePosition;
+import com.google.neighborgood.helper.TaskParticipants;
+import com.google.neighborgood.repository.EntityPage;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -62,26 +60,47 @@ public class MessageServlet extends HttpServlet {
       return;
     }
 
-    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(PAGE_SIZE);
+    Key taskKey;
+    try {
+      taskKey = KeyFactory.stringToKey(taskId);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Invalid task id provided");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid task id");
+      return;
+    }
 
-    // If the client requires for a cursor, get the cursor string given
+    // The ETag is the position of the latest message, so polls that find nothing new get a 304.
+    // The messages are shown differently to each participant, so the user and the requested page
+    // are part of it too.
+    String after = request.getParameter("after");
+    String before = request.getParameter("before");
     String startCursor = request.getParameter("cursor");
-    if (startCursor != null) {
-      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
+    String userId = userService.getCurrentUser().getUserId();
+    Entity latest = getLatestMessage(taskKey);
+    String etag =
+        ETags.weak(
+            (latest == null ? "empty" : MessagePosition.of(latest).toString())
+                + "-"
+                + Integer.toHexString(Objects.hash(userId, after, before, startCursor)));
+    if (ETags.notModified(request, response, etag)) {
+      return;
     }
 
-    Filter filter = new FilterPredicate("taskId", FilterOperator.EQUAL, taskId);
-    Query query =
-        new Query("Message").setFilter(filter).addSort("sentTime", SortDirection.DESCENDING);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery pq = datastore.prepare(query);
-
-    QueryResultList<Entity> results;
+    List<Entity> results;
+    String cursorString = null;
     try {
-      results = pq.asQueryResultList(fetchOptions);
+      if (after != null) {
+        results = getMessagesAfter(taskKey, after);
+      } else if (before != null) {
+        results = getMessagesBefore(taskKey, before);
+      } else {
+        // If the client requires for a cursor, the page starts at the cursor string given
+        EntityPage page = Repositories.messages().getPage(taskKey, startCursor, PAGE_SIZE);
+        cursorString = page.getEndCursor();
+        results = page.getEntities();
+      }
     } catch (IllegalArgumentException e) {
-      System.err.println("Invalid cursor is provided");
+      System.err.println("Invalid cursor or position is provided");
       // Redirect to the current url without the cursor parameter
       response.sendRedirect("/messages");
       return;
@@ -92,12 +111,34 @@ public class MessageServlet extends HttpServlet {
       messages.add(new Message(entity));
     }
 
-    String cursorString = results.getCursor().toWebSafeString();
+    // The positions of the newest and oldest messages returned, for the next after and before
+    String newest = results.isEmpty() ? after : MessagePosition.of(results.get(0)).toString();
+    String oldest =
+        results.isEmpty() ? before : MessagePosition.of(results.get(results.size() - 1)).toString();
+
+    Json.write(response, new MessageResponse(cursorString, newest, oldest, messages));
+  }
+
+  /** Returns the latest message of the given task, or null if it has none */
+  private static Entity getLatestMessage(Key taskKey) {
+    List<Entity> latest = Repositories.messages().getLatest(taskKey, 1);
+    return latest.isEmpty() ? null : latest.get(0);
+  }
+
+  /**
+   * Returns at most PAGE_SIZE messages of the given task sent after the given position, which are
+   * the ones right after it, newest first.
+   */
+  private static List<Entity> getMessagesAfter(Key taskKey, String position) {
+    List<Entity> messages =
+        Repositories.messages().getAfter(taskKey, MessagePosition.parse(position), PAGE_SIZE);
+    Collections.reverse(messages);
+    return messages;
+  }
 
-    Gson gson = new Gson();
-    String json = gson.toJson(new MessageResponse(cursorString, messages));
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+  /** Returns at most PAGE_SIZE messages of the given task sent before the given position */
+  private static List<Entity> getMessagesBefore(Key taskKey, String position) {
+    return Repositories.messages().getBefore(taskKey, MessagePosition.parse(position), PAGE_SIZE);
   }
 
   @Override
@@ -129,54 +170,53 @@ public class MessageServlet extends HttpServlet {
       return;
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    // Create a message entity to store the related information
-    Entity msgEntity = new Entity("Message");
-    msgEntity.setProperty("message", message);
-    msgEntity.setProperty("taskId", taskId);
-    msgEntity.setProperty("sender", userService.getCurrentUser().getUserId());
-    msgEntity.setProperty("sentTime", System.currentTimeMillis());
-
-    datastore.put(msgEntity);
-
-    // After storing the message, create a notification entity to notify the receiver
-    notifyReceiver(taskId);
-
-    response.sendRedirect(request.getHeader("Referer"));
-  }
-
-  // Notify the receiver of a certain message according to the given task id information
-  private void notifyReceiver(String taskId) {
-    Key taskKey = KeyFactory.stringToKey(taskId);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    UserService userService = UserServiceFactory.getUserService();
-    Entity taskEntity;
+    Key taskKey;
     try {
-      taskEntity = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+      taskKey = KeyFactory.stringToKey(taskId);
+    } catch (IllegalArgumentException e) {
+      System.err.println("The task id is invalid");
+      return;
+    }
+
+    // The participants of the task are usually cached, so the task doesn't need to be read
+    TaskParticipants participants = TaskParticipants.get(taskKey);
+    if (participants == null) {
       System.err.println(
           String.format(
               "Unable to find the entity based on the input key %s for task %s", taskKey, taskId));
       return;
     }
-
-    String owner = (String) taskEntity.getProperty("Owner");
-    String helper = (String) taskEntity.getProperty("Helper");
     String currentUser = userService.getCurrentUser().getUserId();
 
-    Entity notificationEntity = new Entity("Notification");
-    notificationEntity.setProperty("taskId", taskId);
-    if (currentUser.equals(helper)) {
-      notificationEntity.setProperty("receiver", owner);
-    } else if (currentUser.equals(owner)) {
-      notificationEntity.setProperty("receiver", helper);
-    } else {
+    // Create a message entity in the entity group of its task. Only the sent time is indexed, as
+    // messages are only ever queried by ancestor and sorted by sent time.
+    Entity msgEntity = new Entity("Message", taskKey);
+    msgEntity.setUnindexedProperty("message", message);
+    msgEntity.setUnindexedProperty("taskId", taskId);
+    msgEntity.setUnindexedProperty("sender", currentUser);
+    msgEntity.setProperty("sentTime", System.currentTimeMillis());
+
+    // The message is stored with a single put, which is the only datastore call of sending it.
+    // Counting it as unread for its receiver is left to the task queue, so that a busy counter can
+    // neither fail nor slow down sending it.
+    Repositories.messages().put(msgEntity);
+    String receiver = participants.getReceiver(currentUser);
+    Future<TaskHandle> counted = null;
+    if (receiver == null) {
       System.err.println("The message is not sent by the owner or helper of the task");
-      return;
+    } else {
+      counted = UnreadCountServlet.enqueue(receiver, taskId);
     }
-    datastore.put(notificationEntity);
+
+    if (counted != null) {
+      try {
+        counted.get();
+      } catch (InterruptedException | ExecutionException e) {
+        System.err.println("Unable to count the message as unread: " + e);
+      }
+    }
+
+    response.sendRedirect(request.getHeader("Referer"));
   }
 
   @Override
@@ -197,19 +237,16 @@ public class MessageServlet extends HttpServlet {
       return;
     }
 
-    // Get all stored entity keys related with the task that corresponds to the given taskId
-    Filter filter = new FilterPredicate("taskId", FilterOperator.EQUAL, taskId);
-    Query query = new Query("Message").setFilter(filter).setKeysOnly();
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withDefaults());
-
-    // Loop through all entities and delete them using the key
-    for (Entity entity : results) {
-      Key key = entity.getKey();
-      datastore.delete(key);
+    try {
+      KeyFactory.stringToKey(taskId);
+    } catch (IllegalArgumentException e) {
+      System.err.println("The task id is invalid");
+      return;
     }
 
+    // Deletes the messages of the task in batches, in the background for very long chats
+    TaskDataCleanupServlet.delete("Message", taskId);
+
     response.sendRedirect(request.getHeader("Referer"));
   }
 }
@@ -14,23 +14,12 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
-import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
-import com.google.neighborgood.data.Task;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -40,6 +29,8 @@ import javax.servlet.http.HttpServletResponse;
 /** Servlet that fetch all saved tasks whose owner is the current user. */
 @WebServlet("/mytasks")
 public class MyTaskServlet extends HttpServlet {
+  private static final int CHUNK_SIZE = 100;
+
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     String keyword = request.getParameter("keyword");
@@ -48,41 +39,19 @@ public class MyTaskServlet extends HttpServlet {
       response.sendRedirect(userService.createLoginURL("/account.jsp"));
       return;
     }
-    // keyword is either "Owner" or "Helper". Depending on the keyword, the filter will filter
-    // on different fields accordingly.
-    Filter filter =
-        new FilterPredicate(
-            keyword, FilterOperator.EQUAL, userService.getCurrentUser().getUserId());
-
-    // Depending on the input complete parameter, the status filter will be different.
-    String complete = request.getParameter("complete");
-    if (complete.equals("True")) {
-      Filter openFilter = new FilterPredicate("status", FilterOperator.EQUAL, "COMPLETE");
-      Filter inProgressFilter =
-          new FilterPredicate("status", FilterOperator.EQUAL, "COMPLETE: AWAIT VERIFICATION");
-      CompositeFilter statusFilter = CompositeFilterOperator.or(openFilter, inProgressFilter);
-      filter = CompositeFilterOperator.and(filter, statusFilter);
-    } else {
-      Filter openFilter = new FilterPredicate("status", FilterOperator.EQUAL, "OPEN");
-      Filter inProgressFilter = new FilterPredicate("status", FilterOperator.EQUAL, "IN PROGRESS");
-      CompositeFilter statusFilter = CompositeFilterOperator.or(openFilter, inProgressFilter);
-      filter = CompositeFilterOperator.and(filter, statusFilter);
-    }
-
-    Query query =
-        new Query("Task").addSort("timestamp", SortDirection.DESCENDING).setFilter(filter);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    List<Task> myTasks = new ArrayList<>();
-    for (Entity entity : results.asIterable()) {
-      myTasks.add(new Task(entity));
-    }
-
-    Gson gson = new Gson();
-    String json = gson.toJson(myTasks);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    // keyword is either "Owner" or "Helper", the participant the current user must be. Depending
+    // on the input complete parameter, the statuses of the tasks will be different.
+    List<String> statuses =
+        request.getParameter("complete").equals("True")
+            ? Arrays.asList("COMPLETE", "COMPLETE: AWAIT VERIFICATION")
+            : Arrays.asList("OPEN", "IN PROGRESS");
+
+    // The tasks are streamed to the response as they are fetched, a chunk at a time
+    Json.writeTasks(
+        response,
+        Repositories.tasks()
+            .getByParticipant(
+                keyword, userService.getCurrentUser().getUserId(), statuses, CHUNK_SIZE),
+        CHUNK_SIZE);
   }
 }
@@ -0,0 +1,203 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.RequestCache;
+import com.google.neighborgood.helper.TaskClusterCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that rewrites the owner or helper nickname stored on the tasks of a user after
+ * they changed their nickname. Tasks are updated in batches, and each batch enqueues the next one
+ * until all the tasks of the user have been updated.
+ */
+@WebServlet("/jobs/update-nicknames")
+public class NicknameUpdateServlet extends HttpServlet {
+  private static final String URL = "/jobs/update-nicknames";
+  private static final int BATCH_SIZE = 100;
+  private static final int MAX_RETRIES = 5;
+
+  /** Enqueues the jobs that update the nicknames stored on all the tasks of the given user */
+  public static void enqueue(String userId) {
+    enqueue(userId, "Owner", null);
+    enqueue(userId, "Helper", null);
+  }
+
+  private static void enqueue(String userId, String role, String cursor) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL).param("user-id", userId);
+    options.param("role", role);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String userId = request.getParameter("user-id");
+    String role = request.getParameter("role");
+    if (userId == null || role == null || !(role.equals("Owner") || role.equals("Helper"))) {
+      System.err.println("The user id or role of the nickname update is invalid");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid nickname update");
+      return;
+    }
+
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    // The nickname is read again for each batch so that the latest one is always written, even
+    // if the user changes it again while the job is still running
+    Entity userEntity;
+    try {
+      userEntity = datastore.get(KeyFactory.createKey("UserInfo", userId));
+    } catch (EntityNotFoundException e) {
+      System.err.println("Unable to find the UserInfo entity of the nickname update");
+      return;
+    }
+    String nickname = (String) userEntity.getProperty("nickname");
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursor = request.getParameter("cursor");
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+
+    // The query is global, so it may return tasks whose participants just changed. Only their keys
+    // are used: each task is read again and rewritten in a transaction, so a stale result can't
+    // overwrite a change made to the task since.
+    Query query =
+        new Query("Task")
+            .setKeysOnly()
+            .setFilter(new FilterPredicate(role, FilterOperator.EQUAL, userId));
+    QueryResultList<Entity> results = datastore.prepare(query).asQueryResultList(fetchOptions);
+
+    // Tasks are children of their owner, so the tasks of an entity group are updated at once
+    Map<Key, List<Key>> groups = new LinkedHashMap<>();
+    for (Entity entity : results) {
+      groups
+          .computeIfAbsent(getRoot(entity.getKey()), root -> new ArrayList<>())
+          .add(entity.getKey());
+    }
+
+    String property = role.equals("Owner") ? "ownerNickname" : "helperNickname";
+    List<Entity> updated = new ArrayList<>();
+    try {
+      for (List<Key> taskKeys : groups.values()) {
+        updated.addAll(updateNicknames(datastore, taskKeys, userId, role, property, nickname));
+      }
+    } catch (ConcurrentModificationException e) {
+      // Rewriting a nickname is idempotent, so the whole batch is retried by the task queue
+      System.err.println("Unable to update the nicknames of a group of tasks: " + e);
+      invalidate(updated);
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Nickname update contended");
+      return;
+    }
+    invalidate(updated);
+
+    // If the batch was full, there may be more tasks left to update
+    if (results.size() == BATCH_SIZE) {
+      enqueue(userId, role, results.getCursor().toWebSafeString());
+    }
+  }
+
+  /**
+   * Sets the given nickname property of the given tasks, which share an entity group, in one
+   * transaction, skipping the tasks where the user no longer has the given role. Returns the tasks
+   * that were changed.
+   */
+  private static List<Entity> updateNicknames(
+      DatastoreService datastore,
+      List<Key> taskKeys,
+      String userId,
+      String role,
+      String property,
+      String nickname) {
+    for (int retries = 0; ; retries++) {
+      Transaction transaction = datastore.beginTransaction();
+      try {
+        List<Entity> changed = new ArrayList<>();
+        for (Entity entity : datastore.get(transaction, taskKeys).values()) {
+          if (userId.equals(entity.getProperty(role))
+              && !Objects.equals(nickname, entity.getProperty(property))) {
+            entity.setProperty(property, nickname);
+            changed.add(entity);
+          }
+        }
+        if (!changed.isEmpty()) {
+          datastore.put(transaction, changed);
+        }
+        transaction.commit();
+        return changed;
+      } catch (ConcurrentModificationException e) {
+        if (retries == MAX_RETRIES) {
+          throw e;
+        }
+      } finally {
+        if (transaction.isActive()) {
+          transaction.rollback();
+        }
+      }
+    }
+  }
+
+  /** Returns the root of the entity group of the given key */
+  private static Key getRoot(Key key) {
+    while (key.getParent() != null) {
+      key = key.getParent();
+    }
+    return key;
+  }
+
+  /** Drops the cached feeds and map clusters that hold the given tasks with their old nickname */
+  private static void invalidate(List<Entity> tasks) {
+    Set<List<String>> neighborhoods = new HashSet<>();
+    for (Entity entity : tasks) {
+      neighborhoods.add(
+          Arrays.asList(
+              (String) entity.getProperty("country"), (String) entity.getProperty("zipcode")));
+      TaskClusterCache.invalidate(entity);
+    }
+    for (List<String> neighborhood : neighborhoods) {
+      FeedCache.invalidate(neighborhood.get(0), neighborhood.get(1));
+    }
+  }
+}
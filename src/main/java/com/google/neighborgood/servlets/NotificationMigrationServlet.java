@@ -0,0 +1,135 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.RequestCache;
+import com.google.neighborgood.helper.UnreadCounter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that moves the legacy Notification entities, one per unread message, onto the
+ * unread counts. Each notification is counted and deleted in one transaction, so the job can be
+ * rerun safely and the badges keep their unread messages while it runs. Notifications of messages
+ * sent before their task was claimed go to its helper, or to its future helper if it is still open.
+ *
+ * <p>GET starts the job, which an admin runs once after deploying the unread counts. Notifications
+ * are migrated in batches, and each batch enqueues the next one until every notification has been
+ * migrated.
+ */
+@WebServlet("/jobs/migrate-notifications")
+public class NotificationMigrationServlet extends HttpServlet {
+  private static final String URL = "/jobs/migrate-notifications";
+  private static final int BATCH_SIZE = 200;
+  // A cross-group transaction spans at most 25 entity groups, one of which is the count
+  private static final int MAX_KEYS_PER_TRANSACTION = 24;
+  // Notifications sent before a claim also need the group of their task, which holds the pending
+  // count
+  private static final int MAX_PENDING_KEYS_PER_TRANSACTION = 23;
+
+  private static void enqueue(String cursor) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    enqueue(null);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursor = request.getParameter("cursor");
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> notifications =
+        RequestCache.getDatastoreService()
+            .prepare(new Query("Notification"))
+            .asQueryResultList(fetchOptions);
+
+    // Groups the notifications of the batch by receiver and task. Notifications without a receiver
+    // were written for the messages sent before the task was claimed, and are grouped by task.
+    Map<List<String>, List<Key>> groups = new LinkedHashMap<>();
+    Map<Key, List<Key>> pendingGroups = new LinkedHashMap<>();
+    List<Key> unreadable = new ArrayList<>();
+    for (Entity entity : notifications) {
+      String receiver = (String) entity.getProperty("receiver");
+      String taskId = (String) entity.getProperty("taskId");
+      if (taskId == null) {
+        unreadable.add(entity.getKey());
+      } else if (receiver == null || receiver.equals("N/A")) {
+        Key taskKey;
+        try {
+          taskKey = KeyFactory.stringToKey(taskId);
+        } catch (IllegalArgumentException e) {
+          unreadable.add(entity.getKey());
+          continue;
+        }
+        pendingGroups.computeIfAbsent(taskKey, group -> new ArrayList<>()).add(entity.getKey());
+      } else {
+        groups
+            .computeIfAbsent(Arrays.asList(receiver, taskId), group -> new ArrayList<>())
+            .add(entity.getKey());
+      }
+    }
+
+    for (Map.Entry<List<String>, List<Key>> group : groups.entrySet()) {
+      List<Key> keys = group.getValue();
+      for (int i = 0; i < keys.size(); i += MAX_KEYS_PER_TRANSACTION) {
+        UnreadCounter.migrate(
+            group.getKey().get(0),
+            group.getKey().get(1),
+            keys.subList(i, Math.min(i + MAX_KEYS_PER_TRANSACTION, keys.size())));
+      }
+    }
+    for (Map.Entry<Key, List<Key>> group : pendingGroups.entrySet()) {
+      List<Key> keys = group.getValue();
+      for (int i = 0; i < keys.size(); i += MAX_PENDING_KEYS_PER_TRANSACTION) {
+        UnreadCounter.migratePending(
+            group.getKey(),
+            keys.subList(i, Math.min(i + MAX_PENDING_KEYS_PER_TRANSACTION, keys.size())));
+      }
+    }
+    RequestCache.getDatastoreService().delete(unreadable);
+    System.out.println(String.format("Migrated %d notifications", notifications.size()));
+
+    // If the batch was full, there may be more notifications left to migrate
+    if (notifications.size() == BATCH_SIZE) {
+      enqueue(notifications.getCursor().toWebSafeString());
+    }
+  }
+}
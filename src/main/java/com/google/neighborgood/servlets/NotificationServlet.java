@@ -14,22 +14,17 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.PreparedQuery;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.neighborgood.data.Notification;
+import com.google.neighborgood.helper.ETags;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import javax.servlet.annotation.WebServlet;
@@ -37,7 +32,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-/** Servlet that loads new notification entities. */
+/** Servlet that loads and clears the unread message counts of the current user. */
 @WebServlet("/notifications")
 public class NotificationServlet extends HttpServlet {
   @Override
@@ -49,30 +44,39 @@ public class NotificationServlet extends HttpServlet {
       return;
     }
 
-    // Get all the notifications whose receiver is the current user
-    Filter filter =
-        new FilterPredicate(
-            "receiver", FilterOperator.EQUAL, userService.getCurrentUser().getUserId());
-    Query query = new Query("Notification").setFilter(filter);
+    // Get the unread message counts of the current user
+    String userId = userService.getCurrentUser().getUserId();
+    Map<String, Long> counts = Repositories.notifications().getCounts(userId);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    Map<String, Integer> notifications = new HashMap<>();
-    for (Entity entity : results.asIterable()) {
-      String taskId = (String) entity.getProperty("taskId");
-      notifications.put(taskId, notifications.getOrDefault(taskId, 0) + 1);
+    // Get the latest overview of every task with unread messages in one batch
+    List<Key> taskKeys = new ArrayList<>();
+    for (String taskId : counts.keySet()) {
+      taskKeys.add(KeyFactory.stringToKey(taskId));
     }
+    Map<Key, Entity> tasks = Repositories.tasks().getAll(taskKeys);
 
+    // The ETag covers the overviews as well as the counts, as the owner of a task can edit it
     List<Notification> finalResult = new ArrayList<>();
-    for (Map.Entry<String, Integer> entry : notifications.entrySet()) {
-      finalResult.add(new Notification(entry.getKey(), entry.getValue()));
+    List<Object> stamp = new ArrayList<>();
+    stamp.add(userId);
+    for (Map.Entry<String, Long> entry : counts.entrySet()) {
+      Entity taskEntity = tasks.get(KeyFactory.stringToKey(entry.getKey()));
+      if (taskEntity == null) {
+        // The task was deleted, so its messages can no longer be read
+        continue;
+      }
+      String overview = (String) taskEntity.getProperty("overview");
+      finalResult.add(new Notification(entry.getKey(), overview, entry.getValue()));
+      stamp.add(entry.getKey());
+      stamp.add(overview);
+      stamp.add(entry.getValue());
     }
 
-    Gson gson = new Gson();
-    String json = gson.toJson(finalResult);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    // Badge polls that find the same unread messages get a 304
+    if (ETags.notModified(request, response, ETags.weak(Integer.toHexString(stamp.hashCode())))) {
+      return;
+    }
+    Json.write(response, finalResult);
   }
 
   @Override
@@ -93,19 +97,8 @@ public class NotificationServlet extends HttpServlet {
       return;
     }
 
-    // Get all stored entities related with the task that corresponds to the given taskId.
-    // Then deletes these entities
-    Filter filter = new FilterPredicate("taskId", FilterOperator.EQUAL, taskId);
-    Query query = new Query("Notification").setFilter(filter);
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    PreparedQuery results = datastore.prepare(query);
-
-    // Loop through all entities and delete them using the key
-    for (Entity entity : results.asIterable()) {
-      Key key = entity.getKey();
-      datastore.delete(key);
-    }
+    // The current user has now read every message of the task
+    Repositories.notifications().reset(userService.getCurrentUser().getUserId(), taskId);
 
     response.sendRedirect(request.getHeader("Referer"));
   }
@@ -0,0 +1,135 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.RequestCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that finds the Message and Notification entities whose task no longer exists and
+ * enqueues their deletion. The tasks of the messages are the parents of their keys, which are read
+ * with a keys-only query. The distinct task ids of the notifications are read with a projection
+ * query, so that the sweep reads one row per task rather than one per notification.
+ *
+ * <p>GET starts the sweep, either from the daily cron or by an admin. Task ids are checked in
+ * batches, and each batch enqueues the next one until every task id has been checked.
+ */
+@WebServlet("/jobs/sweep-orphans")
+public class OrphanSweepServlet extends HttpServlet {
+  private static final String URL = "/jobs/sweep-orphans";
+  private static final List<String> KINDS = Arrays.asList("Message", "Notification");
+  private static final int BATCH_SIZE = 100;
+
+  private static void enqueue(String kind, String cursor) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL).param("kind", kind);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    for (String kind : KINDS) {
+      enqueue(kind, null);
+    }
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String kind = request.getParameter("kind");
+    if (kind == null || !KINDS.contains(kind)) {
+      System.err.println("The kind of the orphan sweep is invalid");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid orphan sweep");
+      return;
+    }
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursor = request.getParameter("cursor");
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    // Maps the key of each task to its id as stored on the entities
+    Map<Key, String> taskIds = new LinkedHashMap<>();
+    List<String> orphanTaskIds = new ArrayList<>();
+    QueryResultList<Entity> results;
+    if (kind.equals("Message")) {
+      // Messages are children of their task, so the tasks are the parents of the message keys.
+      // Messages without a parent predate that and are left to the message migration job.
+      results = datastore.prepare(new Query(kind).setKeysOnly()).asQueryResultList(fetchOptions);
+      for (Entity entity : results) {
+        Key taskKey = entity.getKey().getParent();
+        if (taskKey != null) {
+          taskIds.put(taskKey, KeyFactory.keyToString(taskKey));
+        }
+      }
+    } else {
+      Query query =
+          new Query(kind)
+              .addProjection(new PropertyProjection("taskId", String.class))
+              .setDistinct(true);
+      results = datastore.prepare(query).asQueryResultList(fetchOptions);
+      for (Entity entity : results) {
+        String taskId = (String) entity.getProperty("taskId");
+        try {
+          taskIds.put(KeyFactory.stringToKey(taskId), taskId);
+        } catch (IllegalArgumentException e) {
+          orphanTaskIds.add(taskId);
+        }
+      }
+    }
+
+    Set<Key> existingTasks = datastore.get(taskIds.keySet()).keySet();
+    for (Map.Entry<Key, String> entry : taskIds.entrySet()) {
+      if (!existingTasks.contains(entry.getKey())) {
+        orphanTaskIds.add(entry.getValue());
+      }
+    }
+
+    for (String taskId : orphanTaskIds) {
+      System.out.println(
+          String.format("Deleting the orphaned %s entities of task %s", kind, taskId));
+      TaskDataCleanupServlet.enqueue(kind, taskId);
+    }
+
+    // If the batch was full, there may be more task ids left to check
+    if (results.size() == BATCH_SIZE) {
+      enqueue(kind, results.getCursor().toWebSafeString());
+    }
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.PointsCounter;
+import com.google.neighborgood.helper.PointsLedger;
+import com.google.neighborgood.helper.RequestCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that audits the points counters of every user against the points ledger. The
+ * points held by a user's counter shards must add up to the rewards the ledger granted them; when
+ * they don't, the mismatch is logged and the shards are reset to the ledger's total. Counters that
+ * changed too recently for the ledger query to see their latest rewards are only logged, and are
+ * left to the next run.
+ *
+ * <p>GET starts the job, either from the daily cron or by an admin. Users are audited in batches,
+ * and each batch enqueues the next one until every user has been audited.
+ */
+@WebServlet("/jobs/reconcile-points")
+public class PointsReconciliationServlet extends HttpServlet {
+  private static final String URL = "/jobs/reconcile-points";
+  private static final int BATCH_SIZE = 50;
+
+  private static void enqueue(String cursor) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    enqueue(null);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    // Rewards granted before this time are assumed to be seen by the ledger queries below
+    long auditTime = System.currentTimeMillis();
+
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(BATCH_SIZE);
+    String cursor = request.getParameter("cursor");
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> users =
+        datastore.prepare(new Query("UserInfo")).asQueryResultList(fetchOptions);
+
+    // Starts the ledger queries of the whole batch before reading any of them
+    List<List<Entity>> ledgerEntries = new ArrayList<>();
+    for (Entity userEntity : users) {
+      ledgerEntries.add(PointsLedger.getEntries(userEntity.getKey().getName()));
+    }
+
+    for (int i = 0; i < users.size(); i++) {
+      Entity userEntity = users.get(i);
+      String userId = userEntity.getKey().getName();
+      long ledgerPoints = PointsLedger.sum(ledgerEntries.get(i));
+      long countedPoints = PointsCounter.getShardedPoints(userId);
+      if (ledgerPoints != countedPoints) {
+        System.err.println(
+            "The points counter of user "
+                + userId
+                + " holds "
+                + countedPoints
+                + " points but the ledger granted "
+                + ledgerPoints
+                + ".");
+        if (PointsCounter.reset(userId, ledgerPoints, auditTime)) {
+          System.err.println("Reset the counter of user " + userId + " to the ledger's total.");
+          Leaderboard.correctPoints(userEntity, PointsCounter.getPoints(userId));
+        } else {
+          System.err.println(
+              "The counter of user " + userId + " changed recently, leaving it to the next run.");
+        }
+      }
+    }
+
+    // If the batch was full, there may be more users left to audit
+    if (users.size() == BATCH_SIZE) {
+      enqueue(users.getCursor().toWebSafeString());
+    }
+  }
+}
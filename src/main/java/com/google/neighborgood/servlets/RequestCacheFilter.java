@@ -0,0 +1,65 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.neighborgood.helper.CachingDatastoreService;
+import com.google.neighborgood.helper.RequestCache;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Filter that serves every request within a request cache scope, so that each entity is read at
+ * most once per request, and logs how many of the entities read by key were found in the cache.
+ */
+@WebFilter("/*")
+public class RequestCacheFilter implements Filter {
+  private static final Logger logger = Logger.getLogger(RequestCacheFilter.class.getName());
+
+  @Override
+  public void init(FilterConfig filterConfig) {}
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+      throws IOException, ServletException {
+    RequestCache.begin();
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      CachingDatastoreService datastore = RequestCache.end();
+      if (logger.isLoggable(Level.FINE) && datastore.getHits() + datastore.getMisses() > 0) {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        logger.fine(
+            String.format(
+                "Request cache of %s %s: %d hits, %d misses",
+                httpRequest.getMethod(),
+                httpRequest.getRequestURI(),
+                datastore.getHits(),
+                datastore.getMisses()));
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {}
+}
@@ -0,0 +1,88 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.neighborgood.data.TaskCluster;
+import com.google.neighborgood.helper.Geohash;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.TaskClusterCache;
+import java.io.IOException;
+import java.util.List;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet that returns the open tasks within a map's bounding box aggregated into clusters, one per
+ * geohash cell. The bbox parameter is "south,west,north,east", as given by the map's bounds, and
+ * the zoom parameter is the map's zoom level.
+ */
+@WebServlet("/tasks/clusters")
+public class TaskClusterServlet extends HttpServlet {
+  private static final int MAX_CELLS = 64;
+  // Geohash precision of the clusters for each zoom level, from 0 up to 14 and above
+  private static final int[] ZOOM_PRECISIONS = {1, 1, 1, 2, 2, 2, 3, 3, 3, 4, 4, 4, 5, 5, 6};
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String bbox = request.getParameter("bbox");
+    String zoomParameter = request.getParameter("zoom");
+    if (bbox == null || zoomParameter == null) {
+      System.err.println("Bounding box and zoom are missing");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bounding box and zoom are missing");
+      return;
+    }
+
+    double south;
+    double west;
+    double north;
+    double east;
+    int zoom;
+    try {
+      String[] bounds = bbox.split(",");
+      if (bounds.length != 4) {
+        throw new NumberFormatException("Bounding box must have 4 values: " + bbox);
+      }
+      south = Double.parseDouble(bounds[0]);
+      west = Double.parseDouble(bounds[1]);
+      north = Double.parseDouble(bounds[2]);
+      east = Double.parseDouble(bounds[3]);
+      zoom = Integer.parseInt(zoomParameter);
+    } catch (NumberFormatException e) {
+      System.err.println("Invalid bounding box or zoom: " + e.getMessage());
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid bounding box or zoom");
+      return;
+    }
+
+    if (south > north || Math.abs(south) > 90 || Math.abs(north) > 90 || zoom < 0) {
+      System.err.println("Bounding box or zoom out of range");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bounding box or zoom out of range");
+      return;
+    }
+
+    // Uses coarser cells when the box would need too many of them at the zoom's precision
+    int precision = ZOOM_PRECISIONS[Math.min(zoom, ZOOM_PRECISIONS.length - 1)];
+    while (precision > 1
+        && Geohash.countCellsInBox(south, west, north, east, precision) > MAX_CELLS) {
+      precision--;
+    }
+
+    List<TaskCluster> clusters =
+        TaskClusterCache.getClusters(Geohash.getCellsInBox(south, west, north, east, precision));
+
+    Json.write(response, clusters);
+  }
+}
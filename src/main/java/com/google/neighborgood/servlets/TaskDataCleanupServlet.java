@@ -0,0 +1,214 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.FilterPredicate;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.RequestCache;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that deletes the Message or Notification entities of a task. Entities are looked
+ * up with keys-only queries, by ancestor for messages, and deleted in batches, and each run
+ * enqueues the next one until all the entities of the task have been deleted.
+ *
+ * <p>Each run records how many entities were deleted so far in a CleanupProgress entity, which GET
+ * returns for the kind and task-id parameters.
+ */
+@WebServlet("/jobs/delete-task-data")
+public class TaskDataCleanupServlet extends HttpServlet {
+  private static final String URL = "/jobs/delete-task-data";
+  private static final List<String> KINDS = Arrays.asList("Message", "Notification");
+  // Maximum number of keys deleted in a single datastore call
+  private static final int DELETE_BATCH_SIZE = 500;
+  // Number of entities deleted within a request before the rest is handed to the job
+  private static final int INLINE_LIMIT = 1000;
+  private static final int JOB_BATCH_SIZE = 5000;
+
+  /**
+   * Deletes the entities of the given kind that belong to the given task. If the task has more than
+   * INLINE_LIMIT of them, the rest is deleted in the background. Returns whether every entity was
+   * deleted right away.
+   */
+  public static boolean delete(String kind, String taskId) {
+    QueryResultList<Entity> deleted = deleteBatch(kind, taskId, INLINE_LIMIT, null);
+    if (deleted.size() < INLINE_LIMIT) {
+      return true;
+    }
+    saveProgress(kind, taskId, deleted.size(), false);
+    enqueue(kind, taskId, deleted.getCursor().toWebSafeString(), deleted.size());
+    return false;
+  }
+
+  /** Enqueues the job that deletes all the Message and Notification entities of the given task */
+  public static void enqueue(String taskId) {
+    for (String kind : KINDS) {
+      enqueue(kind, taskId);
+    }
+  }
+
+  /** Enqueues the job that deletes all the entities of the given kind of the given task */
+  public static void enqueue(String kind, String taskId) {
+    enqueue(kind, taskId, null, 0);
+  }
+
+  private static void enqueue(String kind, String taskId, String cursor, long deleted) {
+    TaskOptions options = TaskOptions.Builder.withUrl(URL).param("kind", kind);
+    options.param("task-id", taskId);
+    if (cursor != null) {
+      options.param("cursor", cursor);
+    }
+    options.param("deleted", Long.toString(deleted));
+    QueueFactory.getDefaultQueue().add(options);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String kind = request.getParameter("kind");
+    String taskId = request.getParameter("task-id");
+    if (kind == null || taskId == null) {
+      System.err.println("The kind or task id of the cleanup is missing");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cleanup");
+      return;
+    }
+
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Entity progressEntity;
+    try {
+      progressEntity = datastore.get(getProgressKey(kind, taskId));
+    } catch (EntityNotFoundException e) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND, "The cleanup could not be found");
+      return;
+    }
+
+    Map<String, Object> progress = new LinkedHashMap<>();
+    progress.put("deleted", progressEntity.getProperty("deleted"));
+    progress.put("done", progressEntity.getProperty("done"));
+
+    Json.write(response, progress);
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String kind = request.getParameter("kind");
+    String taskId = request.getParameter("task-id");
+    if (kind == null || taskId == null || !KINDS.contains(kind)) {
+      System.err.println("The kind or task id of the cleanup is invalid");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cleanup");
+      return;
+    }
+
+    QueryResultList<Entity> deleted;
+    try {
+      deleted = deleteBatch(kind, taskId, JOB_BATCH_SIZE, request.getParameter("cursor"));
+    } catch (IllegalArgumentException e) {
+      // Retrying the job wouldn't help, so it is dropped
+      System.err.println("The task id or cursor of the cleanup is invalid");
+      return;
+    }
+
+    long total;
+    try {
+      total = Long.parseLong(request.getParameter("deleted"));
+    } catch (NumberFormatException e) {
+      total = 0;
+    }
+
+    total += deleted.size();
+    boolean done = deleted.size() < JOB_BATCH_SIZE;
+    saveProgress(kind, taskId, total, done);
+    System.out.println(
+        String.format("Deleted %d %s entities of task %s so far", total, kind, taskId));
+
+    // If the batch was full, there may be more entities left to delete
+    if (!done) {
+      enqueue(kind, taskId, deleted.getCursor().toWebSafeString(), total);
+    }
+  }
+
+  /**
+   * Deletes at most limit entities of the given kind that belong to the given task, starting at the
+   * given cursor. Returns the keys-only entities that were deleted.
+   */
+  private static QueryResultList<Entity> deleteBatch(
+      String kind, String taskId, int limit, String cursor) {
+    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(limit).chunkSize(DELETE_BATCH_SIZE);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    QueryResultList<Entity> results =
+        datastore.prepare(getQuery(kind, taskId)).asQueryResultList(fetchOptions);
+
+    List<Key> keys = new ArrayList<>();
+    for (Entity entity : results) {
+      keys.add(entity.getKey());
+      if (keys.size() == DELETE_BATCH_SIZE) {
+        datastore.delete(keys);
+        keys.clear();
+      }
+    }
+    if (!keys.isEmpty()) {
+      datastore.delete(keys);
+    }
+    return results;
+  }
+
+  /**
+   * Returns the keys-only query of the entities of the given kind that belong to the given task.
+   * Messages are children of their task, so they are queried by ancestor. Throws an
+   * IllegalArgumentException if the messages of an invalid task id are queried.
+   */
+  private static Query getQuery(String kind, String taskId) {
+    Query query = new Query(kind).setKeysOnly();
+    if (kind.equals("Message")) {
+      return query.setAncestor(KeyFactory.stringToKey(taskId));
+    }
+    return query.setFilter(new FilterPredicate("taskId", FilterOperator.EQUAL, taskId));
+  }
+
+  private static void saveProgress(String kind, String taskId, long deleted, boolean done) {
+    Entity progressEntity = new Entity(getProgressKey(kind, taskId));
+    progressEntity.setUnindexedProperty("deleted", deleted);
+    progressEntity.setUnindexedProperty("done", done);
+    progressEntity.setProperty("updatedTime", System.currentTimeMillis());
+    RequestCache.getDatastoreService().put(progressEntity);
+  }
+
+  private static Key getProgressKey(String kind, String taskId) {
+    return KeyFactory.createKey("CleanupProgress", kind + "|" + taskId);
+  }
+}
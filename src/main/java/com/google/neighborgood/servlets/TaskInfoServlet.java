@@ -14,14 +14,20 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.gson.Gson;
 import com.google.neighborgood.data.Task;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.PointsCounter;
+import com.google.neighborgood.helper.PointsLedger;
+import com.google.neighborgood.helper.TaskAssembler;
+import com.google.neighborgood.helper.TaskClusterCache;
+import com.google.neighborgood.helper.TaskParticipants;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -40,22 +46,16 @@ public class TaskInfoServlet extends HttpServlet {
 
     Key taskKey = KeyFactory.stringToKey(keyString);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Entity entity;
-    try {
-      entity = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    Entity entity = Repositories.tasks().get(taskKey);
+    if (entity == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
       return;
     }
 
-    Task taskEntry = new Task(entity);
+    Task taskEntry = TaskAssembler.assemble(entity);
 
-    Gson gson = new Gson();
-    String json = gson.toJson(taskEntry);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    Json.write(response, taskEntry);
   }
 
   @Override
@@ -65,37 +65,49 @@ public class TaskInfoServlet extends HttpServlet {
 
     Key taskKey = KeyFactory.stringToKey(keyString);
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Entity entity;
-    try {
-      entity = datastore.get(taskKey);
-    } catch (EntityNotFoundException e) {
+    Entity entity = Repositories.tasks().get(taskKey);
+    if (entity == null) {
       System.err.println("Unable to find the entity based on the input key");
       response.sendError(HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
       return;
     }
 
-    if (newStatus.equals("OPEN")) {
-      entity.setProperty("Helper", "N/A");
-    } else if (newStatus.equals("COMPLETE")) {
-      String userId = (String) entity.getProperty("Helper");
-      Entity userEntity = null;
+    if (newStatus.equals("COMPLETE")) {
+      // Completes the task and grants its reward at once, so that it is only ever paid once
       try {
-        userEntity = datastore.get(KeyFactory.createKey("UserInfo", userId));
+        entity = PointsLedger.completeTask(taskKey);
       } catch (EntityNotFoundException e) {
-        System.err.println("Unable to find the helper of the task");
+        System.err.println("Unable to find the entity based on the input key");
         response.sendError(
-            HttpServletResponse.SC_NOT_FOUND,
-            "The helper of the task could not be found in the database");
+            HttpServletResponse.SC_NOT_FOUND, "The requested task could not be found");
+        return;
+      } catch (IllegalStateException e) {
+        System.err.println("Unable to complete the task: " + e.getMessage());
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "The task can't be completed");
         return;
       }
-      long points = (long) userEntity.getProperty("points");
-      long reward = (long) entity.getProperty("reward");
-      userEntity.setProperty("points", points + reward);
-      datastore.put(userEntity);
+
+      // Credits the helper that the ledger paid, as read within the completion's transaction
+      String userId = (String) entity.getProperty("Helper");
+      Entity userEntity = Repositories.users().get(userId);
+      if (userEntity == null) {
+        System.err.println("Unable to find the helper of the task to rank them");
+      } else {
+        Leaderboard.recordPoints(userEntity, PointsCounter.getPoints(userId));
+      }
+    } else {
+      if (newStatus.equals("OPEN")) {
+        entity.setProperty("Helper", "N/A");
+        entity.setProperty("helperNickname", "N/A");
+      }
+      entity.setProperty("status", newStatus);
+      Repositories.tasks().put(entity);
+      if (newStatus.equals("OPEN")) {
+        TaskParticipants.invalidate(taskKey);
+      }
     }
-    entity.setProperty("status", newStatus);
-    datastore.put(entity);
+    FeedCache.invalidate(entity);
+    TaskClusterCache.invalidate(entity);
 
     response.sendRedirect("/user_profile.jsp");
   }
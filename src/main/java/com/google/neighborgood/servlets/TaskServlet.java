@@ -14,40 +14,59 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.Cursor;
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
+import com.google.neighborgood.helper.ETags;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.Geohash;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.PageToken;
 import com.google.neighborgood.helper.RetrieveUserInfo;
 import com.google.neighborgood.helper.RewardingPoints;
+import com.google.neighborgood.helper.TaskClusterCache;
 import com.google.neighborgood.helper.TaskGroup;
+import com.google.neighborgood.helper.TaskParticipants;
+import com.google.neighborgood.helper.UnreadCounter;
+import com.google.neighborgood.helper.UserProfileCache;
+import com.google.neighborgood.repository.EntityPage;
+import com.google.neighborgood.repository.Repositories;
+import com.google.neighborgood.repository.TaskFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.servlet.http.HttpSession;
 
 /** Servlet that creates new task entity and fetch saved tasks. */
 @WebServlet("/tasks")
 public class TaskServlet extends HttpServlet {
+  private static final int NEARBY_TASKS_LIMIT = 50;
+  private static final double MAX_RADIUS_KM = 50;
+  // Bounds the queries of a nearby search, as full cells are split into up to 32 smaller ones
+  private static final int MAX_CELL_QUERIES = 100;
+
   @Override
   // doGet method retrieves tasks from datastore and responds with the HTML for each task fetched
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // Tasks are searched around a location instead of by neighborhood when a radius is given
+    if (request.getParameterMap().containsKey("radiusKm")) {
+      getNearbyTasks(request, response);
+      return;
+    }
+
     UserService userService = UserServiceFactory.getUserService();
     boolean userLoggedIn = userService.isUserLoggedIn();
     String userId = userLoggedIn ? userService.getCurrentUser().getUserId() : "null";
@@ -64,74 +83,197 @@ public class TaskServlet extends HttpServlet {
           HttpServletResponse.SC_BAD_REQUEST, "Zipcode and Country details are missing");
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-
-    Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
-
-    // Creates list of filters
-    List<Query.Filter> filters = new ArrayList<Query.Filter>();
-    filters.add(new Query.FilterPredicate("zipcode", Query.FilterOperator.EQUAL, zipcode));
-    filters.add(new Query.FilterPredicate("country", Query.FilterOperator.EQUAL, country));
-    filters.add(new Query.FilterPredicate("status", Query.FilterOperator.EQUAL, "OPEN"));
+    TaskFilter filter =
+        new TaskFilter()
+            .equal("zipcode", zipcode)
+            .equal("country", country)
+            .equal("status", "OPEN");
 
     // Applies a category filter, if any
+    String category = null;
     if (request.getParameterMap().containsKey("category")) {
-      String category = request.getParameter("category");
-      filters.add(new Query.FilterPredicate("category", Query.FilterOperator.EQUAL, category));
+      category = request.getParameter("category");
+      filter.equal("category", category);
     }
 
-    // Applies filters to query
-    query.setFilter(new Query.CompositeFilter(Query.CompositeFilterOperator.AND, filters));
-
-    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(10);
-
     // Helper class instance that will store 10 tasks and keep track of some query metadata
     TaskGroup taskGroup = new TaskGroup();
 
-    // Gets session and passed cursor action
-    HttpSession session = request.getSession();
-    String cursorAction = request.getParameter("cursor");
+    // Gets the cursors of the requested page from the page token, if any. Without a page token
+    // the first page is returned
+    List<String> pageCursors = new ArrayList<>();
+    String pageToken = request.getParameter("pageToken");
+    if (pageToken != null) {
+      try {
+        pageCursors = PageToken.decode(pageToken);
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid page token");
+        return;
+      }
+    }
 
-    // Clears cursors if no cursor action is passed or a clear action is passed
-    if (cursorAction == null || cursorAction.equals("clear")) {
-      session.removeAttribute("startCursor");
-      session.removeAttribute("endCursor");
+    String startCursor = pageCursors.isEmpty() ? null : pageCursors.get(pageCursors.size() - 1);
+
+    // The feeds of a neighborhood only change along with its version, so a client that already has
+    // the page of the current version gets a 304 before any query runs. The page also depends on
+    // who is asking, which the ETag covers as well. Until the version is settled, the query may
+    // still miss its latest change, so the page can be neither validated nor cached.
+    long version = FeedCache.getVersion(country, zipcode);
+    boolean settled = FeedCache.isSettled(version);
+    if (settled) {
+      String etag =
+          ETags.weak(
+              version + "-" + Integer.toHexString(Objects.hash(userId, category, pageToken)));
+      if (ETags.notModified(request, response, etag)) {
+        return;
+      }
+    } else {
+      response.setHeader("Cache-Control", "private, no-cache");
     }
 
-    // initializes startCursor to the appropriate cursor location
-    String startCursor = null;
-    if (cursorAction.equals("start")) {
-      startCursor = (String) session.getAttribute("startCursor");
-    } else if (cursorAction.equals("end")) {
-      startCursor = (String) session.getAttribute("endCursor");
+    // The first page of each feed is served from the cache when possible
+    FeedCache.Page page = null;
+    String cacheKey = null;
+    if (pageCursors.isEmpty() && settled) {
+      cacheKey = FeedCache.getKey(version, country, zipcode, category);
+      page = FeedCache.get(cacheKey);
     }
 
-    // sets cursor in fetchOptions and stores the new startCursor in the session
-    if (startCursor != null) {
-      fetchOptions.startCursor(Cursor.fromWebSafeString(startCursor));
-      session.setAttribute("startCursor", startCursor);
+    if (page == null) {
+      EntityPage results;
+      try {
+        results = Repositories.tasks().getPage(filter, startCursor, 10);
+      } catch (IllegalArgumentException e) {
+        response.sendRedirect("/index.jsp");
+        return;
+      }
+      page = new FeedCache.Page(results.getEntities(), results.getEndCursor());
+      if (cacheKey != null) {
+        FeedCache.put(cacheKey, page);
+      }
     }
 
-    QueryResultList<Entity> results;
+    taskGroup.addTasks(page.getEntities());
+
+    // Checks if the end of the query has been reached and returns the tokens of the pages around
+    // the current one
+    taskGroup.checkIfEnd();
+    if (!pageCursors.isEmpty()) {
+      taskGroup.setPrevPageToken(PageToken.encode(pageCursors.subList(0, pageCursors.size() - 1)));
+    }
+    if (!taskGroup.isEndOfQuery()) {
+      List<String> nextPageCursors = new ArrayList<>(pageCursors);
+      nextPageCursors.add(page.getEndCursor());
+      taskGroup.setNextPageToken(PageToken.encode(nextPageCursors));
+    }
+
+    Json.write(response, taskGroup);
+  }
+
+  /**
+   * Responds with the NEARBY_TASKS_LIMIT open tasks within radiusKm of the given lat and lng that
+   * come first by distance or, if the sort parameter is "recent", by creation time. Only the
+   * geohash cells covering the radius are queried. A cell holding more than NEARBY_TASKS_LIMIT open
+   * tasks is split into its smaller cells, which are queried instead, so every open task within the
+   * radius is considered. The exceptions are cells of MAX_PRECISION, about 1.2 x 0.6 km, and cells
+   * left once MAX_CELL_QUERIES queries have run: only the NEARBY_TASKS_LIMIT latest tasks of those
+   * are considered.
+   */
+  private void getNearbyTasks(HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    double lat;
+    double lng;
+    double radiusKm;
     try {
-      results = datastore.prepare(query).asQueryResultList(fetchOptions);
-    } catch (IllegalArgumentException e) {
-      response.sendRedirect("/index.jsp");
+      lat = Double.parseDouble(request.getParameter("lat"));
+      lng = Double.parseDouble(request.getParameter("lng"));
+      radiusKm = Double.parseDouble(request.getParameter("radiusKm"));
+    } catch (NullPointerException | NumberFormatException e) {
+      System.err.println("Invalid location coordinates or radius");
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Invalid location coordinates or radius");
       return;
     }
 
-    for (Entity entity : results) {
-      taskGroup.addTask(entity);
+    if (Math.abs(lat) > 90 || Math.abs(lng) > 180 || radiusKm <= 0 || radiusKm > MAX_RADIUS_KM) {
+      System.err.println("Location coordinates or radius out of range");
+      response.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Location coordinates or radius out of range");
+      return;
     }
 
-    // Stores end cursor and checks if the end of the query has been reached
-    session.setAttribute("endCursor", results.getCursor().toWebSafeString());
-    taskGroup.checkIfEnd();
+    String category = request.getParameter("category");
+
+    // Queries the covering cells, then the smaller cells of the ones that are full, one level at a
+    // time. The queries of a level are all started first so that their fetches run concurrently.
+    List<List<Entity>> cellResults = new ArrayList<>();
+    List<String> cells = new ArrayList<>(Geohash.getCoveringCells(lat, lng, radiusKm));
+    int queries = 0;
+    while (!cells.isEmpty()) {
+      Map<String, List<Entity>> levelResults = new LinkedHashMap<>();
+      for (String cell : cells) {
+        TaskFilter filter = new TaskFilter().equal("geocells", cell).equal("status", "OPEN");
+        if (category != null) {
+          filter.equal("category", category);
+        }
+        // One more task than the limit is fetched, to tell whether the cell is full
+        levelResults.put(cell, Repositories.tasks().getNewest(filter, NEARBY_TASKS_LIMIT + 1));
+      }
+      queries += cells.size();
+
+      cells = new ArrayList<>();
+      for (Map.Entry<String, List<Entity>> entry : levelResults.entrySet()) {
+        List<Entity> results = entry.getValue();
+        if (results.size() <= NEARBY_TASKS_LIMIT) {
+          cellResults.add(results);
+          continue;
+        }
+        List<String> children =
+            entry.getKey().length() < Geohash.MAX_PRECISION
+                ? Geohash.getCoveringChildren(entry.getKey(), lat, lng, radiusKm)
+                : Collections.emptyList();
+        if (!children.isEmpty() && queries + cells.size() + children.size() <= MAX_CELL_QUERIES) {
+          cells.addAll(children);
+        } else {
+          cellResults.add(results.subList(0, NEARBY_TASKS_LIMIT));
+        }
+      }
+    }
+
+    // Merges the cells and keeps only the tasks that are actually within the radius
+    Map<Key, Entity> nearbyTasks = new LinkedHashMap<>();
+    Map<Key, Double> distances = new HashMap<>();
+    for (List<Entity> results : cellResults) {
+      for (Entity entity : results) {
+        Double taskLat = (Double) entity.getProperty("lat");
+        Double taskLng = (Double) entity.getProperty("lng");
+        if (taskLat == null || taskLng == null) continue;
+        double distance = Geohash.distanceKm(lat, lng, taskLat, taskLng);
+        if (distance <= radiusKm) {
+          nearbyTasks.put(entity.getKey(), entity);
+          distances.put(entity.getKey(), distance);
+        }
+      }
+    }
+
+    List<Entity> sortedTasks = new ArrayList<>(nearbyTasks.values());
+    if ("recent".equals(request.getParameter("sort"))) {
+      sortedTasks.sort(
+          Comparator.comparing((Entity entity) -> (Long) entity.getProperty("timestamp"))
+              .reversed());
+    } else {
+      sortedTasks.sort(Comparator.comparing((Entity entity) -> distances.get(entity.getKey())));
+    }
+    if (sortedTasks.size() > NEARBY_TASKS_LIMIT) {
+      sortedTasks = sortedTasks.subList(0, NEARBY_TASKS_LIMIT);
+    }
 
-    Gson gson = new Gson();
-    String json = gson.toJson(taskGroup);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    TaskGroup taskGroup = new TaskGroup();
+    taskGroup.addTasks(sortedTasks);
+    taskGroup.setEndOfQuery();
+
+    Json.write(response, taskGroup);
   }
 
   @Override
@@ -203,27 +345,25 @@ public class TaskServlet extends HttpServlet {
     String userId = userService.getCurrentUser().getUserId();
 
     // Creates current user entity key to include as the task's parent
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     Key userEntityKey = KeyFactory.createKey("UserInfo", userId);
 
-    Entity userEntity;
-    try {
-      userEntity = datastore.get(userEntityKey);
-    } catch (EntityNotFoundException e) {
+    // The profile was already cached when the user info was checked above
+    UserProfileCache.Profile profile = UserProfileCache.get(userId);
+    if (profile == null) {
       System.err.println("Unable to find the UserInfo entity based on the current user id");
       response.sendError(
           HttpServletResponse.SC_NOT_FOUND, "The requested user info could not be found");
       return;
     }
 
-    String formattedAddress = (String) userEntity.getProperty("address");
-    String country = (String) userEntity.getProperty("country");
-    String zipcode = (String) userEntity.getProperty("zipcode");
-    Double lat = (Double) userEntity.getProperty("lat");
-    Double lng = (Double) userEntity.getProperty("lng");
+    String formattedAddress = profile.getAddress();
+    String country = profile.getCountry();
+    String zipcode = profile.getZipcode();
+    Double lat = profile.getLat();
+    Double lng = profile.getLng();
 
     // Create an Entity that stores the input comment
-    Entity taskEntity = new Entity("Task", userEntity.getKey());
+    Entity taskEntity = new Entity("Task", userEntityKey);
     taskEntity.setProperty("detail", taskDetail);
     taskEntity.setProperty("overview", taskOverview);
     taskEntity.setProperty("timestamp", creationTime);
@@ -231,6 +371,8 @@ public class TaskServlet extends HttpServlet {
     taskEntity.setProperty("status", "OPEN");
     taskEntity.setProperty("Owner", userId);
     taskEntity.setProperty("Helper", "N/A");
+    taskEntity.setProperty("ownerNickname", profile.getNickname());
+    taskEntity.setProperty("helperNickname", "N/A");
     taskEntity.setProperty("Address", formattedAddress);
     taskEntity.setProperty("zipcode", zipcode);
     taskEntity.setProperty("country", country);
@@ -238,7 +380,14 @@ public class TaskServlet extends HttpServlet {
     taskEntity.setProperty("lng", lng);
     taskEntity.setProperty("category", taskCategory);
 
-    datastore.put(taskEntity);
+    // Indexes the task by the geohash prefixes of its location for radius searches
+    if (lat != null && lng != null) {
+      taskEntity.setProperty("geocells", Geohash.getPrefixes(lat, lng));
+    }
+
+    Repositories.tasks().put(taskEntity);
+    FeedCache.invalidate(taskEntity);
+    TaskClusterCache.invalidate(taskEntity);
 
     // Redirect back to the user page.
     response.sendRedirect("/user_profile.jsp");
@@ -252,8 +401,25 @@ public class TaskServlet extends HttpServlet {
     Key taskKey = KeyFactory.stringToKey(keyString);
 
     // TODO: Handle the exceptional case where the user attempts to delete a non-existent task.
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    datastore.delete(taskKey);
+    Entity taskEntity = Repositories.tasks().get(taskKey);
+    if (taskEntity == null) {
+      System.err.println("Unable to find the entity based on the input key");
+    }
+    Repositories.tasks().delete(taskKey);
+    TaskParticipants.invalidate(taskKey);
+
+    // The messages and notifications of the task are deleted in the background
+    TaskDataCleanupServlet.enqueue(keyString);
+
+    // The cached feed and map clusters of the task's location no longer include it, and neither
+    // its owner nor its helper has unread messages left on it
+    if (taskEntity != null) {
+      FeedCache.invalidate(taskEntity);
+      TaskClusterCache.invalidate(taskEntity);
+      UnreadCounter.reset((String) taskEntity.getProperty("Owner"), keyString);
+      UnreadCounter.reset((String) taskEntity.getProperty("Helper"), keyString);
+      UnreadCounter.resetPending(taskKey);
+    }
 
     // Redirect to the user profile page
     response.sendRedirect("/user_profile.jsp");
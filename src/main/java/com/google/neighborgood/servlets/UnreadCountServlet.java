@@ -0,0 +1,69 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.neighborgood.helper.UnreadCounter;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Background job that counts a sent message as unread for its receiver. Sending a message only
+ * stores it and enqueues this job, so a busy counter delays the count instead of failing the
+ * message, and the task queue retries the count until it is recorded.
+ */
+@WebServlet("/jobs/count-unread")
+public class UnreadCountServlet extends HttpServlet {
+  private static final String URL = "/jobs/count-unread";
+
+  /**
+   * Starts enqueuing the job that counts one more unread message of the given task for the given
+   * receiver, or for the future helper of the task if the receiver is "N/A"
+   */
+  public static Future<TaskHandle> enqueue(String receiver, String taskId) {
+    return QueueFactory.getDefaultQueue()
+        .addAsync(
+            TaskOptions.Builder.withUrl(URL).param("receiver", receiver).param("task-id", taskId));
+  }
+
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    String receiver = request.getParameter("receiver");
+    String taskId = request.getParameter("task-id");
+    if (receiver == null || taskId == null) {
+      System.err.println("The receiver or task id of the unread message is missing");
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid unread message");
+      return;
+    }
+
+    if (receiver.equals("N/A")) {
+      try {
+        UnreadCounter.incrementPending(KeyFactory.stringToKey(taskId));
+      } catch (IllegalArgumentException e) {
+        // Retrying the job wouldn't help, so it is dropped
+        System.err.println("The task id of the unread message is invalid");
+      }
+    } else {
+      UnreadCounter.increment(receiver, taskId);
+    }
+  }
+}
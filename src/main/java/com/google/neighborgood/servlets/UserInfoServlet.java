@@ -14,25 +14,22 @@
 
 package com.google.neighborgood.servlets;
 
-import com.google.appengine.api.datastore.DatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.EntityNotFoundException;
-import com.google.appengine.api.datastore.FetchOptions;
-import com.google.appengine.api.datastore.Key;
-import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
 import com.google.appengine.api.memcache.ErrorHandlers;
 import com.google.appengine.api.memcache.MemcacheService;
 import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import com.google.gson.Gson;
 import com.google.neighborgood.data.User;
+import com.google.neighborgood.helper.ETags;
+import com.google.neighborgood.helper.Json;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.UserProfileCache;
+import com.google.neighborgood.repository.Repositories;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.logging.Level;
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -45,17 +42,33 @@ import javax.servlet.http.HttpServletResponse;
 public class UserInfoServlet extends HttpServlet {
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
-
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
     UserService userService = UserServiceFactory.getUserService();
 
     // Retrieves user accounts for the topscorers board
     if (request.getParameterMap().containsKey("action")
         && request.getParameter("action").equals("topscorers")) {
-      List<User> users = retrieveTopTenUsers(request, userService, datastore);
-      Gson gson = new Gson();
-      response.setContentType("application/json;");
-      response.getWriter().println(gson.toJson(users));
+      String zipcode = null;
+      String country = null;
+
+      // Uses the board of the neighborhood for the nearby neighbors board
+      if (request.getParameterMap().containsKey("zipcode")
+          && request.getParameterMap().containsKey("country")) {
+        zipcode = request.getParameter("zipcode");
+        country = request.getParameter("country");
+      }
+      Leaderboard.Board board = Leaderboard.getBoard(country, zipcode);
+
+      // The current user is marked on the board, so they are part of the ETag
+      String userId =
+          userService.isUserLoggedIn() ? userService.getCurrentUser().getUserId() : null;
+      String etag =
+          ETags.weak(
+              board.getStamp() + "-" + Integer.toHexString(Objects.hash(userId, country, zipcode)));
+      if (ETags.notModified(request, response, etag)) {
+        return;
+      }
+
+      Json.write(response, retrieveTopTenUsers(board, userId));
       return;
     }
 
@@ -64,11 +77,9 @@ public class UserInfoServlet extends HttpServlet {
       return;
     }
 
-    Key userEntityKey = KeyFactory.createKey("UserInfo", userService.getCurrentUser().getUserId());
-    Entity entity;
-    try {
-      entity = datastore.get(userEntityKey);
-    } catch (EntityNotFoundException e) {
+    UserProfileCache.Profile profile =
+        UserProfileCache.get(userService.getCurrentUser().getUserId());
+    if (profile == null) {
       System.err.println("Unable to find the UserInfo entity based on the current user id");
       response.sendError(
           HttpServletResponse.SC_NOT_FOUND, "The requested user info could not be found");
@@ -76,15 +87,12 @@ public class UserInfoServlet extends HttpServlet {
     }
 
     List<String> result = new ArrayList<>();
-    result.add((String) entity.getProperty("nickname"));
-    result.add((String) entity.getProperty("address"));
-    result.add((String) entity.getProperty("zipcode"));
-    result.add((String) entity.getProperty("country"));
-
-    Gson gson = new Gson();
-    String json = gson.toJson(result);
-    response.setContentType("application/json;");
-    response.getWriter().println(json);
+    result.add(profile.getNickname());
+    result.add(profile.getAddress());
+    result.add(profile.getZipcode());
+    result.add(profile.getCountry());
+
+    Json.write(response, result);
   }
 
   @Override
@@ -127,15 +135,14 @@ public class UserInfoServlet extends HttpServlet {
       return;
     }
 
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Key userEntityKey = KeyFactory.createKey("UserInfo", userId);
-    Entity entity = null;
-    try {
-      entity = datastore.get(userEntityKey);
-    } catch (EntityNotFoundException e) {
+    Entity entity = Repositories.users().get(userId);
+    if (entity == null) {
       System.out.println("UserInfo entity does not exist. Creating a new one...");
     }
 
+    boolean nicknameChanged = false;
+    String oldCountry = null;
+    String oldZipcode = null;
     if (entity == null) {
       entity = new Entity("UserInfo", userId);
       entity.setProperty("nickname", nickname);
@@ -147,6 +154,9 @@ public class UserInfoServlet extends HttpServlet {
       entity.setProperty("lng", lng);
       entity.setProperty("points", 0);
     } else {
+      nicknameChanged = !nickname.equals(entity.getProperty("nickname"));
+      oldCountry = (String) entity.getProperty("country");
+      oldZipcode = (String) entity.getProperty("zipcode");
       entity.setProperty("nickname", nickname);
       entity.setProperty("address", address);
       entity.setProperty("country", country);
@@ -158,7 +168,14 @@ public class UserInfoServlet extends HttpServlet {
       syncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
       syncCache.put(userId, nickname);
     }
-    datastore.put(entity);
+    Repositories.users().put(entity);
+    UserProfileCache.invalidate(userId);
+    Leaderboard.updateUser(entity, oldCountry, oldZipcode);
+
+    // Rewrites the nickname stored on the user's tasks in the background
+    if (nicknameChanged) {
+      NicknameUpdateServlet.enqueue(userId);
+    }
 
     // If task details were forwarded, then forward this request back to /tasks
     if (request.getParameterMap().containsKey("task-overview-input")) {
@@ -169,31 +186,12 @@ public class UserInfoServlet extends HttpServlet {
     response.sendRedirect("/user_profile.jsp");
   }
 
-  private List<User> retrieveTopTenUsers(
-      HttpServletRequest request, UserService userService, DatastoreService datastore) {
-
-    Query query = new Query("UserInfo").addSort("points", SortDirection.DESCENDING);
-
-    // Adds additional filters for the nearby neighbors board
-    if (request.getParameterMap().containsKey("zipcode")
-        && request.getParameterMap().containsKey("country")) {
-      String zipcode = request.getParameter("zipcode");
-      String country = request.getParameter("country");
-      List<Query.Filter> filters = new ArrayList<Query.Filter>();
-      filters.add(new Query.FilterPredicate("zipcode", Query.FilterOperator.EQUAL, zipcode));
-      filters.add(new Query.FilterPredicate("country", Query.FilterOperator.EQUAL, country));
-      query.setFilter(new Query.CompositeFilter(Query.CompositeFilterOperator.AND, filters));
-    }
-
-    // Gathers the top 10 results
-    List<Entity> results = datastore.prepare(query).asList(FetchOptions.Builder.withLimit(10));
-
+  private List<User> retrieveTopTenUsers(Leaderboard.Board board, String currentUserId) {
     List<User> users = new ArrayList<>();
 
-    for (Entity entity : results) {
+    for (Entity entity : board.getTopUsers()) {
       User user = new User(entity);
-      if (userService.isUserLoggedIn()
-          && user.getUserId().equals(userService.getCurrentUser().getUserId())) {
+      if (user.getUserId().equals(currentUserId)) {
         user.setCurrentUser();
       }
       users.add(user);
@@ -17,7 +17,8 @@
 var map, infoWindow;
 var styledMapType;
 var mapKey = config.MAPS_KEY;
-var userTasksArray;
+var userTasksArray = [];
+var nextTasksPageToken = null;
 
 load(`https://maps.googleapis.com/maps/api/js?key=${mapKey}`); // Add maps API to html
 
@@ -25,7 +26,7 @@ google.charts.load("current", { packages: ["line"] });
 
 google.charts.setOnLoadCallback(drawChart);
 window.addEventListener("load", drawMap);
-window.addEventListener("load", getUserTasks());
+window.addEventListener("load", () => getUserTasks());
 window.addEventListener("resize", drawChart);
 
 function drawChart() {
@@ -185,16 +186,60 @@ function load(file) {
 	document.getElementsByTagName("head")[0].appendChild(src);
 }
 
+/* Lists the first page of the user tasks matching the filters, replacing the current list */
 function getUserTasks() {
-	fetch("/admin-user-tasks")
+	userTasksArray = [];
+	document.getElementById("user-tasks").innerHTML = "";
+	fetchUserTasks(null);
+}
+
+/* Adds the next page of the user tasks matching the filters to the list */
+function loadMoreTasks() {
+	if (nextTasksPageToken !== null) {
+		fetchUserTasks(nextTasksPageToken);
+	}
+}
+
+function fetchUserTasks(pageToken) {
+	const params = new URLSearchParams();
+	const filters = {
+		status: "status-filter",
+		category: "category-filter",
+		country: "country-filter",
+		zipcode: "zipcode-filter",
+	};
+	for (const [param, id] of Object.entries(filters)) {
+		const value = document.getElementById(id).value.trim();
+		if (value !== "") {
+			params.append(param, value);
+		}
+	}
+	// The time range is sent in milliseconds, and includes the whole day it ends on
+	const from = document.getElementById("from-filter").valueAsNumber;
+	if (!isNaN(from)) {
+		params.append("from", from);
+	}
+	const to = document.getElementById("to-filter").valueAsNumber;
+	if (!isNaN(to)) {
+		params.append("to", to + 24 * 60 * 60 * 1000 - 1);
+	}
+	if (pageToken !== null) {
+		params.append("pageToken", pageToken);
+	}
+
+	const loadMoreButton = document.getElementById("load-more-tasks");
+	loadMoreButton.disabled = true;
+	fetch("/admin-user-tasks?" + params.toString())
 		.then((response) => response.json())
-		.then((tasks) => {
-			console.log(tasks);
-			userTasksArray = tasks;
+		.then((taskGroup) => {
+			userTasksArray = userTasksArray.concat(taskGroup.tasks);
 			let taskSection = document.getElementById("user-tasks");
-			for (userTask of tasks) {
+			for (userTask of taskGroup.tasks) {
 				taskSection.innerHTML += addTask(userTask);
 			}
+			nextTasksPageToken = taskGroup.endOfQuery ? null : taskGroup.nextPageToken;
+			loadMoreButton.style.display = nextTasksPageToken === null ? "none" : "block";
+			loadMoreButton.disabled = false;
 		});
 }
 
@@ -197,7 +197,7 @@ function switchToList() {
 function loadMoreTasks() {
     if (userNeighborhoodIsKnown()) {
         if (!taskGroup.endOfQuery) {
-            fetchTasks(currentCategory, "end")
+            fetchTasks(currentCategory, taskGroup.nextPageToken)
                 .then(response => {
                         taskGroup = response;
                         displayTasks(true);
@@ -219,7 +219,7 @@ function filterTasksBy(category) {
 
     // only fetches tasks if user's location has been retrieved
     if (userNeighborhoodIsKnown()) {
-        fetchTasks(currentCategory, "clear")
+        fetchTasks(currentCategory)
             .then(response => {
                     taskGroup = response;
                     displayTasks();
@@ -498,7 +498,7 @@ function getTasksForUserLocation() {
 // Helper function that calls the end of the initialize functions
 function callEndOfInitFunctions() {
     toNeighborhood(userLocation)
-        .then(() => fetchTasks(currentCategory, "clear"))
+        .then(() => fetchTasks(currentCategory))
         .then(response => {
                 taskGroup = response;
                 map.setCenter(userLocation);
@@ -520,7 +520,7 @@ function SearchNeighborhoodMapControl(controlNode) {
     controlNode.appendChild(controlUI);
     // adds click event listener to search by the new neighborhood area
     controlUI.addEventListener("click", function() {
-        fetchTasks(currentCategory, "clear")
+        fetchTasks(currentCategory)
             .then(response => {
                     taskGroup = response;
                     displayTasks();
@@ -598,14 +598,17 @@ function toNeighborhood(latlng) {
     });
 }
 
-/* Fetches tasks from servlet by category and cursor action.
-   Cursor can pick up from the last start, the endpoint, or clear
-   the cursor and start from beginning of query */
-function fetchTasks(category, cursorAction) {
-    let url = "/tasks?zipcode=" + neighborhood[0]+ "&country=" + neighborhood[1] +"&cursor=" + cursorAction;
+/* Fetches tasks from servlet by category and page token.
+   Without a page token, tasks are fetched from the beginning of the query.
+   Each response holds the nextPageToken and prevPageToken of the pages around it */
+function fetchTasks(category, pageToken) {
+    let url = "/tasks?zipcode=" + neighborhood[0]+ "&country=" + neighborhood[1];
     if (category !== undefined && category != "all") {
         url += "&category=" + category;
     }
+    if (pageToken !== undefined && pageToken !== null) {
+        url += "&pageToken=" + encodeURIComponent(pageToken);
+    }
     return fetch(url).then(response => response.json());
 }
 
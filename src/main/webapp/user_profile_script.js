@@ -14,7 +14,12 @@
 
 var markers = [];
 var map;
-var cursorString;
+// Position of the oldest message loaded in the chat box
+var oldestPosition;
+// Incremented whenever a chat is opened or closed, so that older polls stop
+var pollGeneration = 0;
+// How long to wait between two polls for new chat messages
+const POLL_INTERVAL_MILLIS = 3000;
 const GOOGLE_KIRKLAND_LAT = 47.669846;
 const GOOGLE_KIRKLAND_LNG = -122.1996099;
 const MAPSKEY = config.MAPS_KEY;
@@ -105,7 +110,7 @@ async function loadMessages(keyString) {
     const response = await fetch(request);
     const result = await response.json();
     const msgResponse = result.messages;
-    cursorString = result.cursorString;
+    oldestPosition = result.oldest;
 
     const msgContainer = document.getElementById("message-container");
     msgContainer.innerHTML = "";
@@ -141,17 +146,58 @@ async function loadMessages(keyString) {
 
     // Keep message container scrolled to bottom at the beginning
     msgContainer.scrollTop = msgContainer.scrollHeight;
+
+    // Poll for the messages sent after the latest one loaded
+    pollMessages(keyString, result.newest, ++pollGeneration);
+}
+
+// pollMessages(keyString, after, generation) keeps polling for the messages of the
+// task with keyString sent after the position after, and appends them to the chat box
+// until another chat is opened or the chat box is closed. Polls that find nothing new
+// are answered with a 304, so they are cheap to repeat.
+async function pollMessages(keyString, after, generation) {
+    while (generation === pollGeneration) {
+        await new Promise(resolve => setTimeout(resolve, POLL_INTERVAL_MILLIS));
+        if (generation !== pollGeneration) return;
+
+        let queryURL = "/messages?key=" + keyString;
+        if (after) queryURL += "&after=" + encodeURIComponent(after);
+        let result;
+        try {
+            const response = await fetch(new Request(queryURL, {method: "GET"}));
+            result = await response.json();
+        } catch (error) {
+            // Poll again later if the request failed
+            continue;
+        }
+        if (generation !== pollGeneration) return;
+
+        after = result.newest;
+        // The messages come newest first
+        const msgResponse = result.messages;
+        const msgContainer = document.getElementById("message-container");
+        for (var index = msgResponse.length - 1; index >= 0; index--) {
+            var msg = msgResponse[index];
+            // Messages sent by the user are already shown by sendMessage
+            if (msg.className === "sentByMe") continue;
+            var newMessage = document.createElement("div");
+            newMessage.className = msg.className;
+            newMessage.appendChild(document.createTextNode(msg.message));
+            msgContainer.appendChild(newMessage);
+            msgContainer.scrollTop = msgContainer.scrollHeight;
+        }
+    }
 }
 
 // loadMoreMessages(key, messageDiv) will load 10 more messages of
 // task with keyString equals to key. After loading, scroll to element messageDiv
 async function loadMoreMessages(key, messageDiv) {
-    const queryURL = "/messages?key=" + key + "&cursor=" + cursorString;
+    const queryURL = "/messages?key=" + key + "&before=" + encodeURIComponent(oldestPosition);
     const request = new Request(queryURL, {method: "GET"});
     const response = await fetch(request);
     const result = await response.json();
     const msgResponse = result.messages;
-    cursorString = result.cursorString;
+    oldestPosition = result.oldest;
 
     const msgContainer = document.getElementById("message-container");
     msgContainer.removeChild(msgContainer.childNodes[0]);
@@ -377,6 +423,7 @@ function closeInfoModal() {
 function closeTaskInfoModal() {
     var modal = document.getElementById("taskInfoModalWrapper");
     modal.style.display = "none";
+    pollGeneration++;
 }
 
 // If the user clicks outside of the modal, closes the modal directly
@@ -386,6 +433,7 @@ window.onclick = function(event) {
         var modal = document.getElementById(wrapperId[i]);
         if (event.target == modal) {
             modal.style.display = "none";
+            if (wrapperId[i] === "taskInfoModalWrapper") pollGeneration++;
         }
     }
 }
@@ -16,7 +16,10 @@ package com.google.neighborgood.servlets;
 
 import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 import com.google.appengine.api.datastore.DatastoreService;
@@ -32,6 +35,9 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import java.io.*;
 import javax.servlet.http.*;
 import org.junit.After;
@@ -220,4 +226,131 @@ public final class AdminPageTest {
     writer.flush();
     assertEquals(stringWriter.toString(), "Please enter a valid integer in the range of 0-200\n");
   }
+
+  private Entity addTask(long timestamp, String status, String zipcode) {
+    Entity task = new Entity("Task", userEntity.getKey());
+    task.setProperty("detail", "Task created at " + timestamp);
+    task.setProperty("timestamp", timestamp);
+    task.setProperty("reward", 50);
+    task.setProperty("status", status);
+    task.setProperty("Owner", "1234567890");
+    task.setProperty("Helper", "N/A");
+    task.setProperty("zipcode", zipcode);
+    task.setProperty("country", "US");
+    task.setProperty("category", "misc");
+    ds.put(task);
+    return task;
+  }
+
+  private JsonObject getTaskPage() throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new AdminPage().doGet(request, response);
+    writer.flush();
+    return new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+  }
+
+  @Test
+  public void paginatedDoGetTest() throws IOException {
+    for (long i = 1; i <= 24; i++) {
+      addTask(20000000 + i, "OPEN", "80017");
+    }
+
+    // 25 tasks in pages of 10 make two full pages and a last page of 5 tasks
+    when(request.getParameter("page-size")).thenReturn("10");
+    JsonObject page = getTaskPage();
+    JsonArray tasks = page.get("tasks").getAsJsonArray();
+    assertEquals(10, tasks.size());
+    assertEquals(
+        "Task created at 20000024", tasks.get(0).getAsJsonObject().get("detail").getAsString());
+    assertFalse(page.get("endOfQuery").getAsBoolean());
+
+    when(request.getParameter("pageToken")).thenReturn(page.get("nextPageToken").getAsString());
+    page = getTaskPage();
+    assertEquals(10, page.get("tasks").getAsJsonArray().size());
+    assertEquals(
+        "Task created at 20000014",
+        page.get("tasks").getAsJsonArray().get(0).getAsJsonObject().get("detail").getAsString());
+
+    when(request.getParameter("pageToken")).thenReturn(page.get("nextPageToken").getAsString());
+    page = getTaskPage();
+    assertEquals(5, page.get("tasks").getAsJsonArray().size());
+    assertTrue(page.get("endOfQuery").getAsBoolean());
+    assertNull(page.get("nextPageToken"));
+    assertNotNull(page.get("prevPageToken"));
+  }
+
+  @Test
+  public void tamperedPageTokenDoGetTest() throws IOException {
+    for (long i = 1; i <= 12; i++) {
+      addTask(20000000 + i, "OPEN", "80017");
+    }
+    String token = getTaskPage().get("nextPageToken").getAsString();
+
+    // A token whose cursors were changed no longer matches its signature
+    String[] parts = token.split("\\.");
+    String tampered = parts[0].substring(0, parts[0].length() - 2) + "AA." + parts[1];
+    when(request.getParameter("pageToken")).thenReturn(tampered);
+    System.setErr(new PrintStream(new ByteArrayOutputStream()));
+    try {
+      new AdminPage().doGet(request, response);
+    } finally {
+      System.setErr(originalErr);
+    }
+    verify(response).sendError(400, "Invalid page size or page token");
+  }
+
+  @Test
+  public void filteredDoGetTest() throws IOException {
+    addTask(20000001, "OPEN", "80017");
+    addTask(20000002, "OPEN", "98033");
+    addTask(20000003, "COMPLETE", "80017");
+    addTask(20000004, "OPEN", "80017");
+
+    when(request.getParameter("status")).thenReturn("OPEN");
+    when(request.getParameter("zipcode")).thenReturn("80017");
+    assertEquals(2, getTaskPage().get("tasks").getAsJsonArray().size());
+
+    // Only the first open task in 80017 was created within the time range
+    when(request.getParameter("from")).thenReturn("20000000");
+    when(request.getParameter("to")).thenReturn("20000003");
+    JsonArray tasks = getTaskPage().get("tasks").getAsJsonArray();
+    assertEquals(1, tasks.size());
+    assertEquals(
+        "Task created at 20000001", tasks.get(0).getAsJsonObject().get("detail").getAsString());
+  }
+
+  @Test
+  public void invalidPageSizeDoGetTest() throws IOException {
+    when(request.getParameter("page-size")).thenReturn("1000");
+    new AdminPage().doGet(request, response);
+    verify(response).sendError(400, "Invalid page size or page token");
+
+    when(request.getParameter("page-size")).thenReturn("10");
+    when(request.getParameter("from")).thenReturn("yesterday");
+    new AdminPage().doGet(request, response);
+    verify(response).sendError(400, "Invalid task filter");
+  }
+
+  @Test
+  public void exportDoGetTest() throws IOException {
+    for (long i = 1; i <= 249; i++) {
+      addTask(20000000 + i, "OPEN", "80017");
+    }
+
+    // Every task is exported, across several chunks, as a single array
+    when(request.getParameter("export")).thenReturn("true");
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new AdminPage().doGet(request, response);
+    writer.flush();
+    JsonArray tasks = new JsonParser().parse(stringWriter.toString()).getAsJsonArray();
+    assertEquals(250, tasks.size());
+    assertEquals("Denzil", tasks.get(0).getAsJsonObject().get("owner").getAsString());
+    verify(response).setHeader("Content-Disposition", "attachment; filename=\"tasks.json\"");
+  }
 }
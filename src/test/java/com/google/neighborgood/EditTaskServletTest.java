@@ -23,13 +23,16 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.neighborgood.helper.UnreadCounter;
 import java.io.*;
 import java.util.HashMap;
 import java.util.Map;
@@ -174,6 +177,31 @@ public final class EditTaskServletTest {
     openEntity = ds.get(KeyFactory.stringToKey(openKeyString));
     assertEquals("IN PROGRESS", (String) openEntity.getProperty("status"));
     assertEquals("1234567890", (String) openEntity.getProperty("Helper"));
+    assertEquals("Leonard", (String) openEntity.getProperty("helperNickname"));
+  }
+
+  @Test
+  public void helpOutClaimsPendingMessagesTest() throws IOException {
+    // The owner sends 2 messages before the task has a helper
+    for (int i = 0; i < 2; i++) {
+      UnreadCounter.incrementPending(openEntity.getKey());
+    }
+    assertTrue(UnreadCounter.getCounts("1234567890").isEmpty());
+
+    when(request.getParameter("task-id")).thenReturn(openKeyString);
+    when(request.getParameter("action")).thenReturn("helpout");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("action", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    new EditTaskServlet().doPost(request, response);
+
+    // The helper who claimed the task has both messages to read
+    assertEquals(ImmutableMap.of(openKeyString, 2L), UnreadCounter.getCounts("1234567890"));
+    assertEquals(
+        0,
+        ds.prepare(new Query("UnreadCount").setAncestor(openEntity.getKey()))
+            .countEntities(FetchOptions.Builder.withDefaults()));
   }
 
   @Test
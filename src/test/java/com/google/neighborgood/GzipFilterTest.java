@@ -0,0 +1,154 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the GzipFilter file */
+@RunWith(JUnit4.class)
+public final class GzipFilterTest {
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private ByteArrayOutputStream body;
+  private WriteListener writeListener;
+
+  @Before
+  public void setUp() throws IOException {
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    body = new ByteArrayOutputStream();
+    when(response.getCharacterEncoding()).thenReturn("UTF-8");
+    when(response.getOutputStream())
+        .thenReturn(
+            new ServletOutputStream() {
+              @Override
+              public void write(int b) {
+                body.write(b);
+              }
+
+              @Override
+              public boolean isReady() {
+                return true;
+              }
+
+              @Override
+              public void setWriteListener(WriteListener listener) {
+                writeListener = listener;
+              }
+            });
+  }
+
+  private static String getJson(int tasks) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < tasks; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"overview\":\"Test task ").append(i).append("\"}");
+    }
+    return json.append("]").toString();
+  }
+
+  private void doFilter(String json) throws Exception {
+    FilterChain chain =
+        (filterRequest, filterResponse) -> {
+          filterResponse.setContentType("application/json;");
+          filterResponse.getWriter().print(json.substring(0, json.length() / 2));
+          // Flushing before the size is known doesn't send anything yet
+          filterResponse.getWriter().flush();
+          filterResponse.getWriter().print(json.substring(json.length() / 2));
+        };
+    new GzipFilter().doFilter(request, response, chain);
+  }
+
+  @Test
+  public void largeResponseIsGzippedTest() throws Exception {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip, deflate, br");
+    String json = getJson(100);
+    doFilter(json);
+
+    verify(response).setHeader("Content-Encoding", "gzip");
+    verify(response).addHeader("Vary", "Accept-Encoding");
+    InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()));
+    ByteArrayOutputStream unzipped = new ByteArrayOutputStream();
+    byte[] bytes = new byte[4096];
+    for (int read = gzip.read(bytes); read != -1; read = gzip.read(bytes)) {
+      unzipped.write(bytes, 0, read);
+    }
+    assertEquals(json, new String(unzipped.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void smallResponseIsNotGzippedTest() throws Exception {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+    String json = getJson(2);
+    doFilter(json);
+
+    verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+    verify(response).setContentLength(json.length());
+    assertEquals(json, new String(body.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void writeListenerIsDelegatedTest() throws Exception {
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip");
+    WriteListener listener = mock(WriteListener.class);
+    FilterChain chain =
+        (filterRequest, filterResponse) -> {
+          ServletOutputStream out = filterResponse.getOutputStream();
+          out.setWriteListener(listener);
+          assertTrue(out.isReady());
+        };
+    new GzipFilter().doFilter(request, response, chain);
+
+    // Non-blocking writes are left to the wrapped stream
+    assertSame(listener, writeListener);
+  }
+
+  @Test
+  public void gzipNotAcceptedTest() throws Exception {
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+    String json = getJson(100);
+
+    // Without the header, and with gzip explicitly refused, the response is left as it is
+    doFilter(json);
+    when(request.getHeader("Accept-Encoding")).thenReturn("gzip;q=0, deflate");
+    doFilter(json);
+
+    verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+    writer.flush();
+    assertEquals(json + json, stringWriter.toString());
+  }
+}
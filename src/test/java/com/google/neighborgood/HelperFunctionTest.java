@@ -18,6 +18,7 @@ import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
 import com.google.appengine.api.datastore.DatastoreService;
@@ -29,9 +30,19 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.neighborgood.data.Message;
+import com.google.neighborgood.data.MessageResponse;
+import com.google.neighborgood.data.Notification;
+import com.google.neighborgood.data.TaskCluster;
+import com.google.neighborgood.data.User;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import javax.servlet.http.*;
 import org.junit.Before;
 import org.junit.Test;
@@ -66,6 +77,7 @@ public final class HelperFunctionTest {
   @Before
   public void setUp() {
     helper.setUp();
+    UserProfileCache.clearLocal();
     userService = UserServiceFactory.getUserService();
     ds = DatastoreServiceFactory.getDatastoreService();
     request = mock(HttpServletRequest.class);
@@ -153,4 +165,113 @@ public final class HelperFunctionTest {
     errContent.reset();
     System.setErr(originalErr);
   }
+
+  @Test
+  public void taskAssemblerTest() {
+    Entity helperEntity = new Entity("UserInfo", "0987654321");
+    helperEntity.setProperty("nickname", "Mike");
+    ds.put(helperEntity);
+
+    // The first task has a stored helper, the second one is still open, and the third one has a
+    // helper without a UserInfo entity
+    String[] helperIds = {"0987654321", "N/A", "5555555555"};
+    List<Entity> entities = new ArrayList<>();
+    for (int i = 0; i < helperIds.length; i++) {
+      Entity taskEntity = new Entity("Task", userEntity.getKey());
+      taskEntity.setProperty("detail", "Test task detail");
+      taskEntity.setProperty("overview", "Test task overview" + i);
+      taskEntity.setProperty("timestamp", System.currentTimeMillis());
+      taskEntity.setProperty("reward", (long) 50);
+      taskEntity.setProperty("status", helperIds[i].equals("N/A") ? "OPEN" : "IN PROGRESS");
+      taskEntity.setProperty("Owner", "1234567890");
+      taskEntity.setProperty("Helper", helperIds[i]);
+      taskEntity.setProperty("Address", "xxx");
+      taskEntity.setProperty("zipcode", "98033");
+      taskEntity.setProperty("country", "United States");
+      taskEntity.setProperty("category", "Garden");
+      ds.put(taskEntity);
+      entities.add(taskEntity);
+    }
+
+    JsonArray tasks = new Gson().toJsonTree(TaskAssembler.assemble(entities)).getAsJsonArray();
+    assertEquals(3, tasks.size());
+    for (int i = 0; i < 3; i++) {
+      JsonObject task = tasks.get(i).getAsJsonObject();
+      assertEquals("Test task overview" + i, task.get("overview").getAsString());
+      assertEquals("Leonard", task.get("owner").getAsString());
+      assertEquals(true, task.get("isOwnerCurrentUser").getAsBoolean());
+    }
+    assertEquals("Mike", tasks.get(0).getAsJsonObject().get("helper").getAsString());
+    assertEquals("N/A", tasks.get(1).getAsJsonObject().get("helper").getAsString());
+    assertEquals("5555555555", tasks.get(2).getAsJsonObject().get("helper").getAsString());
+  }
+
+  @Test
+  public void geohashTest() {
+    // Well known geohash of a location in Denmark
+    assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+
+    List<String> expected = new ArrayList<>();
+    expected.add("u");
+    expected.add("u4");
+    expected.add("u4p");
+    expected.add("u4pr");
+    expected.add("u4pru");
+    expected.add("u4pruy");
+    assertThat(Geohash.getPrefixes(57.64911, 10.40744), is(expected));
+
+    // The covering cells must include the cell of the center and the cells of points on the edge
+    // of the radius, while staying few
+    Set<String> cells = Geohash.getCoveringCells(47.6744, -122.1758, 2);
+    assertTrue(cells.size() <= 12);
+    int precision = cells.iterator().next().length();
+    assertTrue(cells.contains(Geohash.encode(47.6744, -122.1758, precision)));
+    assertTrue(cells.contains(Geohash.encode(47.6924, -122.1758, precision)));
+    assertTrue(cells.contains(Geohash.encode(47.6744, -122.2024, precision)));
+
+    // Distance between Seattle and Kirkland is about 12km
+    double distance = Geohash.distanceKm(47.6062, -122.3321, 47.6769, -122.2060);
+    assertTrue(distance > 11 && distance < 13);
+  }
+
+  @Test
+  public void jsonAdaptersTest() {
+    // The hand-written adapters must write the same JSON as Gson's reflection did
+    Gson reflective = new Gson();
+
+    Entity taskEntity = new Entity("Task", userEntity.getKey());
+    taskEntity.setProperty("detail", "Test task detail");
+    taskEntity.setProperty("overview", "Test task overview");
+    taskEntity.setProperty("timestamp", 1592503000000L);
+    taskEntity.setProperty("reward", (long) 50);
+    taskEntity.setProperty("status", "OPEN");
+    taskEntity.setProperty("Owner", "1234567890");
+    taskEntity.setProperty("Helper", "N/A");
+    taskEntity.setProperty("Address", "xxx");
+    taskEntity.setProperty("zipcode", "98033");
+    taskEntity.setProperty("country", "United States");
+    taskEntity.setProperty("category", "Garden");
+    taskEntity.setProperty("lat", 47.6912892);
+    ds.put(taskEntity);
+
+    TaskGroup taskGroup = new TaskGroup();
+    taskGroup.addTasks(Arrays.asList(taskEntity, taskEntity));
+    taskGroup.setNextPageToken("next");
+    assertEquals(reflective.toJson(taskGroup), Json.GSON.toJson(taskGroup));
+
+    userEntity.setProperty("points", 20L);
+    User user = new User(userEntity);
+    user.setCurrentUser();
+    assertEquals(reflective.toJson(user), Json.GSON.toJson(user));
+
+    List<Message> messages = Arrays.asList(new Message("Hi \"there\"", "sentByMe", 10L));
+    MessageResponse messageResponse = new MessageResponse(null, "10.key", null, messages);
+    assertEquals(reflective.toJson(messageResponse), Json.GSON.toJson(messageResponse));
+
+    Notification notification = new Notification("key", "Test task overview", 3);
+    assertEquals(reflective.toJson(notification), Json.GSON.toJson(notification));
+
+    TaskCluster cluster = new TaskCluster("c23p5", Arrays.asList(taskEntity, taskEntity));
+    assertEquals(reflective.toJson(cluster), Json.GSON.toJson(cluster));
+  }
 }
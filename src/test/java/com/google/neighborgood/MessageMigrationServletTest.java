@@ -0,0 +1,141 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.io.*;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the MessageMigrationServlet file */
+@RunWith(JUnit4.class)
+public final class MessageMigrationServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+  private final PrintStream originalOut = System.out;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    System.setOut(new PrintStream(outContent));
+  }
+
+  @After
+  public void tearDown() {
+    System.setOut(originalOut);
+    helper.tearDown();
+  }
+
+  private void addLegacyMessages(String taskId, int count) {
+    for (int i = 0; i < count; i++) {
+      Entity message = new Entity("Message");
+      message.setProperty("message", "Message " + i);
+      message.setProperty("taskId", taskId);
+      message.setProperty("sender", "1234567890");
+      message.setProperty("sentTime", (long) i);
+      ds.put(message);
+    }
+  }
+
+  private List<Entity> getMessages(Key taskKey) {
+    Query query =
+        new Query("Message").setAncestor(taskKey).addSort("sentTime", SortDirection.ASCENDING);
+    return ds.prepare(query).asList(withDefaults());
+  }
+
+  @Test
+  public void doGetEnqueuesMigrationTest() throws IOException {
+    new MessageMigrationServlet().doGet(request, response);
+
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(1, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+
+  @Test
+  public void migrateMessagesTest() throws IOException {
+    Entity task = new Entity("Task");
+    ds.put(task);
+    Entity deletedTask = new Entity("Task");
+    ds.put(deletedTask);
+    ds.delete(deletedTask.getKey());
+    String taskId = KeyFactory.keyToString(task.getKey());
+
+    addLegacyMessages(taskId, 3);
+    addLegacyMessages(KeyFactory.keyToString(deletedTask.getKey()), 2);
+    addLegacyMessages("not a task key", 1);
+
+    // A message that was already sent to the task's entity group
+    Entity message = new Entity("Message", task.getKey());
+    message.setUnindexedProperty("taskId", taskId);
+    message.setProperty("sentTime", 3L);
+    ds.put(message);
+
+    new MessageMigrationServlet().doPost(request, response);
+
+    // The messages of the existing task are moved under it and the orphaned ones are deleted
+    List<Entity> messages = getMessages(task.getKey());
+    assertEquals(4, messages.size());
+    assertEquals(4, ds.prepare(new Query("Message")).countEntities(withDefaults()));
+    for (int i = 0; i < 3; i++) {
+      Entity movedMessage = messages.get(i);
+      assertEquals("Message " + i, movedMessage.getProperty("message"));
+      assertEquals(taskId, movedMessage.getProperty("taskId"));
+      assertEquals("1234567890", movedMessage.getProperty("sender"));
+      assertEquals((long) i, movedMessage.getProperty("sentTime"));
+      assertFalse(movedMessage.isUnindexedProperty("sentTime"));
+      assertTrue(movedMessage.isUnindexedProperty("taskId"));
+    }
+
+    // Running the migration again changes nothing
+    new MessageMigrationServlet().doPost(request, response);
+    assertEquals(4, ds.prepare(new Query("Message")).countEntities(withDefaults()));
+
+    // A batch that isn't full doesn't enqueue another one
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(0, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+}
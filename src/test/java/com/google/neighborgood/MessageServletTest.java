@@ -26,19 +26,35 @@ import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
+import com.google.apphosting.api.ApiProxy;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.neighborgood.helper.TaskParticipants;
+import com.google.neighborgood.helper.UnreadCounter;
 import java.io.*;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import javax.servlet.http.*;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 /** Unit test on the MessageServlet file */
 @RunWith(JUnit4.class)
@@ -49,7 +65,10 @@ public final class MessageServletTest {
    */
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
           .setEnvIsAdmin(true)
           .setEnvIsLoggedIn(true)
           .setEnvEmail("leo@xxx.com")
@@ -107,6 +126,22 @@ public final class MessageServletTest {
     helper.tearDown();
   }
 
+  /** Runs the queued jobs that count the sent messages, then returns the counts of the receiver */
+  private Map<String, Long> getCounts(String receiver) throws IOException {
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    for (TaskStateInfo task : taskQueue.getQueueStateInfo().get("default").getTaskInfo()) {
+      HttpServletRequest jobRequest = mock(HttpServletRequest.class);
+      for (String param : task.getBody().split("&")) {
+        String[] parts = param.split("=", 2);
+        when(jobRequest.getParameter(URLDecoder.decode(parts[0], "UTF-8")))
+            .thenReturn(URLDecoder.decode(parts[1], "UTF-8"));
+      }
+      new UnreadCountServlet().doPost(jobRequest, mock(HttpServletResponse.class));
+      taskQueue.deleteTask("default", task.getTaskName());
+    }
+    return UnreadCounter.getCounts(receiver);
+  }
+
   @Test
   public void testEnvironmentTest() {
     // Test the UserService feature
@@ -143,17 +178,11 @@ public final class MessageServletTest {
     assertEquals(keyString, (String) entity.getProperty("taskId"));
     assertEquals("1234567890", (String) entity.getProperty("sender"));
 
-    // Also, there should be one corresponding notification entity created
-    assertEquals(1, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
-    results = ds.prepare(new Query("Notification"));
-    entity = results.asSingleEntity();
-
-    // The entity can't be null
-    assertNotNull(entity);
+    // The message is stored in the entity group of its task
+    assertEquals(taskEntity.getKey(), entity.getParent());
 
-    // Test the stored notification information
-    assertEquals(keyString, (String) entity.getProperty("taskId"));
-    assertEquals("1234567890", (String) entity.getProperty("receiver"));
+    // Also, the receiver should have one unread message on the task
+    assertEquals(ImmutableMap.of(keyString, 1L), getCounts("1234567890"));
   }
 
   @Test
@@ -169,7 +198,7 @@ public final class MessageServletTest {
       new MessageServlet().doPost(request, response);
 
       assertEquals(i, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
-      assertEquals(i, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+      assertEquals((long) i, (long) getCounts("1234567890").get(keyString));
     }
   }
 
@@ -186,7 +215,7 @@ public final class MessageServletTest {
     // This will lead to the first error handling clause of the doPost function of MessageServlet
     assertEquals("The task id is not included\n", errContent.toString());
     assertEquals(0, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
-    assertEquals(0, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+    assertTrue(getCounts("1234567890").isEmpty());
 
     errContent.reset();
     System.setErr(originalErr);
@@ -201,7 +230,7 @@ public final class MessageServletTest {
     // This will lead to the second error handling clause of doPost() in MessageServlet
     assertEquals("The message is not provided\n", errContent.toString());
     assertEquals(0, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
-    assertEquals(0, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+    assertTrue(getCounts("1234567890").isEmpty());
 
     errContent.reset();
     System.setErr(originalErr);
@@ -215,7 +244,7 @@ public final class MessageServletTest {
     // This will lead to the second error handling clause of doPost() in MessageServlet
     assertEquals("The input message is empty\n", errContent.toString());
     assertEquals(0, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
-    assertEquals(0, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+    assertTrue(getCounts("1234567890").isEmpty());
 
     errContent.reset();
     System.setErr(originalErr);
@@ -238,17 +267,8 @@ public final class MessageServletTest {
     assertEquals(keyString, (String) entity.getProperty("taskId"));
     assertEquals("1234567890", (String) entity.getProperty("sender"));
 
-    // Also, there should be one corresponding notification entity created
-    assertEquals(1, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
-    results = ds.prepare(new Query("Notification"));
-    entity = results.asSingleEntity();
-
-    // The entity can't be null
-    assertNotNull(entity);
-
-    // Test the stored notification information
-    assertEquals(keyString, (String) entity.getProperty("taskId"));
-    assertEquals("1234567890", (String) entity.getProperty("receiver"));
+    // Also, the receiver should have one unread message on the task
+    assertEquals(ImmutableMap.of(keyString, 1L), getCounts("1234567890"));
   }
 
   @Test
@@ -256,22 +276,22 @@ public final class MessageServletTest {
     // Check whether the datastore is empty before the test
     assertEquals(0, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
 
-    Entity dummy = new Entity("Message");
+    Entity dummy = new Entity("Message", taskEntity.getKey());
     dummy.setProperty("message", "Test 1");
-    dummy.setProperty("taskId", "1");
+    dummy.setProperty("taskId", keyString);
     dummy.setProperty("sender", userService.getCurrentUser().getUserId());
     dummy.setProperty("sentTime", 0);
 
-    Entity dummy2 = new Entity("Message");
+    Entity dummy2 = new Entity("Message", taskEntity.getKey());
     dummy2.setProperty("message", "Test 2");
-    dummy2.setProperty("taskId", "1");
+    dummy2.setProperty("taskId", keyString);
     dummy2.setProperty("sender", userService.getCurrentUser().getUserId());
     dummy2.setProperty("sentTime", 5);
 
     ds.put(dummy);
     ds.put(dummy2);
 
-    when(request.getParameter("key")).thenReturn("1");
+    when(request.getParameter("key")).thenReturn(keyString);
 
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
@@ -300,15 +320,15 @@ public final class MessageServletTest {
     // Check whether the datastore is empty before the test
     assertEquals(0, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
 
-    Entity dummy = new Entity("Message");
+    Entity dummy = new Entity("Message", taskEntity.getKey());
     dummy.setProperty("message", "Test 1");
-    dummy.setProperty("taskId", "1");
+    dummy.setProperty("taskId", keyString);
     dummy.setProperty("sender", userService.getCurrentUser().getUserId());
     dummy.setProperty("sentTime", 0);
 
-    Entity dummy2 = new Entity("Message");
+    Entity dummy2 = new Entity("Message", taskEntity.getKey());
     dummy2.setProperty("message", "Test 2");
-    dummy2.setProperty("taskId", "1");
+    dummy2.setProperty("taskId", keyString);
     dummy2.setProperty("sender", userService.getCurrentUser().getUserId());
     dummy2.setProperty("sentTime", 5);
 
@@ -327,4 +347,167 @@ public final class MessageServletTest {
     errContent.reset();
     System.setErr(originalErr);
   }
+
+  /** Adds 12 messages to the task, where messages 2 and 3 were sent at the same time */
+  private void addMessages() {
+    for (int i = 1; i <= 12; i++) {
+      Entity entity = new Entity("Message", taskEntity.getKey());
+      entity.setProperty("message", "Test " + i);
+      entity.setProperty("taskId", keyString);
+      entity.setProperty("sender", userService.getCurrentUser().getUserId());
+      entity.setProperty("sentTime", i == 3 ? 20 : i * 10);
+      ds.put(entity);
+    }
+  }
+
+  /** Sends a GET request with the given parameters and returns the parsed response */
+  private JsonObject get(String after, String before) throws IOException {
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getParameter("after")).thenReturn(after);
+    when(request.getParameter("before")).thenReturn(before);
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+
+    new MessageServlet().doGet(request, response);
+
+    return JsonParser.parseString(stringWriter.toString()).getAsJsonObject();
+  }
+
+  private List<String> getMessages(JsonObject result) {
+    List<String> messages = new ArrayList<>();
+    for (JsonElement message : result.getAsJsonArray("messages")) {
+      messages.add(message.getAsJsonObject().get("message").getAsString());
+    }
+    return messages;
+  }
+
+  @Test
+  public void doGetKeysetPaginationTest() throws IOException {
+    addMessages();
+
+    // The first page holds the 10 latest messages, newest first
+    JsonObject firstPage = get(null, null);
+    List<String> messages = getMessages(firstPage);
+    assertEquals(10, messages.size());
+    assertEquals("Test 12", messages.get(0));
+
+    // The page before it holds the rest, without repeating or skipping the tied messages
+    JsonObject secondPage = get(null, firstPage.get("oldest").getAsString());
+    messages.addAll(getMessages(secondPage));
+    assertEquals(12, messages.size());
+    assertEquals(12, new HashSet<>(messages).size());
+    assertEquals("Test 1", messages.get(11));
+
+    // Only the messages newer than the tied messages are returned after one of them
+    JsonObject delta = get(secondPage.get("newest").getAsString(), null);
+    List<String> newer = getMessages(delta);
+    assertEquals(messages.subList(0, messages.indexOf(newer.get(newer.size() - 1)) + 1), newer);
+    assertEquals(firstPage.get("newest").getAsString(), delta.get("newest").getAsString());
+
+    // Nothing is newer than the latest message
+    assertTrue(getMessages(get(firstPage.get("newest").getAsString(), null)).isEmpty());
+  }
+
+  @Test
+  public void doGetNotModifiedTest() throws IOException {
+    addMessages();
+    get(null, null);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq("ETag"), etag.capture());
+
+    // Polling again with the same ETag returns 304 without a body
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    new MessageServlet().doGet(request, response);
+    verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(response, never()).getWriter();
+
+    // A new message changes the ETag
+    Entity entity = new Entity("Message", taskEntity.getKey());
+    entity.setProperty("message", "Test 13");
+    entity.setProperty("taskId", keyString);
+    entity.setProperty("sender", userService.getCurrentUser().getUserId());
+    entity.setProperty("sentTime", 130);
+    ds.put(entity);
+
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+    new MessageServlet().doGet(request, response);
+    assertTrue(stringWriter.toString().contains("Test 13"));
+  }
+
+  @Test
+  public void doGetETagPerUserTest() throws IOException {
+    addMessages();
+    get(null, null);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq("ETag"), etag.capture());
+
+    // The other participant sees the same messages as sent by others, so they don't match the ETag
+    ApiProxy.getCurrentEnvironment()
+        .getAttributes()
+        .put("com.google.appengine.api.users.UserService.user_id_key", "123456789");
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    StringWriter stringWriter = new StringWriter();
+    when(response.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+    new MessageServlet().doGet(request, response);
+    verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    assertTrue(stringWriter.toString().contains("sentByOthers"));
+  }
+
+  @Test
+  public void doPostUsesCachedParticipantsTest() throws IOException {
+    when(request.getParameter("task-id")).thenReturn(keyString);
+    when(request.getParameter("msg")).thenReturn("Testing message");
+    new MessageServlet().doPost(request, response);
+
+    // The participants of the task are cached, so the task isn't read again
+    taskEntity.setProperty("Owner", "123456789");
+    ds.put(taskEntity);
+    new MessageServlet().doPost(request, response);
+    assertEquals(ImmutableMap.of(keyString, 2L), getCounts("1234567890"));
+
+    // Once they are invalidated, the new owner receives the messages
+    TaskParticipants.invalidate(taskEntity.getKey());
+    new MessageServlet().doPost(request, response);
+    assertEquals(ImmutableMap.of(keyString, 1L), getCounts("123456789"));
+    assertEquals(3, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
+  }
+
+  @Test
+  public void doPostDefersCountTest() throws IOException {
+    when(request.getParameter("task-id")).thenReturn(keyString);
+    when(request.getParameter("msg")).thenReturn("Testing message");
+    new MessageServlet().doPost(request, response);
+
+    // Only the message is written while sending it, and the count is left to the task queue
+    assertEquals(1, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
+    assertTrue(UnreadCounter.getCounts("1234567890").isEmpty());
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(1, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+    assertEquals(ImmutableMap.of(keyString, 1L), getCounts("1234567890"));
+  }
+
+  @Test
+  public void doPostWithoutHelperTest() throws IOException {
+    taskEntity.setProperty("Helper", "N/A");
+    ds.put(taskEntity);
+    when(request.getParameter("task-id")).thenReturn(keyString);
+    when(request.getParameter("msg")).thenReturn("Testing message");
+    new MessageServlet().doPost(request, response);
+
+    // The message is stored right away, and counted for whoever claims the task
+    assertEquals(1, ds.prepare(new Query("Message")).countEntities(withLimit(10)));
+    assertTrue(getCounts("1234567890").isEmpty());
+    Entity pending =
+        ds.prepare(new Query("UnreadCount").setAncestor(taskEntity.getKey())).asSingleEntity();
+    assertEquals(1L, pending.getProperty("count"));
+  }
 }
@@ -30,6 +30,8 @@ import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestC
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
 import java.io.*;
 import javax.servlet.http.*;
 import org.junit.After;
@@ -241,4 +243,39 @@ public final class MyTaskServletTest {
     writer.flush();
     assertEquals("", stringWriter.toString());
   }
+
+  @Test
+  public void streamsManyTasksTest() throws IOException {
+    // More tasks than fit in one chunk are all streamed, newest first
+    for (int i = 0; i < 250; i++) {
+      Entity taskEntity = new Entity("Task", userEntity.getKey());
+      taskEntity.setProperty("detail", "Test task " + i);
+      taskEntity.setProperty("timestamp", 1000 + i);
+      taskEntity.setProperty("reward", 50);
+      taskEntity.setProperty("status", "OPEN");
+      taskEntity.setProperty("Owner", "1234567890");
+      taskEntity.setProperty("Helper", "N/A");
+      taskEntity.setProperty("Address", "xxx");
+      taskEntity.setProperty("zipcode", "15213");
+      taskEntity.setProperty("country", "US");
+      taskEntity.setProperty("category", "misc");
+      ds.put(taskEntity);
+    }
+
+    when(request.getParameter("keyword")).thenReturn("Owner");
+    when(request.getParameter("complete")).thenReturn("False");
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new MyTaskServlet().doGet(request, response);
+    writer.flush();
+
+    JsonArray tasks = new JsonParser().parse(stringWriter.toString()).getAsJsonArray();
+    // The two tasks added in setUp that are OPEN or IN PROGRESS come last
+    assertEquals(252, tasks.size());
+    assertEquals("Test task 249", tasks.get(0).getAsJsonObject().get("detail").getAsString());
+    assertEquals("Test task 0", tasks.get(249).getAsJsonObject().get("detail").getAsString());
+    assertEquals("Leonard", tasks.get(0).getAsJsonObject().get("owner").getAsString());
+  }
 }
@@ -0,0 +1,192 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.dev.HighRepJobPolicy;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.io.IOException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the NicknameUpdateServlet file */
+@RunWith(JUnit4.class)
+public final class NicknameUpdateServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+
+    Entity userEntity = new Entity("UserInfo", "1234567890");
+    userEntity.setProperty("nickname", "Leo");
+    ds.put(userEntity);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void addTasks(int count, String owner, String helper) {
+    for (int i = 0; i < count; i++) {
+      Entity taskEntity = new Entity("Task");
+      taskEntity.setProperty("Owner", owner);
+      taskEntity.setProperty("Helper", helper);
+      taskEntity.setProperty("ownerNickname", "Leonard");
+      taskEntity.setProperty("helperNickname", "Leonard");
+      ds.put(taskEntity);
+    }
+  }
+
+  @Test
+  public void updateOwnerAndHelperNicknamesTest() throws IOException {
+    // Adds 3 tasks owned by the user and 2 tasks helped by the user
+    addTasks(3, "1234567890", "0987654321");
+    addTasks(2, "0987654321", "1234567890");
+
+    when(request.getParameter("user-id")).thenReturn("1234567890");
+    when(request.getParameter("role")).thenReturn("Owner");
+    new NicknameUpdateServlet().doPost(request, response);
+
+    when(request.getParameter("role")).thenReturn("Helper");
+    new NicknameUpdateServlet().doPost(request, response);
+
+    // Only the nickname matching the user's role on each task should have been rewritten
+    for (Entity entity : ds.prepare(new Query("Task")).asIterable()) {
+      if (entity.getProperty("Owner").equals("1234567890")) {
+        assertEquals("Leo", entity.getProperty("ownerNickname"));
+        assertEquals("Leonard", entity.getProperty("helperNickname"));
+      } else {
+        assertEquals("Leonard", entity.getProperty("ownerNickname"));
+        assertEquals("Leo", entity.getProperty("helperNickname"));
+      }
+    }
+
+    // All the tasks fit in one batch, so no other job should have been enqueued
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(0, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+
+  @Test
+  public void fullBatchEnqueuesNextBatchTest() throws IOException {
+    addTasks(150, "1234567890", "N/A");
+
+    when(request.getParameter("user-id")).thenReturn("1234567890");
+    when(request.getParameter("role")).thenReturn("Owner");
+    new NicknameUpdateServlet().doPost(request, response);
+
+    // Only the first batch of 100 tasks should have been updated, and the next batch enqueued
+    Query query =
+        new Query("Task")
+            .setFilter(
+                new Query.FilterPredicate("ownerNickname", Query.FilterOperator.EQUAL, "Leo"));
+    assertEquals(100, ds.prepare(query).countEntities(FetchOptions.Builder.withDefaults()));
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(1, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+
+  /**
+   * Job policy of the local datastore that leaves writes unapplied while stale is set, so that
+   * global queries return the entities as they were, while transactions read them as they are
+   */
+  public static final class StaleWritesPolicy implements HighRepJobPolicy {
+    static volatile boolean stale = false;
+
+    @Override
+    public boolean shouldApplyNewJob(Key entityGroup) {
+      return !stale;
+    }
+
+    @Override
+    public boolean shouldRollForwardExistingJob(Key entityGroup) {
+      return !stale;
+    }
+  }
+
+  @Test
+  public void staleQueryKeepsConcurrentChangesTest() throws Exception {
+    helper.tearDown();
+    helper =
+        new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig()
+                .setAlternateHighRepJobPolicyClass(StaleWritesPolicy.class),
+            new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    Entity userEntity = new Entity("UserInfo", "1234567890");
+    userEntity.setProperty("nickname", "Leo");
+    ds.put(userEntity);
+
+    Entity taskEntity = new Entity("Task");
+    taskEntity.setProperty("Owner", "0987654321");
+    taskEntity.setProperty("Helper", "1234567890");
+    taskEntity.setProperty("helperNickname", "Leonard");
+    taskEntity.setProperty("status", "IN PROGRESS");
+    Key taskKey = ds.put(taskEntity);
+
+    // The task is completed, and the global query of the job doesn't see it yet
+    StaleWritesPolicy.stale = true;
+    try {
+      taskEntity.setProperty("status", "COMPLETE");
+      ds.put(taskEntity);
+
+      when(request.getParameter("user-id")).thenReturn("1234567890");
+      when(request.getParameter("role")).thenReturn("Helper");
+      new NicknameUpdateServlet().doPost(request, response);
+    } finally {
+      StaleWritesPolicy.stale = false;
+    }
+
+    Entity updated = ds.get(taskKey);
+    assertEquals("Leo", updated.getProperty("helperNickname"));
+    assertEquals("COMPLETE", updated.getProperty("status"));
+  }
+
+  @Test
+  public void invalidRoleTest() throws IOException {
+    when(request.getParameter("user-id")).thenReturn("1234567890");
+    when(request.getParameter("role")).thenReturn("Admin");
+    new NicknameUpdateServlet().doPost(request, response);
+
+    verify(response).sendError(400, "Invalid nickname update");
+  }
+}
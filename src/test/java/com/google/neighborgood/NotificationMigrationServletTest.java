@@ -0,0 +1,151 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.common.collect.ImmutableMap;
+import com.google.neighborgood.helper.UnreadCounter;
+import java.io.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the NotificationMigrationServlet file */
+@RunWith(JUnit4.class)
+public final class NotificationMigrationServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void addNotifications(String receiver, String taskId, int count) {
+    for (int i = 0; i < count; i++) {
+      Entity notification = new Entity("Notification");
+      notification.setProperty("receiver", receiver);
+      notification.setProperty("taskId", taskId);
+      ds.put(notification);
+    }
+  }
+
+  private Entity addTask(String helper) {
+    Entity taskEntity = new Entity("Task");
+    taskEntity.setProperty("Owner", "1111111111");
+    taskEntity.setProperty("Helper", helper);
+    ds.put(taskEntity);
+    return taskEntity;
+  }
+
+  private int countNotifications() {
+    return ds.prepare(new Query("Notification")).countEntities(FetchOptions.Builder.withDefaults());
+  }
+
+  @Test
+  public void migrateNotificationsTest() throws IOException {
+    UnreadCounter.increment("1234567890", "task-1");
+    addNotifications("1234567890", "task-1", 30);
+    addNotifications("1234567890", "task-2", 2);
+    addNotifications("123456789", "task-1", 1);
+    addNotifications("N/A", "task-3", 4);
+
+    new NotificationMigrationServlet().doPost(request, response);
+
+    // The notifications are added to the counts, including more than a transaction can hold
+    assertEquals(
+        ImmutableMap.of("task-1", 31L, "task-2", 2L), UnreadCounter.getCounts("1234567890"));
+    assertEquals(ImmutableMap.of("task-1", 1L), UnreadCounter.getCounts("123456789"));
+    assertTrue(UnreadCounter.getCounts("N/A").isEmpty());
+    assertEquals(0, countNotifications());
+
+    // Rerunning the job doesn't count them twice
+    new NotificationMigrationServlet().doPost(request, response);
+    assertEquals(
+        ImmutableMap.of("task-1", 31L, "task-2", 2L), UnreadCounter.getCounts("1234567890"));
+  }
+
+  @Test
+  public void migratePreClaimNotificationsTest() throws IOException {
+    Entity openTask = addTask("N/A");
+    Entity claimedTask = addTask("1234567890");
+    Entity deletedTask = addTask("N/A");
+    ds.delete(deletedTask.getKey());
+    String openTaskId = KeyFactory.keyToString(openTask.getKey());
+    String claimedTaskId = KeyFactory.keyToString(claimedTask.getKey());
+    addNotifications("N/A", openTaskId, 30);
+    addNotifications("N/A", claimedTaskId, 2);
+    addNotifications("N/A", KeyFactory.keyToString(deletedTask.getKey()), 3);
+
+    new NotificationMigrationServlet().doPost(request, response);
+
+    // The messages sent before the claim go to the helper of the claimed task, and are kept for
+    // the future helper of the open one. Only the ones of the deleted task are dropped.
+    assertEquals(ImmutableMap.of(claimedTaskId, 2L), UnreadCounter.getCounts("1234567890"));
+    assertEquals(0, countNotifications());
+
+    // Claiming the open task hands its messages to the helper
+    Transaction transaction = ds.beginTransaction(TransactionOptions.Builder.withXG(true));
+    UnreadCounter.claimPending(ds, transaction, openTask.getKey(), "0987654321");
+    transaction.commit();
+    assertEquals(ImmutableMap.of(openTaskId, 30L), UnreadCounter.getCounts("0987654321"));
+  }
+
+  @Test
+  public void migrateInBatchesTest() throws IOException {
+    addNotifications("1234567890", "task-1", 200);
+
+    // A full batch enqueues the next one
+    new NotificationMigrationServlet().doPost(request, response);
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(1, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+    assertEquals(ImmutableMap.of("task-1", 200L), UnreadCounter.getCounts("1234567890"));
+  }
+}
@@ -14,7 +14,6 @@
 
 package com.google.neighborgood.servlets;
 
-import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
@@ -23,18 +22,13 @@ import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.CompositeFilter;
-import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
-import com.google.appengine.api.datastore.Query.Filter;
-import com.google.appengine.api.datastore.Query.FilterOperator;
-import com.google.appengine.api.datastore.Query.FilterPredicate;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.neighborgood.helper.UnreadCounter;
 import java.io.*;
 import javax.servlet.http.*;
 import org.junit.After;
@@ -42,6 +36,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 /** Unit test on the NotificationServlet file */
 @RunWith(JUnit4.class)
@@ -118,30 +113,18 @@ public final class NotificationServletTest {
 
     anotherKey = KeyFactory.keyToString(taskEntity.getKey());
 
-    // Add 3 dummy notification entities with the current user as receiver and taskId equals to
-    // keyString
+    // Count 3 unread messages of task keyString for the current user
     for (int i = 0; i < 3; i++) {
-      Entity entity = new Entity("Notification");
-      entity.setProperty("receiver", "1234567890");
-      entity.setProperty("taskId", keyString);
-      ds.put(entity);
+      UnreadCounter.increment("1234567890", keyString);
     }
 
-    // Add 4 dummy notification entities with taskId equals to keyString but not the current user as
-    // receiver
+    // Count 4 unread messages of task keyString for another user
     for (int i = 0; i < 4; i++) {
-      Entity entity = new Entity("Notification");
-      entity.setProperty("receiver", "123456789");
-      entity.setProperty("taskId", keyString);
-      ds.put(entity);
+      UnreadCounter.increment("123456789", keyString);
     }
 
-    // Add 1 dummy notification entity with the current user as receiver and taskId equals to
-    // anotherKey
-    Entity entity = new Entity("Notification");
-    entity.setProperty("receiver", "1234567890");
-    entity.setProperty("taskId", anotherKey);
-    ds.put(entity);
+    // Count 1 unread message of task anotherKey for the current user
+    UnreadCounter.increment("1234567890", anotherKey);
   }
 
   @After
@@ -155,66 +138,89 @@ public final class NotificationServletTest {
     assertTrue(userService.isUserAdmin());
     assertTrue(userService.isUserLoggedIn());
 
-    // Test the DataStore feature
-    assertEquals(8, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+    // Test the unread counts
+    assertEquals(
+        ImmutableMap.of(keyString, 3L, anotherKey, 1L), UnreadCounter.getCounts("1234567890"));
+    assertEquals(ImmutableMap.of(keyString, 4L), UnreadCounter.getCounts("123456789"));
   }
 
   @Test
   public void doDeleteTest() throws IOException {
-    // Ensure that there are 8 notification entity at the beginning
-    assertEquals(8, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
-
-    // Now let's try to delete all the notification entity with task id keyString and
-    // receiver not equals to N/A
+    // Now let's try to clear the unread messages of task keyString for the current user
     when(request.getParameter("task-id")).thenReturn(keyString);
 
     new NotificationServlet().doDelete(request, response);
 
-    // After handling the POST request, 7 entities should be removed
-    assertEquals(1, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
-
-    // Ensure that no notification with task id keyString and receiver 1234567890 is left
-    Filter idFilter = new FilterPredicate("taskId", FilterOperator.EQUAL, keyString);
-    Filter receiverFilter = new FilterPredicate("receiver", FilterOperator.EQUAL, "1234567890");
-    CompositeFilter filter = CompositeFilterOperator.and(idFilter, receiverFilter);
-    assertEquals(
-        0, ds.prepare(new Query("Notification").setFilter(filter)).countEntities(withLimit(10)));
+    // Only the count of task keyString for the current user should be cleared
+    assertEquals(ImmutableMap.of(anotherKey, 1L), UnreadCounter.getCounts("1234567890"));
+    assertEquals(ImmutableMap.of(keyString, 4L), UnreadCounter.getCounts("123456789"));
 
-    // Now let's try to delete all the notification entity with task id anotherKey and the receiver
-    // not equals to N/A
+    // Now let's try to clear the unread messages of task anotherKey for the current user
     when(request.getParameter("task-id")).thenReturn(anotherKey);
 
     new NotificationServlet().doDelete(request, response);
 
-    // After handling the POST request, 1 entity should be removed
-    assertEquals(0, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+    assertTrue(UnreadCounter.getCounts("1234567890").isEmpty());
+    assertEquals(ImmutableMap.of(keyString, 4L), UnreadCounter.getCounts("123456789"));
+  }
 
-    // Ensure that no notification with task id anotherKey and receiver 1234567890 is left
-    idFilter = new FilterPredicate("taskId", FilterOperator.EQUAL, anotherKey);
-    receiverFilter = new FilterPredicate("receiver", FilterOperator.EQUAL, "1234567890");
-    filter = CompositeFilterOperator.and(idFilter, receiverFilter);
-    assertEquals(
-        0, ds.prepare(new Query("Notification").setFilter(filter)).countEntities(withLimit(10)));
+  /** Sends a badge poll with the given If-None-Match header and returns its response */
+  private HttpServletResponse getBadge(String ifNoneMatch) throws IOException {
+    HttpServletRequest badgeRequest = mock(HttpServletRequest.class);
+    HttpServletResponse badgeResponse = mock(HttpServletResponse.class);
+    when(badgeRequest.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+    when(badgeResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    new NotificationServlet().doGet(badgeRequest, badgeResponse);
+    return badgeResponse;
   }
 
   @Test
-  public void doGetTest() throws IOException {
-    // Ensure that there are 8 notification entity at the beginning
-    assertEquals(8, ds.prepare(new Query("Notification")).countEntities(withLimit(10)));
+  public void doGetNotModifiedTest() throws IOException {
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(getBadge(null)).setHeader(eq("ETag"), etag.capture());
+
+    // The same unread messages get a 304 without a body
+    HttpServletResponse notModified = getBadge(etag.getValue());
+    verify(notModified).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(notModified, never()).getWriter();
+
+    // A new unread message, or an edited overview, changes the ETag
+    UnreadCounter.increment("1234567890", anotherKey);
+    verify(getBadge(etag.getValue()), never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(getBadge(null)).setHeader(eq("ETag"), etag.capture());
+    taskEntity.setProperty("overview", "Edited overview");
+    ds.put(taskEntity);
+    verify(getBadge(etag.getValue()), never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+  }
 
+  @Test
+  public void doGetSkipsDeletedTasksTest() throws IOException {
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    // The unread messages of a deleted task should not be shown
+    ds.delete(KeyFactory.stringToKey(anotherKey));
+
+    new NotificationServlet().doGet(request, response);
+
+    writer.flush();
+    assertTrue(stringWriter.toString().contains("\"taskId\":\"" + keyString + "\",\"count\":3"));
+    assertTrue(!stringWriter.toString().contains(anotherKey));
+  }
+
+  @Test
+  public void doGetTest() throws IOException {
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
     when(response.getWriter()).thenReturn(writer);
 
-    // Sending a GET request should return all the notification entities with the current user
-    // as receiver
+    // Sending a GET request should return the unread counts of the current user
     new NotificationServlet().doGet(request, response);
 
     // After sending the GET request, the doGet function should output the json string
     // that contains a notification object for task 1 and a notification object for task 2
     writer.flush();
-    System.out.println("Here");
-    System.out.println(stringWriter.toString());
     assertTrue(stringWriter.toString().contains("\"taskId\":\"" + keyString + "\",\"count\":3"));
     assertTrue(stringWriter.toString().contains("\"taskId\":\"" + anotherKey + "\",\"count\":1"));
 
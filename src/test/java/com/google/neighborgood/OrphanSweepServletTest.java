@@ -0,0 +1,160 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.io.*;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the OrphanSweepServlet file */
+@RunWith(JUnit4.class)
+public final class OrphanSweepServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private final ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+  private final PrintStream originalOut = System.out;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    System.setOut(new PrintStream(outContent));
+  }
+
+  @After
+  public void tearDown() {
+    System.setOut(originalOut);
+    helper.tearDown();
+  }
+
+  private void addMessages(Key taskKey, int count) {
+    for (int i = 0; i < count; i++) {
+      Entity message = new Entity("Message", taskKey);
+      message.setUnindexedProperty("taskId", KeyFactory.keyToString(taskKey));
+      ds.put(message);
+    }
+  }
+
+  private void addNotifications(String taskId, int count) {
+    for (int i = 0; i < count; i++) {
+      Entity notification = new Entity("Notification");
+      notification.setProperty("taskId", taskId);
+      ds.put(notification);
+    }
+  }
+
+  private List<String> getEnqueuedBodies() {
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    List<String> bodies = new ArrayList<>();
+    for (TaskStateInfo taskInfo : taskQueue.getQueueStateInfo().get("default").getTaskInfo()) {
+      bodies.add(taskInfo.getBody());
+    }
+    return bodies;
+  }
+
+  @Test
+  public void sweepOrphanedMessagesTest() throws IOException {
+    Entity task = new Entity("Task");
+    ds.put(task);
+    Entity deletedTask = new Entity("Task");
+    ds.put(deletedTask);
+    ds.delete(deletedTask.getKey());
+    String deletedTaskId = KeyFactory.keyToString(deletedTask.getKey());
+
+    addMessages(task.getKey(), 3);
+    addMessages(deletedTask.getKey(), 4);
+
+    // Messages without a parent are left to the migration job
+    Entity legacyMessage = new Entity("Message");
+    legacyMessage.setProperty("taskId", "not a task key");
+    ds.put(legacyMessage);
+
+    when(request.getParameter("kind")).thenReturn("Message");
+    new OrphanSweepServlet().doPost(request, response);
+
+    // Only the messages of the deleted task are cleaned up
+    List<String> bodies = getEnqueuedBodies();
+    assertEquals(1, bodies.size());
+    assertTrue(bodies.get(0).contains(deletedTaskId));
+  }
+
+  @Test
+  public void sweepOrphanedNotificationsTest() throws IOException {
+    Entity task = new Entity("Task");
+    ds.put(task);
+    Entity deletedTask = new Entity("Task");
+    ds.put(deletedTask);
+    ds.delete(deletedTask.getKey());
+    String taskId = KeyFactory.keyToString(task.getKey());
+    String deletedTaskId = KeyFactory.keyToString(deletedTask.getKey());
+
+    addNotifications(taskId, 3);
+    addNotifications(deletedTaskId, 4);
+    addNotifications("not a task key", 1);
+
+    when(request.getParameter("kind")).thenReturn("Notification");
+    new OrphanSweepServlet().doPost(request, response);
+
+    // Only the notifications of the deleted task and of the invalid task id are cleaned up
+    List<String> bodies = getEnqueuedBodies();
+    assertEquals(2, bodies.size());
+    String invalidTaskId = URLEncoder.encode("not a task key", "UTF-8");
+    assertTrue(bodies.stream().anyMatch(body -> body.contains(deletedTaskId)));
+    assertTrue(bodies.stream().anyMatch(body -> body.contains(invalidTaskId)));
+  }
+
+  @Test
+  public void invalidKindTest() throws IOException {
+    when(request.getParameter("kind")).thenReturn("Task");
+
+    ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+    PrintStream originalErr = System.err;
+    System.setErr(new PrintStream(errContent));
+    new OrphanSweepServlet().doPost(request, response);
+    System.setErr(originalErr);
+
+    verify(response).sendError(400, "Invalid orphan sweep");
+  }
+}
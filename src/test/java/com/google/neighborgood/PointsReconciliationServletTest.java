@@ -0,0 +1,148 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.PointsCounter;
+import com.google.neighborgood.helper.PointsLedger;
+import java.io.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the PointsReconciliationServlet file */
+@RunWith(JUnit4.class)
+public final class PointsReconciliationServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalMemcacheServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private HttpServletRequest request;
+  private HttpServletResponse response;
+  private final ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+  private final PrintStream originalErr = System.err;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    request = mock(HttpServletRequest.class);
+    response = mock(HttpServletResponse.class);
+    System.setErr(new PrintStream(errContent));
+    PointsCounter.setSettleMillis(0);
+  }
+
+  @After
+  public void tearDown() {
+    System.setErr(originalErr);
+    PointsCounter.setSettleMillis(PointsCounter.SETTLE_MILLIS);
+    helper.tearDown();
+  }
+
+  private Entity addUser(String userId, long points) {
+    Entity userEntity = new Entity("UserInfo", userId);
+    userEntity.setProperty("nickname", "User " + userId);
+    userEntity.setProperty("country", "US");
+    userEntity.setProperty("zipcode", "98033");
+    userEntity.setProperty("points", points);
+    ds.put(userEntity);
+    return userEntity;
+  }
+
+  private void completeTask(String helperId, long reward) throws Exception {
+    Entity taskEntity = new Entity("Task");
+    taskEntity.setProperty("Helper", helperId);
+    taskEntity.setProperty("reward", reward);
+    taskEntity.setProperty("status", "COMPLETE: AWAIT VERIFICATION");
+    ds.put(taskEntity);
+    PointsLedger.completeTask(taskEntity.getKey());
+  }
+
+  @Test
+  public void reconcilePointsTest() throws Exception {
+    addUser("consistent", 10);
+    Entity drifted = addUser("drifted", 0);
+    completeTask("consistent", 30);
+    completeTask("drifted", 20);
+    completeTask("drifted", 40);
+
+    // Points that were added to the counter without going through the ledger
+    PointsCounter.add("drifted", 100);
+    Leaderboard.recordPoints(drifted, PointsCounter.getPoints("drifted"));
+    assertEquals(160, PointsCounter.getPoints("drifted"));
+
+    new PointsReconciliationServlet().doPost(request, response);
+
+    // Only the drifted counter is reset to the ledger's total, keeping the legacy points
+    assertEquals(40, PointsCounter.getPoints("consistent"));
+    assertEquals(60, PointsCounter.getPoints("drifted"));
+    assertEquals(
+        "The points counter of user drifted holds 160 points but the ledger granted 60.\n"
+            + "Reset the counter of user drifted to the ledger's total.\n",
+        errContent.toString());
+
+    // The boards show the corrected total, even though it is lower
+    Entity topUser = Leaderboard.getTopUsers(null, null).get(0);
+    assertEquals("drifted", topUser.getKey().getName());
+    assertEquals(60, (long) topUser.getProperty("points"));
+  }
+
+  @Test
+  public void recentlyChangedCounterTest() throws Exception {
+    PointsCounter.setSettleMillis(PointsCounter.SETTLE_MILLIS);
+    addUser("drifted", 0);
+    completeTask("drifted", 20);
+    PointsCounter.add("drifted", 100);
+
+    new PointsReconciliationServlet().doPost(request, response);
+
+    // A counter whose latest rewards the ledger query may not see yet is only logged
+    assertEquals(120, PointsCounter.getPoints("drifted"));
+    assertEquals(
+        "The points counter of user drifted holds 120 points but the ledger granted 20.\n"
+            + "The counter of user drifted changed recently, leaving it to the next run.\n",
+        errContent.toString());
+  }
+
+  @Test
+  public void reconcileInBatchesTest() throws IOException {
+    for (int i = 0; i < 50; i++) {
+      addUser("user" + i, 0);
+    }
+
+    // A full batch enqueues the next one
+    new PointsReconciliationServlet().doPost(request, response);
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(1, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+}
@@ -0,0 +1,270 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.neighborgood.helper.MessagePosition;
+import com.google.neighborgood.repository.EntityPage;
+import com.google.neighborgood.repository.MessageRepository;
+import com.google.neighborgood.repository.NotificationRepository;
+import com.google.neighborgood.repository.Repositories;
+import com.google.neighborgood.repository.TaskFilter;
+import com.google.neighborgood.repository.TaskRepository;
+import com.google.neighborgood.repository.UserRepository;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit test on the repositories, which runs the same checks against the datastore and the in-memory
+ * backends so that they keep the same semantics
+ */
+@RunWith(JUnit4.class)
+public final class RepositoryTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+  }
+
+  @After
+  public void tearDown() {
+    Repositories.useDatastore();
+    helper.tearDown();
+  }
+
+  @Test
+  public void datastoreTaskTest() {
+    Repositories.useDatastore();
+    checkTasks(Repositories.tasks());
+  }
+
+  @Test
+  public void inMemoryTaskTest() {
+    Repositories.useInMemory();
+    checkTasks(Repositories.tasks());
+  }
+
+  @Test
+  public void datastoreMessageTest() {
+    Repositories.useDatastore();
+    checkMessages(Repositories.tasks(), Repositories.messages());
+  }
+
+  @Test
+  public void inMemoryMessageTest() {
+    Repositories.useInMemory();
+    checkMessages(Repositories.tasks(), Repositories.messages());
+  }
+
+  @Test
+  public void datastoreUserAndNotificationTest() {
+    Repositories.useDatastore();
+    checkUsers(Repositories.users());
+    checkNotifications(Repositories.notifications());
+  }
+
+  @Test
+  public void inMemoryUserAndNotificationTest() {
+    Repositories.useInMemory();
+    checkUsers(Repositories.users());
+    checkNotifications(Repositories.notifications());
+  }
+
+  @Test
+  public void datastoreRoundTripTest() {
+    Repositories.useDatastore();
+    checkRoundTrip(Repositories.tasks());
+  }
+
+  @Test
+  public void inMemoryRoundTripTest() {
+    Repositories.useInMemory();
+    checkRoundTrip(Repositories.tasks());
+  }
+
+  private static void checkRoundTrip(TaskRepository tasks) {
+    Entity taskEntity = createTask("Leo", "OPEN", 1000L, "round trip");
+    taskEntity.setProperty("reward", 50);
+    taskEntity.setUnindexedProperty("rating", 4.5f);
+    taskEntity.setProperty("sizes", Arrays.asList((short) 1, (byte) 2));
+    Entity stored = tasks.get(tasks.put(taskEntity));
+
+    // Integers and floats come back widened, with their indexing kept, so tasks can read the reward
+    assertEquals(50L, stored.getProperty("reward"));
+    assertEquals(4.5, stored.getProperty("rating"));
+    assertTrue(stored.isUnindexedProperty("rating"));
+    assertEquals(Arrays.asList(1L, 2L), stored.getProperty("sizes"));
+  }
+
+  private static void checkTasks(TaskRepository tasks) {
+    Key older = tasks.put(createTask("Leo", "OPEN", 1000L, "older"));
+    Key newer = tasks.put(createTask("Leo", "IN PROGRESS", 2000L, "newer"));
+    tasks.put(createTask("Leo", "COMPLETE", 3000L, "complete"));
+    tasks.put(createTask("Mafe", "OPEN", 4000L, "other owner"));
+    // Tasks whose timestamp isn't indexed can't be sorted on it, so they are never returned
+    Entity unindexed = createTask("Leo", "OPEN", 5000L, "unindexed");
+    unindexed.setUnindexedProperty("timestamp", 5000L);
+    tasks.put(unindexed);
+
+    List<String> overviews = new ArrayList<>();
+    for (Entity entity :
+        tasks.getByParticipant("Owner", "Leo", Arrays.asList("OPEN", "IN PROGRESS"), 1)) {
+      overviews.add((String) entity.getProperty("overview"));
+    }
+    assertEquals(Arrays.asList("newer", "older"), overviews);
+
+    // Changes to the returned entities aren't stored
+    Entity olderEntity = tasks.get(older);
+    olderEntity.setProperty("overview", "changed");
+    assertEquals("older", tasks.get(older).getProperty("overview"));
+
+    Key missing = KeyFactory.createKey("Task", 123456789L);
+    Map<Key, Entity> found = tasks.getAll(Arrays.asList(older, newer, missing));
+    assertEquals(2, found.size());
+    assertNull(tasks.get(missing));
+
+    // Pages of a filter continue where the previous one ended
+    TaskFilter leoTasks = new TaskFilter().equal("Owner", "Leo");
+    EntityPage first = tasks.getPage(leoTasks, null, 2);
+    assertEquals(Arrays.asList("complete", "newer"), getOverviews(first.getEntities()));
+    EntityPage second = tasks.getPage(leoTasks, first.getEndCursor(), 2);
+    assertEquals(Arrays.asList("older"), getOverviews(second.getEntities()));
+
+    // The creation time range includes both of its ends
+    TaskFilter range = new TaskFilter().from(2000L).to(4000L);
+    assertEquals(
+        Arrays.asList("other owner", "complete", "newer"),
+        getOverviews(tasks.getNewest(range, 10)));
+    assertEquals(Arrays.asList("other owner", "complete"), getOverviews(tasks.getNewest(range, 2)));
+    assertEquals(
+        Arrays.asList("other owner", "older"),
+        getOverviews(tasks.getMatching(new TaskFilter().equal("status", "OPEN"), 1)));
+
+    tasks.delete(older);
+    assertNull(tasks.get(older));
+  }
+
+  private static void checkMessages(TaskRepository tasks, MessageRepository messages) {
+    Key taskKey = tasks.put(createTask("Leo", "OPEN", 1000L, "chat"));
+    Key otherTaskKey = tasks.put(createTask("Leo", "OPEN", 2000L, "other chat"));
+    messages.put(createMessage(taskKey, 100L, "first"));
+    messages.put(createMessage(taskKey, 200L, "second"));
+    messages.put(createMessage(taskKey, 200L, "second"));
+    messages.put(createMessage(taskKey, 300L, "third"));
+    messages.put(createMessage(otherTaskKey, 400L, "elsewhere"));
+
+    // The position is exclusive, messages sent at the same time are ordered by key, and messages
+    // come oldest first
+    MessagePosition position = MessagePosition.of(messages.getAfter(taskKey, null, 2).get(1));
+    assertEquals(
+        Arrays.asList("second", "third"), getTexts(messages.getAfter(taskKey, position, 10)));
+    assertEquals(Arrays.asList("first"), getTexts(messages.getAfter(taskKey, null, 1)));
+    assertEquals(4, messages.getAfter(taskKey, null, 10).size());
+
+    assertEquals(Arrays.asList("third", "second"), getTexts(messages.getLatest(taskKey, 2)));
+    MessagePosition third = MessagePosition.of(messages.getLatest(taskKey, 1).get(0));
+    assertEquals(
+        Arrays.asList("second", "second", "first"),
+        getTexts(messages.getBefore(taskKey, third, 10)));
+    List<Entity> beforePosition = messages.getBefore(taskKey, position, 10);
+    assertEquals(1, beforePosition.size());
+    assertEquals(
+        messages.getAfter(taskKey, null, 1).get(0).getKey(), beforePosition.get(0).getKey());
+
+    // Pages of messages go from the newest to the oldest
+    EntityPage first = messages.getPage(taskKey, null, 3);
+    assertEquals(Arrays.asList("third", "second", "second"), getTexts(first.getEntities()));
+    EntityPage second = messages.getPage(taskKey, first.getEndCursor(), 3);
+    assertEquals(Arrays.asList("first"), getTexts(second.getEntities()));
+  }
+
+  private static void checkUsers(UserRepository users) {
+    Entity userEntity = new Entity("UserInfo", "1234567890");
+    userEntity.setProperty("nickname", "Leo");
+    users.put(userEntity);
+
+    assertEquals("Leo", users.get("1234567890").getProperty("nickname"));
+    assertNull(users.get("0987654321"));
+    Map<String, Entity> found = users.getAll(Arrays.asList("1234567890", "0987654321"));
+    assertEquals(1, found.size());
+    assertEquals("Leo", found.get("1234567890").getProperty("nickname"));
+  }
+
+  private static void checkNotifications(NotificationRepository notifications) {
+    notifications.increment("1234567890", "task-1");
+    notifications.increment("1234567890", "task-1");
+    notifications.increment("1234567890", "task-2");
+
+    Map<String, Long> counts = notifications.getCounts("1234567890");
+    assertEquals(2, counts.size());
+    assertEquals(2L, (long) counts.get("task-1"));
+    assertEquals(1L, (long) counts.get("task-2"));
+
+    notifications.reset("1234567890", "task-1");
+    notifications.reset("1234567890", "task-2");
+    assertTrue(notifications.getCounts("1234567890").isEmpty());
+    assertTrue(notifications.getCounts("0987654321").isEmpty());
+  }
+
+  private static Entity createTask(String owner, String status, long timestamp, String overview) {
+    Entity taskEntity = new Entity("Task");
+    taskEntity.setProperty("Owner", owner);
+    taskEntity.setProperty("Helper", "N/A");
+    taskEntity.setProperty("status", status);
+    taskEntity.setProperty("timestamp", timestamp);
+    taskEntity.setProperty("overview", overview);
+    return taskEntity;
+  }
+
+  private static Entity createMessage(Key taskKey, long sentTime, String message) {
+    Entity msgEntity = new Entity("Message", taskKey);
+    msgEntity.setUnindexedProperty("message", message);
+    msgEntity.setProperty("sentTime", sentTime);
+    return msgEntity;
+  }
+
+  private static List<String> getOverviews(Iterable<Entity> tasks) {
+    List<String> overviews = new ArrayList<>();
+    for (Entity entity : tasks) {
+      overviews.add((String) entity.getProperty("overview"));
+    }
+    return overviews;
+  }
+
+  private static List<String> getTexts(List<Entity> messages) {
+    List<String> texts = new ArrayList<>();
+    for (Entity entity : messages) {
+      texts.add((String) entity.getProperty("message"));
+    }
+    return texts;
+  }
+}
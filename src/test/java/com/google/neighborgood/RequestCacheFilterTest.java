@@ -0,0 +1,162 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.neighborgood.helper.CachingDatastoreService;
+import com.google.neighborgood.helper.RequestCache;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the RequestCacheFilter and the CachingDatastoreService it scopes */
+@RunWith(JUnit4.class)
+public final class RequestCacheFilterTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig());
+
+  private DatastoreService ds;
+  private Key userKey;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    Entity userEntity = new Entity("UserInfo", "1234567890");
+    userEntity.setProperty("nickname", "Leo");
+    userKey = ds.put(userEntity);
+  }
+
+  @After
+  public void tearDown() {
+    RequestCache.end();
+    helper.tearDown();
+  }
+
+  @Test
+  public void repeatedGetsHitTheCacheTest() throws Exception {
+    RequestCache.begin();
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    Entity first = datastore.get(userKey);
+    // Changes made by callers don't leak into the cache
+    first.setProperty("nickname", "Mafe");
+
+    // Another write to the datastore isn't seen for the rest of the request
+    Entity changedEntity = new Entity(userKey);
+    changedEntity.setProperty("nickname", "Jorge");
+    ds.put(changedEntity);
+
+    Entity second = datastore.get(userKey);
+    assertNotSame(first, second);
+    assertEquals("Leo", second.getProperty("nickname"));
+
+    CachingDatastoreService cache = RequestCache.end();
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void batchGetOnlyFetchesUnknownKeysTest() throws Exception {
+    RequestCache.begin();
+    DatastoreService datastore = RequestCache.getDatastoreService();
+    Key missingKey = KeyFactory.createKey("UserInfo", "0000000000");
+
+    datastore.get(userKey);
+    Map<Key, Entity> entities = datastore.get(Arrays.asList(userKey, missingKey));
+    assertEquals(1, entities.size());
+    assertTrue(entities.containsKey(userKey));
+
+    // Missing entities are remembered too
+    try {
+      datastore.get(missingKey);
+      throw new AssertionError("The missing entity was found");
+    } catch (EntityNotFoundException e) {
+      // Expected
+    }
+
+    CachingDatastoreService cache = RequestCache.end();
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void writesEvictTheCacheTest() throws Exception {
+    RequestCache.begin();
+    DatastoreService datastore = RequestCache.getDatastoreService();
+
+    Entity userEntity = datastore.get(userKey);
+    userEntity.setProperty("nickname", "Mafe");
+    datastore.put(userEntity);
+    assertEquals("Mafe", datastore.get(userKey).getProperty("nickname"));
+
+    datastore.delete(userKey);
+    List<Key> keys = Arrays.asList(userKey);
+    assertFalse(datastore.get(keys).containsKey(userKey));
+
+    CachingDatastoreService cache = RequestCache.end();
+    assertEquals(0, cache.getHits());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void filterScopesTheCacheToTheRequestTest() throws Exception {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getMethod()).thenReturn("GET");
+    when(request.getRequestURI()).thenReturn("/tasks");
+
+    DatastoreService[] datastores = new DatastoreService[2];
+    FilterChain chain =
+        (filterRequest, filterResponse) -> {
+          datastores[0] = RequestCache.getDatastoreService();
+          datastores[1] = RequestCache.getDatastoreService();
+          datastores[0].get(Arrays.asList(userKey));
+          datastores[1].get(Arrays.asList(userKey));
+        };
+    new RequestCacheFilter().doFilter(request, response, chain);
+
+    assertTrue(datastores[0] instanceof CachingDatastoreService);
+    assertEquals(datastores[0], datastores[1]);
+    assertEquals(1, ((CachingDatastoreService) datastores[0]).getHits());
+
+    // The scope ends with the request
+    assertFalse(RequestCache.getDatastoreService() instanceof CachingDatastoreService);
+    assertNull(RequestCache.end());
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.neighborgood.helper.Geohash;
+import com.google.neighborgood.helper.TaskClusterCache;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the TaskClusterServlet file */
+@RunWith(JUnit4.class)
+public final class TaskClusterServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(), new LocalMemcacheServiceTestConfig());
+
+  private DatastoreService ds;
+  private final ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+  private final PrintStream originalErr = System.err;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    // Clusters are cached as soon as they are computed, unless a test sets a window
+    TaskClusterCache.setConsistencyWindowMillis(0);
+  }
+
+  @After
+  public void tearDown() {
+    TaskClusterCache.setConsistencyWindowMillis(TaskClusterCache.CONSISTENCY_WINDOW_MILLIS);
+    helper.tearDown();
+  }
+
+  private Entity addTask(double lat, double lng, String category, String status) {
+    Entity taskEntity = new Entity("Task");
+    taskEntity.setProperty("status", status);
+    taskEntity.setProperty("category", category);
+    taskEntity.setProperty("lat", lat);
+    taskEntity.setProperty("lng", lng);
+    taskEntity.setProperty("geocells", Geohash.getPrefixes(lat, lng));
+    ds.put(taskEntity);
+    return taskEntity;
+  }
+
+  private JsonArray getClusters(String bbox, String zoom) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("bbox")).thenReturn(bbox);
+    when(request.getParameter("zoom")).thenReturn(zoom);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskClusterServlet().doGet(request, response);
+    writer.flush();
+    return new JsonParser().parse(stringWriter.toString()).getAsJsonArray();
+  }
+
+  @Test
+  public void clustersDoGetTest() throws IOException {
+    // Two open tasks in Kirkland, one completed task in Kirkland and one open task in New York
+    addTask(47.6744, -122.1758, "Garden", "OPEN");
+    addTask(47.6746, -122.1760, "Pets", "OPEN");
+    addTask(47.6745, -122.1759, "Pets", "COMPLETE");
+    addTask(40.7128, -74.0060, "Garden", "OPEN");
+
+    // At a city zoom level over Kirkland, both open tasks fall into a single cluster
+    JsonArray clusters = getClusters("47.60,-122.30,47.75,-122.10", "11");
+    assertEquals(1, clusters.size());
+    JsonObject cluster = clusters.get(0).getAsJsonObject();
+    assertEquals(2, cluster.get("count").getAsInt());
+    assertFalse(cluster.get("capped").getAsBoolean());
+    assertEquals(47.6745, cluster.get("lat").getAsDouble(), 1e-9);
+    assertEquals(-122.1759, cluster.get("lng").getAsDouble(), 1e-9);
+    JsonObject categories = cluster.get("categories").getAsJsonObject();
+    assertEquals(1, categories.get("Garden").getAsInt());
+    assertEquals(1, categories.get("Pets").getAsInt());
+
+    // At a country zoom level over the whole US, both cities get their own cluster
+    clusters = getClusters("25,-125,50,-65", "4");
+    assertEquals(2, clusters.size());
+  }
+
+  @Test
+  public void clustersInvalidationTest() throws IOException {
+    addTask(47.6744, -122.1758, "Garden", "OPEN");
+    assertEquals(
+        1,
+        getClusters("47.60,-122.30,47.75,-122.10", "11")
+            .get(0)
+            .getAsJsonObject()
+            .get("count")
+            .getAsInt());
+
+    // A task added without invalidating the cache isn't counted until its cells are invalidated
+    Entity newTask = addTask(47.6746, -122.1760, "Pets", "OPEN");
+    assertEquals(
+        1,
+        getClusters("47.60,-122.30,47.75,-122.10", "11")
+            .get(0)
+            .getAsJsonObject()
+            .get("count")
+            .getAsInt());
+
+    TaskClusterCache.invalidate(newTask);
+    assertEquals(
+        2,
+        getClusters("47.60,-122.30,47.75,-122.10", "11")
+            .get(0)
+            .getAsJsonObject()
+            .get("count")
+            .getAsInt());
+  }
+
+  @Test
+  public void staleRecomputeIsNotCachedTest() throws Exception {
+    TaskClusterCache.setConsistencyWindowMillis(60000);
+    helper.tearDown();
+    helper =
+        new LocalServiceTestHelper(
+            new LocalDatastoreServiceTestConfig()
+                .setAlternateHighRepJobPolicyClass(
+                    NicknameUpdateServletTest.StaleWritesPolicy.class),
+            new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+
+    addTask(47.6744, -122.1758, "Garden", "OPEN");
+    assertEquals(1, getClusterCount());
+
+    // The cells are recomputed right after the invalidation, by a query that doesn't see the new
+    // task yet
+    Entity newTask;
+    NicknameUpdateServletTest.StaleWritesPolicy.stale = true;
+    try {
+      newTask = addTask(47.6746, -122.1760, "Pets", "OPEN");
+      TaskClusterCache.invalidate(newTask);
+      assertEquals(1, getClusterCount());
+    } finally {
+      NicknameUpdateServletTest.StaleWritesPolicy.stale = false;
+    }
+
+    // The stale clusters weren't cached, so the task is counted once the query catches up
+    ds.get(newTask.getKey());
+    assertEquals(2, getClusterCount());
+  }
+
+  private int getClusterCount() throws IOException {
+    return getClusters("47.60,-122.30,47.75,-122.10", "11")
+        .get(0)
+        .getAsJsonObject()
+        .get("count")
+        .getAsInt();
+  }
+
+  @Test
+  public void cappedClusterTest() throws IOException {
+    // One more open task than a cluster is aggregated from, all in the same cell
+    List<Entity> taskEntities = new ArrayList<>();
+    for (int i = 0; i < 1001; i++) {
+      Entity taskEntity = new Entity("Task");
+      taskEntity.setProperty("status", "OPEN");
+      taskEntity.setProperty("category", "Garden");
+      taskEntity.setProperty("lat", 47.6744);
+      taskEntity.setProperty("lng", -122.1758);
+      taskEntity.setProperty("geocells", Geohash.getPrefixes(47.6744, -122.1758));
+      taskEntities.add(taskEntity);
+    }
+    ds.put(taskEntities);
+
+    JsonObject cluster = getClusters("47.60,-122.30,47.75,-122.10", "11").get(0).getAsJsonObject();
+    assertEquals(1000, cluster.get("count").getAsInt());
+    assertTrue(cluster.get("capped").getAsBoolean());
+  }
+
+  @Test
+  public void invalidBoundingBoxTest() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("bbox")).thenReturn("47.60,-122.30,47.75");
+    when(request.getParameter("zoom")).thenReturn("11");
+
+    System.setErr(new PrintStream(errContent));
+    new TaskClusterServlet().doGet(request, response);
+    errContent.reset();
+    System.setErr(originalErr);
+
+    verify(response).sendError(400, "Invalid bounding box or zoom");
+  }
+}
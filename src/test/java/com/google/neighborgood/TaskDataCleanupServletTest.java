@@ -0,0 +1,143 @@
+// Copyright 2020 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.neighborgood.servlets;
+
+import static com.google.appengine.api.datastore.FetchOptions.Builder.withDefaults;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
+import com.google.appengine.api.taskqueue.dev.QueueStateInfo.TaskStateInfo;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import java.io.*;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit test on the TaskDataCleanupServlet file */
+@RunWith(JUnit4.class)
+public final class TaskDataCleanupServletTest {
+  private LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(
+          new LocalDatastoreServiceTestConfig(),
+          new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true));
+
+  private DatastoreService ds;
+  private String taskId;
+  private String otherTaskId;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    ds = DatastoreServiceFactory.getDatastoreService();
+    taskId = KeyFactory.createKeyString("Task", 1);
+    otherTaskId = KeyFactory.createKeyString("Task", 2);
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  private void addMessages(String taskId, int count) {
+    List<Entity> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Entity message = new Entity("Message", KeyFactory.stringToKey(taskId));
+      message.setUnindexedProperty("taskId", taskId);
+      message.setProperty("message", "Message " + i);
+      messages.add(message);
+    }
+    ds.put(messages);
+  }
+
+  private int countMessages(String taskId) {
+    Query query = new Query("Message").setAncestor(KeyFactory.stringToKey(taskId)).setKeysOnly();
+    return ds.prepare(query).countEntities(withDefaults());
+  }
+
+  @Test
+  public void smallThreadDeletedInlineTest() {
+    addMessages(taskId, 30);
+    addMessages(otherTaskId, 5);
+
+    assertTrue(TaskDataCleanupServlet.delete("Message", taskId));
+    assertEquals(0, countMessages(taskId));
+    assertEquals(5, countMessages(otherTaskId));
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(0, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+
+  @Test
+  public void largeThreadDeletedInBackgroundTest() throws IOException {
+    addMessages(taskId, 1200);
+
+    // The first 1000 messages are deleted right away and the job is enqueued for the rest
+    assertFalse(TaskDataCleanupServlet.delete("Message", taskId));
+    assertEquals(200, countMessages(taskId));
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    List<TaskStateInfo> tasks = taskQueue.getQueueStateInfo().get("default").getTaskInfo();
+    assertEquals(1, tasks.size());
+
+    // Runs the job with the parameters it was enqueued with
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    for (String param : tasks.get(0).getBody().split("&")) {
+      String[] pair = param.split("=");
+      when(request.getParameter(pair[0])).thenReturn(URLDecoder.decode(pair[1], "UTF-8"));
+    }
+    new TaskDataCleanupServlet().doPost(request, response);
+    assertEquals(0, countMessages(taskId));
+
+    // The progress of the cleanup reports every deleted message
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+    new TaskDataCleanupServlet().doGet(request, response);
+    writer.flush();
+    assertEquals("{\"deleted\":1200,\"done\":true}\n", stringWriter.toString());
+  }
+
+  @Test
+  public void invalidKindTest() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("kind")).thenReturn("UserInfo");
+    when(request.getParameter("task-id")).thenReturn(taskId);
+
+    ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+    PrintStream originalErr = System.err;
+    System.setErr(new PrintStream(errContent));
+    new TaskDataCleanupServlet().doPost(request, response);
+    System.setErr(originalErr);
+
+    verify(response).sendError(400, "Invalid cleanup");
+  }
+}
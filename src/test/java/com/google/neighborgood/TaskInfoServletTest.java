@@ -29,9 +29,13 @@ import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.PointsCounter;
+import com.google.neighborgood.helper.PointsLedger;
 import java.io.*;
 import javax.servlet.http.*;
 import org.junit.After;
@@ -49,7 +53,9 @@ public final class TaskInfoServletTest {
    */
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig())
           .setEnvIsAdmin(true)
           .setEnvIsLoggedIn(true)
           .setEnvEmail("leonardzhang@google.com")
@@ -213,7 +219,14 @@ public final class TaskInfoServletTest {
     assertEquals("US", (String) entity.getProperty("country"));
     assertEquals("leonardzhang@google.com", (String) entity.getProperty("email"));
     assertEquals("1234567890", (String) entity.getProperty("userId"));
-    assertEquals(50, (long) entity.getProperty("points"));
+    assertEquals(50, PointsCounter.getPoints("1234567890"));
+
+    // The helper should also top the scorers boards with their new points
+    Entity topUser = Leaderboard.getTopUsers(null, null).get(0);
+    assertEquals("1234567890", topUser.getKey().getName());
+    assertEquals(50, (long) topUser.getProperty("points"));
+    topUser = Leaderboard.getTopUsers("US", "15213").get(0);
+    assertEquals(50, (long) topUser.getProperty("points"));
   }
 
   @Test
@@ -253,7 +266,60 @@ public final class TaskInfoServletTest {
 
     // Test whether the stored personal information has been updated
     assertEquals("1234567890", (String) entity.getProperty("userId"));
-    assertEquals(0, (long) entity.getProperty("points"));
+    assertEquals(0, PointsCounter.getPoints("1234567890"));
+  }
+
+  @Test
+  public void repeatedVerifyTaskTest() throws IOException {
+    taskEntity.setProperty("status", "COMPLETE: AWAIT VERIFICATION");
+    ds.put(taskEntity);
+
+    // Simulate the situation where the owner submits the verification twice
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getParameter("status")).thenReturn("COMPLETE");
+
+    new TaskInfoServlet().doPost(request, response);
+    new TaskInfoServlet().doPost(request, response);
+
+    // The helper should only be paid once, with a single entry in the ledger
+    assertEquals(
+        "COMPLETE", (String) ds.prepare(new Query("Task")).asSingleEntity().getProperty("status"));
+    assertEquals(50, PointsCounter.getPoints("1234567890"));
+    assertEquals(1, ds.prepare(new Query("PointsLedger")).countEntities(withLimit(10)));
+    assertEquals(50, PointsLedger.getPoints("1234567890"));
+    verify(response).sendError(400, "The task can't be completed");
+  }
+
+  @Test
+  public void unclaimedTaskCompletionTest() throws IOException {
+    taskEntity.setProperty("status", "OPEN");
+    taskEntity.setProperty("Helper", "N/A");
+    ds.put(taskEntity);
+
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getParameter("status")).thenReturn("COMPLETE");
+    new TaskInfoServlet().doPost(request, response);
+
+    // Nobody is paid, and the ledger entry of the task is left for its real helper
+    verify(response).sendError(400, "The task can't be completed");
+    assertEquals(
+        "OPEN", (String) ds.prepare(new Query("Task")).asSingleEntity().getProperty("status"));
+    assertEquals(0, ds.prepare(new Query("PointsLedger")).countEntities(withLimit(10)));
+    assertEquals(0, PointsCounter.getPoints("N/A"));
+  }
+
+  @Test
+  public void completedTaskCompletionTest() throws IOException {
+    taskEntity.setProperty("status", "COMPLETE");
+    ds.put(taskEntity);
+
+    when(request.getParameter("key")).thenReturn(keyString);
+    when(request.getParameter("status")).thenReturn("COMPLETE");
+    new TaskInfoServlet().doPost(request, response);
+
+    verify(response).sendError(400, "The task can't be completed");
+    assertEquals(0, ds.prepare(new Query("PointsLedger")).countEntities(withLimit(10)));
+    assertEquals(0, PointsCounter.getPoints("1234567890"));
   }
 
   @Test(expected = IllegalArgumentException.class)
@@ -16,6 +16,7 @@ package com.google.neighborgood.servlets;
 
 import static com.google.appengine.api.datastore.FetchOptions.Builder.withLimit;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
@@ -23,19 +24,25 @@ import static org.mockito.Mockito.*;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
-import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
-import com.google.appengine.api.datastore.Query.SortDirection;
-import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.neighborgood.helper.FeedCache;
+import com.google.neighborgood.helper.Geohash;
+import com.google.neighborgood.helper.PageToken;
+import com.google.neighborgood.helper.UserProfileCache;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -48,6 +55,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 /** Unit test on the TaskServlet file */
 @RunWith(JUnit4.class)
@@ -58,7 +66,10 @@ public final class TaskServletTest {
    */
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
           .setEnvIsAdmin(true)
           .setEnvIsLoggedIn(true)
           .setEnvEmail("leonardzhang@google.com")
@@ -70,7 +81,6 @@ public final class TaskServletTest {
   private UserService userService;
   private DatastoreService ds;
   private HttpServletRequest request;
-  private HttpSession session;
   private HttpServletResponse response;
   private Entity userEntity;
   private final ByteArrayOutputStream errContent = new ByteArrayOutputStream();
@@ -79,11 +89,12 @@ public final class TaskServletTest {
   @Before
   public void setUp() {
     helper.setUp();
+    // Feeds are settled as soon as they change, so that their pages get cached right away
+    FeedCache.setConsistencyWindowMillis(0);
     userService = UserServiceFactory.getUserService();
     ds = DatastoreServiceFactory.getDatastoreService();
     request = mock(HttpServletRequest.class);
     response = mock(HttpServletResponse.class);
-    session = mock(HttpSession.class);
     userEntity = new Entity("UserInfo", "1234567890");
     userEntity.setProperty("nickname", "Leonard");
     userEntity.setProperty("address", "xxx");
@@ -99,6 +110,8 @@ public final class TaskServletTest {
 
   @After
   public void tearDown() {
+    FeedCache.setConsistencyWindowMillis(FeedCache.CONSISTENCY_WINDOW_MILLIS);
+    UserProfileCache.clearLocal();
     helper.tearDown();
   }
 
@@ -140,6 +153,9 @@ public final class TaskServletTest {
     assertEquals("Help me please", (String) entity.getProperty("detail"));
     assertEquals("Task Overview", (String) entity.getProperty("overview"));
     assertEquals(50, (long) entity.getProperty("reward"));
+    assertEquals("Leonard", (String) entity.getProperty("ownerNickname"));
+    assertEquals("N/A", (String) entity.getProperty("helperNickname"));
+    assertEquals(Geohash.getPrefixes(47.674400, -122.175798), entity.getProperty("geocells"));
   }
 
   @Test
@@ -204,12 +220,10 @@ public final class TaskServletTest {
 
     when(request.getParameter("zipcode")).thenReturn("98033");
     when(request.getParameter("country")).thenReturn("United States");
-    when(request.getParameter("cursor")).thenReturn("clear");
     Map<String, String[]> dummyReturn = new HashMap<>();
     dummyReturn.put("zipcode", new String[] {"dummy1"});
     dummyReturn.put("country", new String[] {"dummy1"});
     when(request.getParameterMap()).thenReturn(dummyReturn);
-    when(request.getSession()).thenReturn(session);
 
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
@@ -256,12 +270,10 @@ public final class TaskServletTest {
 
     when(request.getParameter("zipcode")).thenReturn("98033");
     when(request.getParameter("country")).thenReturn("United States");
-    when(request.getParameter("cursor")).thenReturn("clear");
     Map<String, String[]> dummyReturn = new HashMap<>();
     dummyReturn.put("zipcode", new String[] {"dummy1"});
     dummyReturn.put("country", new String[] {"dummy1"});
     when(request.getParameterMap()).thenReturn(dummyReturn);
-    when(request.getSession()).thenReturn(session);
 
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
@@ -281,34 +293,17 @@ public final class TaskServletTest {
     assertEquals(10, taskCount);
     assertEquals(false, endOfQuery);
 
-    // I am generating this query just as like the previous servlet doGet would do for the sole
-    // purpose of retrieving the endCursor for the next test
-    Query query = new Query("Task").addSort("timestamp", SortDirection.DESCENDING);
-    List<Query.Filter> filters = new ArrayList<Query.Filter>();
-    filters.add(new Query.FilterPredicate("zipcode", Query.FilterOperator.EQUAL, "98033"));
-    filters.add(new Query.FilterPredicate("country", Query.FilterOperator.EQUAL, "United States"));
-    filters.add(new Query.FilterPredicate("status", Query.FilterOperator.EQUAL, "OPEN"));
-    query.setFilter(new Query.CompositeFilter(Query.CompositeFilterOperator.AND, filters));
-    FetchOptions fetchOptions = FetchOptions.Builder.withLimit(10);
-    QueryResultList<Entity> results;
-    try {
-      results = ds.prepare(query).asQueryResultList(fetchOptions);
-    } catch (IllegalArgumentException e) {
-      System.err.println(e);
-      return;
-    }
-    String endCursor = results.getCursor().toWebSafeString();
-
-    // passes the endCursor to the mocked session instance as it were stored in the real session
-    when(request.getSession().getAttribute("endCursor")).thenReturn(endCursor);
-
     verify(response).setContentType("application/json;");
 
+    // The first page has no previous page, but has a token for the next one
+    assertEquals(false, jsonObject.has("prevPageToken"));
+    String nextPageToken = jsonObject.get("nextPageToken").getAsString();
+
     stringWriter = new StringWriter();
     writer = new PrintWriter(stringWriter);
     when(response.getWriter()).thenReturn(writer);
 
-    when(request.getParameter("cursor")).thenReturn("end");
+    when(request.getParameter("pageToken")).thenReturn(nextPageToken);
     new TaskServlet().doGet(request, response);
 
     writer.flush();
@@ -321,15 +316,56 @@ public final class TaskServletTest {
     endOfQuery = jsonObject.get("endOfQuery").getAsBoolean();
     assertEquals(5, taskCount);
     assertEquals(true, endOfQuery);
+
+    // The last page has no next page, and its previous page token leads back to the first page
+    assertEquals(false, jsonObject.has("nextPageToken"));
+    String prevPageToken = jsonObject.get("prevPageToken").getAsString();
+
+    stringWriter = new StringWriter();
+    writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    when(request.getParameter("pageToken")).thenReturn(prevPageToken);
+    new TaskServlet().doGet(request, response);
+
+    writer.flush();
+
+    jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    assertEquals(10, jsonObject.get("currentTaskCount").getAsInt());
+    assertEquals(nextPageToken, jsonObject.get("nextPageToken").getAsString());
   }
 
   @Test
-  public void missingNeighborhoodDoGetTest() throws IOException, ServletException {
+  public void invalidPageTokenDoGetTest() throws IOException, ServletException {
     HttpServletRequest request = mock(HttpServletRequest.class);
     HttpServletResponse response = mock(HttpServletResponse.class);
 
-    when(request.getParameter("cursor")).thenReturn("clear");
-    when(request.getSession()).thenReturn(session);
+    when(request.getParameter("zipcode")).thenReturn("98033");
+    when(request.getParameter("country")).thenReturn("United States");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("zipcode", new String[] {"dummy1"});
+    dummyReturn.put("country", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    // A token whose cursor was tampered with should be rejected
+    List<String> cursors = new ArrayList<>();
+    cursors.add("abc");
+    String pageToken = PageToken.encode(cursors);
+    String tamperedToken = "ZGVm" + pageToken.substring(pageToken.indexOf('.'));
+    when(request.getParameter("pageToken")).thenReturn(tamperedToken);
+
+    System.setErr(new PrintStream(errContent));
+    new TaskServlet().doGet(request, response);
+    errContent.reset();
+    System.setErr(originalErr);
+
+    verify(response).sendError(400, "Invalid page token");
+  }
+
+  @Test
+  public void missingNeighborhoodDoGetTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
 
     System.setErr(new PrintStream(errContent));
 
@@ -394,14 +430,12 @@ public final class TaskServletTest {
 
     when(request.getParameter("zipcode")).thenReturn("98033");
     when(request.getParameter("country")).thenReturn("United States");
-    when(request.getParameter("cursor")).thenReturn("clear");
     when(request.getParameter("category")).thenReturn("Shopping");
     Map<String, String[]> dummyReturn = new HashMap<>();
     dummyReturn.put("zipcode", new String[] {"dummy1"});
     dummyReturn.put("country", new String[] {"dummy1"});
     dummyReturn.put("category", new String[] {"dummy1"});
     when(request.getParameterMap()).thenReturn(dummyReturn);
-    when(request.getSession()).thenReturn(session);
 
     StringWriter stringWriter = new StringWriter();
     PrintWriter writer = new PrintWriter(stringWriter);
@@ -439,4 +473,353 @@ public final class TaskServletTest {
     assertEquals(5, taskCount);
     assertEquals(true, endOfQuery);
   }
+
+  @Test
+  public void ownerNicknamesDoGetTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    Entity otherUserEntity = new Entity("UserInfo", "0987654321");
+    otherUserEntity.setProperty("nickname", "Mike");
+    ds.put(otherUserEntity);
+
+    // Adds one task for each of the two stored users and one for a user that does not exist
+    String[] ownerIds = {"1234567890", "0987654321", "5555555555"};
+    for (int i = 0; i < ownerIds.length; i++) {
+      Entity taskEntity = new Entity("Task", KeyFactory.createKey("UserInfo", ownerIds[i]));
+      taskEntity.setProperty("detail", "Test task detail");
+      taskEntity.setProperty("overview", "Test task overview" + i);
+      taskEntity.setProperty("timestamp", (long) i);
+      taskEntity.setProperty("reward", (long) 50);
+      taskEntity.setProperty("status", "OPEN");
+      taskEntity.setProperty("Owner", ownerIds[i]);
+      taskEntity.setProperty("Helper", "N/A");
+      taskEntity.setProperty("Address", "xxx");
+      taskEntity.setProperty("zipcode", "98033");
+      taskEntity.setProperty("country", "United States");
+      taskEntity.setProperty("category", "Garden");
+      ds.put(taskEntity);
+    }
+
+    when(request.getParameter("zipcode")).thenReturn("98033");
+    when(request.getParameter("country")).thenReturn("United States");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("zipcode", new String[] {"dummy1"});
+    dummyReturn.put("country", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskServlet().doGet(request, response);
+
+    writer.flush();
+
+    // Tasks are sorted by descending timestamp, so the task without a stored owner comes first
+    // and should fall back to the default nickname
+    JsonObject jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    JsonArray tasks = jsonObject.get("tasks").getAsJsonArray();
+    assertEquals(3, tasks.size());
+    assertEquals(
+        "Your Friendly Neighbor", tasks.get(0).getAsJsonObject().get("owner").getAsString());
+    assertEquals("Mike", tasks.get(1).getAsJsonObject().get("owner").getAsString());
+    assertEquals("Leonard", tasks.get(2).getAsJsonObject().get("owner").getAsString());
+  }
+
+  @Test
+  public void nearbyTasksDoGetTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    // Adds tasks at about 0km, 1km, 3km and 20km north of the search location, the closest being
+    // the oldest one
+    double[] latOffsets = {0, 0.009, 0.027, 0.18};
+    for (int i = 0; i < latOffsets.length; i++) {
+      double lat = 47.6744 + latOffsets[i];
+      double lng = -122.1758;
+      Entity taskEntity = new Entity("Task", userEntity.getKey());
+      taskEntity.setProperty("detail", "Test task detail");
+      taskEntity.setProperty("overview", "Test task overview" + i);
+      taskEntity.setProperty("timestamp", (long) i);
+      taskEntity.setProperty("reward", (long) 50);
+      taskEntity.setProperty("status", "OPEN");
+      taskEntity.setProperty("Owner", "1234567890");
+      taskEntity.setProperty("Helper", "N/A");
+      taskEntity.setProperty("Address", "xxx");
+      taskEntity.setProperty("zipcode", "98033");
+      taskEntity.setProperty("country", "United States");
+      taskEntity.setProperty("category", "Garden");
+      taskEntity.setProperty("lat", lat);
+      taskEntity.setProperty("lng", lng);
+      taskEntity.setProperty("geocells", Geohash.getPrefixes(lat, lng));
+      ds.put(taskEntity);
+    }
+
+    when(request.getParameter("lat")).thenReturn("47.6744");
+    when(request.getParameter("lng")).thenReturn("-122.1758");
+    when(request.getParameter("radiusKm")).thenReturn("5");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("radiusKm", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskServlet().doGet(request, response);
+    writer.flush();
+
+    // Only the 3 tasks within 5km are returned, closest first
+    JsonObject jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    JsonArray tasks = jsonObject.get("tasks").getAsJsonArray();
+    assertEquals(3, tasks.size());
+    assertEquals(true, jsonObject.get("endOfQuery").getAsBoolean());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          "Test task overview" + i, tasks.get(i).getAsJsonObject().get("overview").getAsString());
+    }
+
+    // Sorting by recency returns the same tasks, newest first
+    when(request.getParameter("sort")).thenReturn("recent");
+    stringWriter = new StringWriter();
+    writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskServlet().doGet(request, response);
+    writer.flush();
+
+    jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    tasks = jsonObject.get("tasks").getAsJsonArray();
+    assertEquals(3, tasks.size());
+    for (int i = 0; i < 3; i++) {
+      assertEquals(
+          "Test task overview" + (2 - i),
+          tasks.get(i).getAsJsonObject().get("overview").getAsString());
+    }
+  }
+
+  @Test
+  public void denseCellNearbyDoGetTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    // Adds the oldest task at the search location, then 60 newer tasks about 4km north of it, all
+    // in the same covering cell
+    for (int i = 0; i <= 60; i++) {
+      double lat = i == 0 ? 47.6744 : 47.7104;
+      double lng = -122.1758;
+      Entity taskEntity = new Entity("Task", userEntity.getKey());
+      taskEntity.setProperty("detail", "Test task detail");
+      taskEntity.setProperty("overview", i == 0 ? "Nearest task" : "Far task" + i);
+      taskEntity.setProperty("timestamp", (long) i);
+      taskEntity.setProperty("reward", (long) 50);
+      taskEntity.setProperty("status", "OPEN");
+      taskEntity.setProperty("Owner", "1234567890");
+      taskEntity.setProperty("Helper", "N/A");
+      taskEntity.setProperty("Address", "xxx");
+      taskEntity.setProperty("zipcode", "98033");
+      taskEntity.setProperty("country", "United States");
+      taskEntity.setProperty("category", "Garden");
+      taskEntity.setProperty("lat", lat);
+      taskEntity.setProperty("lng", lng);
+      taskEntity.setProperty("geocells", Geohash.getPrefixes(lat, lng));
+      ds.put(taskEntity);
+    }
+
+    when(request.getParameter("lat")).thenReturn("47.6744");
+    when(request.getParameter("lng")).thenReturn("-122.1758");
+    when(request.getParameter("radiusKm")).thenReturn("5");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("radiusKm", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskServlet().doGet(request, response);
+    writer.flush();
+
+    // The full cell is split, so the nearest task is found even though 50 newer tasks share its
+    // covering cell
+    JsonObject jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    JsonArray tasks = jsonObject.get("tasks").getAsJsonArray();
+    assertEquals(50, tasks.size());
+    assertEquals("Nearest task", tasks.get(0).getAsJsonObject().get("overview").getAsString());
+  }
+
+  @Test
+  public void invalidRadiusDoGetTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    when(request.getParameter("lat")).thenReturn("47.6744");
+    when(request.getParameter("lng")).thenReturn("-122.1758");
+    when(request.getParameter("radiusKm")).thenReturn("500");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("radiusKm", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    System.setErr(new PrintStream(errContent));
+    new TaskServlet().doGet(request, response);
+    errContent.reset();
+    System.setErr(originalErr);
+
+    verify(response).sendError(400, "Location coordinates or radius out of range");
+  }
+
+  private int getFeedTaskCount() throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("zipcode")).thenReturn("15213");
+    when(request.getParameter("country")).thenReturn("US");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("zipcode", new String[] {"dummy1"});
+    dummyReturn.put("country", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new TaskServlet().doGet(request, response);
+    writer.flush();
+    JsonObject jsonObject = new JsonParser().parse(stringWriter.toString()).getAsJsonObject();
+    return jsonObject.get("currentTaskCount").getAsInt();
+  }
+
+  @Test
+  public void feedCacheDoGetTest() throws IOException, ServletException {
+    when(request.getParameter("reward-input")).thenReturn("50");
+    when(request.getParameter("task-detail-input")).thenReturn("Help me please");
+    when(request.getParameter("category-input")).thenReturn("misc");
+    when(request.getParameter("task-overview-input")).thenReturn("Task Overview");
+    new TaskServlet().doPost(request, response);
+
+    long hits = FeedCache.getStats().get("hits");
+    long misses = FeedCache.getStats().get("misses");
+
+    // The first read misses the cache and the second one hits it
+    assertEquals(1, getFeedTaskCount());
+    assertEquals(1, getFeedTaskCount());
+    assertEquals(hits + 1, (long) FeedCache.getStats().get("hits"));
+    assertEquals(misses + 1, (long) FeedCache.getStats().get("misses"));
+
+    // A task written directly to the datastore is not seen until the feed gets invalidated
+    Entity taskEntity = ds.prepare(new Query("Task")).asSingleEntity();
+    taskEntity.setProperty("status", "COMPLETE");
+    ds.put(taskEntity);
+    assertEquals(1, getFeedTaskCount());
+
+    // Posting a new task through the servlet invalidates the cached feed
+    new TaskServlet().doPost(request, response);
+    assertEquals(1, getFeedTaskCount());
+    new TaskServlet().doPost(request, response);
+    assertEquals(2, getFeedTaskCount());
+  }
+
+  @Test
+  public void notModifiedDoGetTest() throws IOException, ServletException {
+    when(request.getParameter("reward-input")).thenReturn("50");
+    when(request.getParameter("task-detail-input")).thenReturn("Help me please");
+    when(request.getParameter("category-input")).thenReturn("misc");
+    when(request.getParameter("task-overview-input")).thenReturn("Task Overview");
+    new TaskServlet().doPost(request, response);
+
+    String etag = getFeedETag(null);
+    assertTrue(etag.startsWith("W/"));
+
+    // Asking again with the same ETag returns 304 before the feed is read
+    long hits = FeedCache.getStats().get("hits");
+    long misses = FeedCache.getStats().get("misses");
+    assertEquals(etag, getFeedETag(etag));
+    assertEquals(hits, (long) FeedCache.getStats().get("hits"));
+    assertEquals(misses, (long) FeedCache.getStats().get("misses"));
+
+    // A new task in the neighborhood changes the ETag
+    new TaskServlet().doPost(request, response);
+    String newETag = getFeedETag(etag);
+    assertFalse(etag.equals(newETag));
+    assertEquals(2, getFeedTaskCount());
+  }
+
+  @Test
+  public void unsettledFeedDoGetTest() throws IOException, ServletException {
+    FeedCache.setConsistencyWindowMillis(60000);
+    when(request.getParameter("reward-input")).thenReturn("50");
+    when(request.getParameter("task-detail-input")).thenReturn("Help me please");
+    when(request.getParameter("category-input")).thenReturn("misc");
+    when(request.getParameter("task-overview-input")).thenReturn("Task Overview");
+    new TaskServlet().doPost(request, response);
+
+    // Right after a change, the feed is queried every time and can't be revalidated
+    long hits = FeedCache.getStats().get("hits");
+    long misses = FeedCache.getStats().get("misses");
+    assertEquals(1, getFeedTaskCount());
+    assertEquals(1, getFeedTaskCount());
+    assertEquals(hits, (long) FeedCache.getStats().get("hits"));
+    assertEquals(misses, (long) FeedCache.getStats().get("misses"));
+
+    HttpServletRequest feedRequest = mock(HttpServletRequest.class);
+    HttpServletResponse feedResponse = mock(HttpServletResponse.class);
+    when(feedRequest.getParameter("zipcode")).thenReturn("15213");
+    when(feedRequest.getParameter("country")).thenReturn("US");
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("zipcode", new String[] {"dummy1"});
+    dummyReturn.put("country", new String[] {"dummy1"});
+    when(feedRequest.getParameterMap()).thenReturn(dummyReturn);
+    when(feedResponse.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    new TaskServlet().doGet(feedRequest, feedResponse);
+    verify(feedResponse, never()).setHeader(eq("ETag"), anyString());
+    verify(feedResponse).setHeader("Cache-Control", "private, no-cache");
+  }
+
+  /**
+   * Gets the feed with the given If-None-Match header and returns its ETag. Checks that the
+   * response is a 304 without a body exactly when the header matches the ETag.
+   */
+  private String getFeedETag(String ifNoneMatch) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("zipcode")).thenReturn("15213");
+    when(request.getParameter("country")).thenReturn("US");
+    when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+    Map<String, String[]> dummyReturn = new HashMap<>();
+    dummyReturn.put("zipcode", new String[] {"dummy1"});
+    dummyReturn.put("country", new String[] {"dummy1"});
+    when(request.getParameterMap()).thenReturn(dummyReturn);
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+
+    new TaskServlet().doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq("ETag"), etag.capture());
+    verify(response).setHeader("Cache-Control", "private, no-cache");
+    if (etag.getValue().equals(ifNoneMatch)) {
+      verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+      verify(response, never()).getWriter();
+    } else {
+      verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    }
+    return etag.getValue();
+  }
+
+  @Test
+  public void doDeleteEnqueuesCleanupTest() throws IOException {
+    Entity taskEntity = new Entity("Task", userEntity.getKey());
+    taskEntity.setProperty("status", "OPEN");
+    taskEntity.setProperty("Owner", "1234567890");
+    taskEntity.setProperty("zipcode", "15213");
+    taskEntity.setProperty("country", "US");
+    ds.put(taskEntity);
+    String keyString = KeyFactory.keyToString(taskEntity.getKey());
+
+    when(request.getParameter("key")).thenReturn(keyString);
+    new TaskServlet().doDelete(request, response);
+
+    // The task is gone, and the cleanup of its messages and notifications is enqueued
+    assertEquals(0, ds.prepare(new Query("Task")).countEntities(withLimit(10)));
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(2, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
 }
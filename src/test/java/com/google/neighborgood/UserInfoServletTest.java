@@ -28,13 +28,23 @@ import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.dev.LocalTaskQueue;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalUserServiceTestConfig;
 import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.neighborgood.helper.Leaderboard;
+import com.google.neighborgood.helper.PointsCounter;
+import com.google.neighborgood.helper.UserProfileCache;
 import java.io.*;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.http.*;
 import org.junit.After;
@@ -42,6 +52,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 
 /** Unit test on the UserInfoServlet file */
 @RunWith(JUnit4.class)
@@ -52,7 +63,10 @@ public final class UserInfoServletTest {
    */
   private LocalServiceTestHelper helper =
       new LocalServiceTestHelper(
-              new LocalDatastoreServiceTestConfig(), new LocalUserServiceTestConfig())
+              new LocalDatastoreServiceTestConfig(),
+              new LocalUserServiceTestConfig(),
+              new LocalMemcacheServiceTestConfig(),
+              new LocalTaskQueueTestConfig().setDisableAutoTaskExecution(true))
           .setEnvIsAdmin(true)
           .setEnvIsLoggedIn(true)
           .setEnvEmail("leonardzhang@google.com")
@@ -71,6 +85,7 @@ public final class UserInfoServletTest {
 
   @After
   public void tearDown() {
+    UserProfileCache.clearLocal();
     helper.tearDown();
   }
 
@@ -347,4 +362,221 @@ public final class UserInfoServletTest {
     // Finally, ensure that the servlet file has set the content type to json
     verify(response).setContentType("application/json;");
   }
+
+  @Test
+  public void nicknameChangeEnqueuesUpdateTest() throws IOException, ServletException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+
+    when(request.getParameter("nickname-input")).thenReturn("Leonard");
+    when(request.getParameter("address-input")).thenReturn("4xxx Centre Avenue");
+    when(request.getParameter("zipcode-input")).thenReturn("xxxxx");
+    when(request.getParameter("country-input")).thenReturn("United States");
+    when(request.getParameter("lat")).thenReturn("47.6912892");
+    when(request.getParameter("lng")).thenReturn("-122.2406845");
+
+    // Creating the account and saving it again with the same nickname should not enqueue anything
+    new UserInfoServlet().doPost(request, response);
+    new UserInfoServlet().doPost(request, response);
+    LocalTaskQueue taskQueue = LocalTaskQueueTestConfig.getLocalTaskQueue();
+    assertEquals(0, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+
+    // Changing the nickname enqueues one update job for the owned tasks and one for the helped ones
+    when(request.getParameter("nickname-input")).thenReturn("Leo");
+    new UserInfoServlet().doPost(request, response);
+    assertEquals(2, taskQueue.getQueueStateInfo().get("default").getTaskInfo().size());
+  }
+
+  private Entity addUser(String userId, String zipcode, long points) {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity user = new Entity("UserInfo", userId);
+    user.setProperty("nickname", "User " + userId);
+    user.setProperty("address", "xxx");
+    user.setProperty("email", userId + "@example.com");
+    user.setProperty("zipcode", zipcode);
+    user.setProperty("country", "US");
+    user.setProperty("points", points);
+    ds.put(user);
+    return user;
+  }
+
+  private JsonArray getTopScorers(String zipcode) throws IOException {
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameterMap())
+        .thenReturn(
+            zipcode == null
+                ? ImmutableMap.of("action", new String[] {"topscorers"})
+                : ImmutableMap.of(
+                    "action",
+                    new String[] {"topscorers"},
+                    "zipcode",
+                    new String[] {zipcode},
+                    "country",
+                    new String[] {"US"}));
+    when(request.getParameter("action")).thenReturn("topscorers");
+    when(request.getParameter("zipcode")).thenReturn(zipcode);
+    when(request.getParameter("country")).thenReturn("US");
+
+    StringWriter stringWriter = new StringWriter();
+    PrintWriter writer = new PrintWriter(stringWriter);
+    when(response.getWriter()).thenReturn(writer);
+
+    new UserInfoServlet().doGet(request, response);
+    writer.flush();
+    return new JsonParser().parse(stringWriter.toString()).getAsJsonArray();
+  }
+
+  @Test
+  public void topScorersDoGetTest() throws IOException {
+    for (int i = 0; i < 12; i++) {
+      addUser("user" + i, i % 2 == 0 ? "98033" : "80017", 10 * i);
+    }
+
+    // The boards are seeded from the points stored on the users
+    JsonArray users = getTopScorers(null);
+    assertEquals(Leaderboard.TOP_USERS, users.size());
+    assertEquals("User user11", users.get(0).getAsJsonObject().get("nickname").getAsString());
+    assertEquals(110, users.get(0).getAsJsonObject().get("points").getAsLong());
+    users = getTopScorers("98033");
+    assertEquals(6, users.size());
+    assertEquals("User user10", users.get(0).getAsJsonObject().get("nickname").getAsString());
+
+    // Rewards are added to the user's shards and move them up both boards
+    Entity user = addUser("user2", "98033", 20);
+    PointsCounter.add("user2", 100);
+    PointsCounter.add("user2", 5);
+    assertEquals(125, PointsCounter.getPoints("user2"));
+    Leaderboard.recordPoints(user, PointsCounter.getPoints("user2"));
+
+    JsonObject topUser = getTopScorers(null).get(0).getAsJsonObject();
+    assertEquals("User user2", topUser.get("nickname").getAsString());
+    assertEquals(125, topUser.get("points").getAsLong());
+    topUser = getTopScorers("98033").get(0).getAsJsonObject();
+    assertEquals("User user2", topUser.get("nickname").getAsString());
+
+    // An older total recorded late doesn't lower the user's points
+    Leaderboard.recordPoints(user, 20);
+    assertEquals(125, getTopScorers(null).get(0).getAsJsonObject().get("points").getAsLong());
+
+    // Moving to another neighborhood moves the user to the other board
+    user.setProperty("zipcode", "80017");
+    DatastoreServiceFactory.getDatastoreService().put(user);
+    Leaderboard.updateUser(user, "US", "98033");
+    assertEquals(
+        "User user10",
+        getTopScorers("98033").get(0).getAsJsonObject().get("nickname").getAsString());
+    assertEquals(
+        "User user2",
+        getTopScorers("80017").get(0).getAsJsonObject().get("nickname").getAsString());
+  }
+
+  @Test
+  public void topScorersNotModifiedTest() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      addUser("user" + i, "98033", 10 * i);
+    }
+    getTopScorers(null);
+
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    when(request.getParameterMap())
+        .thenReturn(ImmutableMap.of("action", new String[] {"topscorers"}));
+    when(request.getParameter("action")).thenReturn("topscorers");
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(response.getWriter()).thenReturn(new PrintWriter(new StringWriter()));
+    new UserInfoServlet().doGet(request, response);
+    ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+    verify(response).setHeader(eq("ETag"), etag.capture());
+
+    // The same board gets a 304 without a body
+    when(request.getHeader("If-None-Match")).thenReturn(etag.getValue());
+    HttpServletResponse notModified = mock(HttpServletResponse.class);
+    new UserInfoServlet().doGet(request, notModified);
+    verify(notModified).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    verify(notModified, never()).getWriter();
+
+    // A profile change on the board changes the ETag, even though the points didn't change
+    Entity user =
+        DatastoreServiceFactory.getDatastoreService()
+            .get(KeyFactory.createKey("UserInfo", "user2"));
+    user.setProperty("nickname", "Renamed");
+    DatastoreServiceFactory.getDatastoreService().put(user);
+    Leaderboard.updateUser(user, "US", "98033");
+    HttpServletResponse changed = mock(HttpServletResponse.class);
+    StringWriter stringWriter = new StringWriter();
+    when(changed.getWriter()).thenReturn(new PrintWriter(stringWriter, true));
+    new UserInfoServlet().doGet(request, changed);
+    verify(changed, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+    assertTrue(stringWriter.toString().contains("Renamed"));
+  }
+
+  @Test
+  public void unchangedProfileKeepsBoardTest() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      addUser("user" + i, "98033", 10 * i);
+    }
+    getTopScorers(null);
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Key boardKey = KeyFactory.createKey("Leaderboard", "global");
+    long version = (Long) ds.get(boardKey).getProperty("version");
+
+    // Saving the profile of a top scorer without changing their points doesn't rewrite the board,
+    // but the board still shows their new nickname
+    Entity user = ds.get(KeyFactory.createKey("UserInfo", "user2"));
+    user.setProperty("nickname", "Renamed");
+    ds.put(user);
+    Leaderboard.updateUser(user, "US", "98033");
+    assertEquals(version, (long) (Long) ds.get(boardKey).getProperty("version"));
+    assertEquals(
+        "Renamed", getTopScorers(null).get(0).getAsJsonObject().get("nickname").getAsString());
+
+    // Gaining points does rewrite it
+    PointsCounter.add("user2", 5);
+    Leaderboard.updateUser(user, "US", "98033");
+    assertEquals(version + 1, (long) (Long) ds.get(boardKey).getProperty("version"));
+  }
+
+  @Test
+  public void profileCacheInvalidationTest() throws IOException, ServletException {
+    DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
+    Entity user = new Entity("UserInfo", "1234567890");
+    user.setProperty("nickname", "Leonard");
+    user.setProperty("address", "4xxx Centre Avenue");
+    user.setProperty("zipcode", "xxxxx");
+    user.setProperty("country", "United States");
+    user.setProperty("points", 10L);
+    ds.put(user);
+
+    // The counters are kept for the whole instance, so only their growth is checked
+    Map<String, Object> before = UserProfileCache.getStats();
+    assertEquals("Leonard", UserProfileCache.get("1234567890").getNickname());
+    assertEquals(10, UserProfileCache.get("1234567890").getPoints());
+
+    // Writes that bypass the servlets aren't seen while the profile is cached
+    user.setProperty("nickname", "Leo");
+    ds.put(user);
+    assertEquals("Leonard", UserProfileCache.get("1234567890").getNickname());
+
+    // Rewards drop the cached profile
+    PointsCounter.add("1234567890", 5);
+    assertEquals("Leo", UserProfileCache.get("1234567890").getNickname());
+    assertEquals(15, UserProfileCache.get("1234567890").getPoints());
+
+    // Saving the profile drops it too
+    HttpServletRequest request = mock(HttpServletRequest.class);
+    HttpServletResponse response = mock(HttpServletResponse.class);
+    when(request.getParameter("nickname-input")).thenReturn("Leonardo");
+    when(request.getParameter("address-input")).thenReturn("4xxx Centre Avenue");
+    when(request.getParameter("zipcode-input")).thenReturn("xxxxx");
+    when(request.getParameter("country-input")).thenReturn("United States");
+    when(request.getParameter("lat")).thenReturn("47.6912892");
+    when(request.getParameter("lng")).thenReturn("-122.2406845");
+    new UserInfoServlet().doPost(request, response);
+    assertEquals("Leonardo", UserProfileCache.get("1234567890").getNickname());
+
+    // Only the first read after each invalidation missed the cache
+    Map<String, Object> after = UserProfileCache.getStats();
+    assertEquals(3L, (long) after.get("misses") - (long) before.get("misses"));
+    assertEquals(3L, (long) after.get("localHits") - (long) before.get("localHits"));
+  }
 }